@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Decodes list responses with the same {@link ObjectMapper} configuration as
+ * {@code MappingJackson2XmlHttpMessageConverter} and incrementally with
+ * {@link ListResultDecoder}. Run with {@code -prof gc} and divide
+ * {@code gc.alloc.rate.norm} by {@code entries} to compare the allocation per key.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+@State(Scope.Benchmark)
+public class ListResultDecodingBenchmark {
+
+	@Param({ "1000", "1000000" })
+	int entries;
+
+	ObjectMapper xmlMapper;
+
+	byte[] listBucketResult;
+
+	byte[] listVersionsResult;
+
+	@Setup
+	public void setup() {
+		this.xmlMapper = Jackson2ObjectMapperBuilder.xml().build();
+		this.listBucketResult = ListResultFixtures.listBucketResult(this.entries);
+		this.listVersionsResult = ListResultFixtures.listVersionsResult(this.entries);
+	}
+
+	@Benchmark
+	public ListBucketResult listBucketResult() throws IOException {
+		return this.xmlMapper.readValue(this.listBucketResult, ListBucketResult.class);
+	}
+
+	@Benchmark
+	public ListVersionsResult listVersionsResult() throws IOException {
+		return this.xmlMapper.readValue(this.listVersionsResult, ListVersionsResult.class);
+	}
+
+	@Benchmark
+	public ListBucketResult listBucketResultStax(Blackhole blackhole) {
+		return ListResultDecoder.decodeListBucketResult(new ByteArrayInputStream(this.listBucketResult),
+				blackhole::consume);
+	}
+
+	@Benchmark
+	public ListVersionsResult listVersionsResultStax(Blackhole blackhole) {
+		return ListResultDecoder.decodeListVersionsResult(new ByteArrayInputStream(this.listVersionsResult),
+				blackhole::consume, blackhole::consume);
+	}
+
+}
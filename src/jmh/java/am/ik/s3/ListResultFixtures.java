@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Generates S3 list responses with the given number of entries.
+ */
+final class ListResultFixtures {
+
+	private ListResultFixtures() {
+	}
+
+	static byte[] listBucketResult(int entries) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(entries * 400);
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+			writer.print("""
+					<?xml version="1.0" encoding="UTF-8"?>
+					<ListBucketResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/">
+					<Name>bench</Name><Prefix></Prefix><Marker></Marker><MaxKeys>%d</MaxKeys><IsTruncated>false</IsTruncated>
+					""".formatted(entries));
+			for (int i = 0; i < entries; i++) {
+				writer.print("""
+						<Contents><Key>logs/2023/10/17/part-%08d.gz</Key><LastModified>2023-10-17T10:15:30.000Z</LastModified>\
+						<ETag>&quot;%032x&quot;</ETag><Size>%d</Size>\
+						<Owner><ID>75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a</ID><DisplayName>webfile</DisplayName></Owner>\
+						<StorageClass>STANDARD</StorageClass></Contents>
+						""".formatted(i, i, 1024L * i));
+			}
+			writer.print("</ListBucketResult>");
+		}
+		return out.toByteArray();
+	}
+
+	static byte[] listVersionsResult(int entries) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(entries * 450);
+		try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))) {
+			writer.print("""
+					<?xml version="1.0" encoding="UTF-8"?>
+					<ListVersionsResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/">
+					<Name>bench</Name><Prefix></Prefix><KeyMarker></KeyMarker><VersionIdMarker></VersionIdMarker>\
+					<MaxKeys>%d</MaxKeys><IsTruncated>false</IsTruncated>
+					""".formatted(entries));
+			for (int i = 0; i < entries; i++) {
+				String element = i % 10 == 9 ? "DeleteMarker" : "Version";
+				writer.print("""
+						<%s><Key>logs/2023/10/17/part-%08d.gz</Key><VersionId>3/L4kqtJl40Nr8X8gdRQBpUMLUo%08d</VersionId>\
+						<IsLatest>%s</IsLatest><LastModified>2023-10-17T10:15:30.000Z</LastModified>\
+						<ETag>&quot;%032x&quot;</ETag><Size>%d</Size>\
+						<Owner><ID>75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a</ID><DisplayName>webfile</DisplayName></Owner>\
+						<StorageClass>STANDARD</StorageClass></%s>
+						""".formatted(element, i / 2, i, i % 2 == 0, i, i % 1024, element));
+			}
+			writer.print("</ListVersionsResult>");
+		}
+		return out.toByteArray();
+	}
+
+}
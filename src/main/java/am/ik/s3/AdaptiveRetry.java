@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Retries S3 operations with exponential backoff and full jitter, combined with an
+ * adaptive client-side rate limiter (see {@link ClientRateLimiter}) that slows down all
+ * operations sharing this instance once throttling responses appear. The operation is
+ * called again for each attempt and has to build its {@link S3Request} inside, so that
+ * every attempt is signed with a fresh {@link AmzDate}.
+ *
+ * <pre>{@code
+ * byte[] body = retry.execute(() -> {
+ * 	S3Request request = config.s3Request(HttpMethod.GET, b -> b.bucket(bucket).key(key)).build();
+ * 	return restClient.get().uri(request.uri()).headers(request.headers()).retrieve().body(byte[].class);
+ * });
+ * }</pre>
+ */
+public final class AdaptiveRetry {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	public static final Duration DEFAULT_BASE_DELAY = Duration.ofMillis(100);
+
+	public static final Duration DEFAULT_MAX_BACKOFF = Duration.ofSeconds(20);
+
+	private static final Set<Integer> RETRYABLE_STATUS_CODES = Set.of(500, 502, 503, 504);
+
+	private static final Set<Integer> THROTTLING_STATUS_CODES = Set.of(429, 503);
+
+	private final int maxAttempts;
+
+	private final long baseDelayNanos;
+
+	private final long maxBackoffNanos;
+
+	private final Sleeper sleeper;
+
+	private final ClientRateLimiter rateLimiter;
+
+	private final LongAdder attempts = new LongAdder();
+
+	private final LongAdder retries = new LongAdder();
+
+	private final LongAdder throttled = new LongAdder();
+
+	private final LongAdder exhausted = new LongAdder();
+
+	@Builder(style = BuilderStyle.STAGED)
+	public AdaptiveRetry(@Opt Integer maxAttempts, @Opt Duration baseDelay, @Opt Duration maxBackoff, @Opt Clock clock,
+			@Opt Sleeper sleeper) {
+		this.maxAttempts = Objects.requireNonNullElse(maxAttempts, DEFAULT_MAX_ATTEMPTS);
+		this.baseDelayNanos = Objects.requireNonNullElse(baseDelay, DEFAULT_BASE_DELAY).toNanos();
+		this.maxBackoffNanos = Objects.requireNonNullElse(maxBackoff, DEFAULT_MAX_BACKOFF).toNanos();
+		this.sleeper = Objects.requireNonNullElse(sleeper, TimeUnit.NANOSECONDS::sleep);
+		this.rateLimiter = new ClientRateLimiter(Objects.requireNonNullElseGet(clock, Clock::systemUTC));
+		if (this.maxAttempts < 1) {
+			throw new IllegalArgumentException("'maxAttempts' must be positive");
+		}
+	}
+
+	/**
+	 * Calls the operation until it succeeds, fails with a non-retryable error or the
+	 * maximum number of attempts is reached. The last error is rethrown.
+	 */
+	public <T> T execute(Supplier<T> operation) {
+		for (int attempt = 1;; attempt++) {
+			this.sleep(this.rateLimiter.acquire());
+			this.attempts.increment();
+			if (attempt > 1) {
+				this.retries.increment();
+			}
+			T result;
+			try {
+				result = operation.get();
+			}
+			catch (RuntimeException e) {
+				boolean throttling = isThrottling(e);
+				if (throttling) {
+					this.throttled.increment();
+				}
+				this.rateLimiter.onResponse(throttling);
+				if (!isRetryable(e)) {
+					throw e;
+				}
+				if (attempt >= this.maxAttempts) {
+					this.exhausted.increment();
+					throw e;
+				}
+				this.sleep(this.backoffNanos(attempt));
+				continue;
+			}
+			this.rateLimiter.onResponse(false);
+			return result;
+		}
+	}
+
+	public RetryStats stats() {
+		return new RetryStats(this.attempts.sum(), this.retries.sum(), this.throttled.sum(), this.exhausted.sum(),
+				this.rateLimiter.enabled(), this.rateLimiter.fillRate(), this.rateLimiter.measuredTxRate());
+	}
+
+	/**
+	 * Full jitter: a random delay between 0 and the exponentially growing upper bound.
+	 */
+	long backoffNanos(int attempt) {
+		long bound = this.baseDelayNanos << Math.min(attempt - 1, 30);
+		if (bound <= 0 || bound > this.maxBackoffNanos) {
+			bound = this.maxBackoffNanos;
+		}
+		return bound == 0 ? 0 : ThreadLocalRandom.current().nextLong(bound + 1);
+	}
+
+	static boolean isThrottling(RuntimeException e) {
+		if (e instanceof HttpStatusCodeException statusCodeException) {
+			int status = statusCodeException.getStatusCode().value();
+			return THROTTLING_STATUS_CODES.contains(status)
+					|| statusCodeException.getResponseBodyAsString().contains("<Code>SlowDown</Code>");
+		}
+		return false;
+	}
+
+	static boolean isRetryable(RuntimeException e) {
+		if (e instanceof HttpStatusCodeException statusCodeException) {
+			int status = statusCodeException.getStatusCode().value();
+			return RETRYABLE_STATUS_CODES.contains(status) || THROTTLING_STATUS_CODES.contains(status);
+		}
+		// I/O errors such as connection resets
+		return e instanceof ResourceAccessException;
+	}
+
+	private void sleep(long nanos) {
+		if (nanos <= 0) {
+			return;
+		}
+		try {
+			this.sleeper.sleep(nanos);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted", e);
+		}
+	}
+
+	@FunctionalInterface
+	public interface Sleeper {
+
+		void sleep(long nanos) throws InterruptedException;
+
+	}
+
+}
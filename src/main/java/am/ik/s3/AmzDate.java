@@ -15,6 +15,7 @@
  */
 package am.ik.s3;
 
+import java.time.Clock;
 import java.time.Instant;
 import java.time.OffsetDateTime;
 import java.time.ZoneOffset;
@@ -24,16 +25,44 @@ class AmzDate {
 
 	private static final DateTimeFormatter AMZDATE_FORMATTER = DateTimeFormatter.ofPattern("uuuuMMdd'T'HHmmss'Z'");
 
+	// the date of the latest second seen by now(Clock), shared by all requests in
+	// that second
+	private static volatile AmzDate latest;
+
+	private final long epochSecond;
+
 	private final String date;
 
 	private final String yymmdd;
 
+	private volatile CredentialScope credentialScope;
+
 	public AmzDate(Instant timestamp) {
 		final OffsetDateTime dateTime = timestamp.atOffset(ZoneOffset.UTC);
+		this.epochSecond = timestamp.getEpochSecond();
 		this.date = AMZDATE_FORMATTER.format(dateTime);
 		this.yymmdd = this.date.substring(0, 8);
 	}
 
+	/**
+	 * Returns the date of the current second of the given clock. The date is formatted
+	 * only once per second, instances are reused without locking.
+	 */
+	static AmzDate now(Clock clock) {
+		long epochSecond = Math.floorDiv(clock.millis(), 1000L);
+		AmzDate current = latest;
+		if (current != null && current.epochSecond == epochSecond) {
+			return current;
+		}
+		AmzDate amzDate = new AmzDate(Instant.ofEpochSecond(epochSecond));
+		if (current != null && current.yymmdd.equals(amzDate.yymmdd)) {
+			amzDate.credentialScope = current.credentialScope;
+		}
+		// racing threads may create equal instances, either of them can be kept
+		latest = amzDate;
+		return amzDate;
+	}
+
 	public String date() {
 		return date;
 	}
@@ -42,4 +71,21 @@ class AmzDate {
 		return yymmdd;
 	}
 
+	/**
+	 * Returns the credential scope of S3 in the given region on this date. The latest one
+	 * is cached.
+	 */
+	String credentialScope(String region) {
+		CredentialScope scope = this.credentialScope;
+		if (scope != null && scope.region().equals(region)) {
+			return scope.value();
+		}
+		String value = this.yymmdd + "/" + region + "/s3/aws4_request";
+		this.credentialScope = new CredentialScope(region, value);
+		return value;
+	}
+
+	private record CredentialScope(String region, String value) {
+	}
+
 }
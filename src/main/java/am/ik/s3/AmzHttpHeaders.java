@@ -21,4 +21,6 @@ public class AmzHttpHeaders {
 
 	static final String X_AMZ_DATE = "X-Amz-Date";
 
+	static final String X_AMZ_DECODED_CONTENT_LENGTH = "X-Amz-Decoded-Content-Length";
+
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Supplier;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Asynchronous client for the core operations of {@link S3Client}. Each call returns a
+ * {@link CompletableFuture} and runs on the executor once a permit for the endpoint is
+ * available (see {@link EndpointPermits}), so a large fan-out is bounded by the number of
+ * in-flight requests rather than by the size of a thread pool. On JDK 21+, a virtual
+ * thread per task executor can be passed as {@code executor}. With an
+ * {@link AdaptiveRetry}, throttled and failed attempts are retried while holding the
+ * permit.
+ */
+public final class AsyncS3Client {
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	private final Executor executor;
+
+	private final EndpointPermits permits;
+
+	private final AdaptiveRetry retry;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public AsyncS3Client(RestClient restClient, S3Config config, @Opt Executor executor, @Opt EndpointPermits permits,
+			@Opt AdaptiveRetry retry) {
+		this.restClient = restClient;
+		this.config = config;
+		this.executor = Objects.requireNonNullElseGet(executor, TaskExecutors::shared);
+		this.permits = Objects.requireNonNullElseGet(permits,
+				() -> new EndpointPermits(EndpointPermits.DEFAULT_MAX_IN_FLIGHT));
+		this.retry = retry;
+	}
+
+	public EndpointPermits permits() {
+		return this.permits;
+	}
+
+	public CompletableFuture<ListBucketsResult> listBuckets() {
+		return this.submit(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.GET, b -> b).build();
+			return this.restClient.get()
+				.uri(request.uri())
+				.headers(request.headers())
+				.retrieve()
+				.body(ListBucketsResult.class);
+		});
+	}
+
+	public CompletableFuture<ListBucketResult> listBucket(String bucket) {
+		return this.submit(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket)).build();
+			return this.restClient.get()
+				.uri(request.uri())
+				.headers(request.headers())
+				.retrieve()
+				.body(ListBucketResult.class);
+		});
+	}
+
+	public CompletableFuture<Void> putBucket(String bucket) {
+		return this.submit(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.PUT, b -> b.bucket(bucket)).build();
+			this.restClient.put().uri(request.uri()).headers(request.headers()).retrieve().toBodilessEntity();
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> deleteBucket(String bucket) {
+		return this.submit(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.DELETE, b -> b.bucket(bucket)).build();
+			this.restClient.delete().uri(request.uri()).headers(request.headers()).retrieve().toBodilessEntity();
+			return null;
+		});
+	}
+
+	public CompletableFuture<Void> putObject(String bucket, String key, S3Content content) {
+		return this.submit(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.PUT, b -> b.bucket(bucket).key(key))
+				.content(content)
+				.build();
+			this.restClient.put()
+				.uri(request.uri())
+				.headers(request.headers())
+				.body(content::writeTo)
+				.retrieve()
+				.toBodilessEntity();
+			return null;
+		});
+	}
+
+	public CompletableFuture<byte[]> getObject(String bucket, String key) {
+		return this.submit(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket).key(key)).build();
+			byte[] body = this.restClient.get()
+				.uri(request.uri())
+				.headers(request.headers())
+				.retrieve()
+				.body(byte[].class);
+			return body == null ? new byte[0] : body;
+		});
+	}
+
+	public CompletableFuture<Void> deleteObject(String bucket, String key) {
+		return this.submit(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.DELETE, b -> b.bucket(bucket).key(key)).build();
+			this.restClient.delete().uri(request.uri()).headers(request.headers()).retrieve().toBodilessEntity();
+			return null;
+		});
+	}
+
+	private <T> CompletableFuture<T> submit(Supplier<T> task) {
+		// each attempt builds and signs its own request
+		return this.permits.submit(this.config.endpoint(), this.executor,
+				this.retry == null ? task : () -> this.retry.execute(task));
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * {@link OutputStream} that encodes the written bytes with the {@code aws-chunked}
+ * content encoding. Each chunk is signed with the signature of the previous chunk, the
+ * first one with the signature of the request (seed signature). {@link #close()} writes
+ * the final zero-length chunk but does not close the underlying stream.
+ */
+public final class AwsChunkedOutputStream extends FilterOutputStream {
+
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	private static final byte[] CHUNK_SIGNATURE = ";chunk-signature=".getBytes(StandardCharsets.US_ASCII);
+
+	private final byte[] buffer;
+
+	private final long decodedContentLength;
+
+	private final AmzDate amzDate;
+
+	private final String credentialScope;
+
+	private final byte[] signingKey;
+
+	private String previousSignature;
+
+	private int position;
+
+	private long written;
+
+	private boolean closed;
+
+	AwsChunkedOutputStream(OutputStream out, S3ChunkedContent content, AmzDate amzDate, String credentialScope,
+			byte[] signingKey, String seedSignature) {
+		super(out);
+		this.buffer = new byte[content.chunkSize()];
+		this.decodedContentLength = content.decodedContentLength();
+		this.amzDate = amzDate;
+		this.credentialScope = credentialScope;
+		this.signingKey = signingKey;
+		this.previousSignature = seedSignature;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		this.ensureOpen();
+		this.buffer[this.position++] = (byte) b;
+		if (this.position == this.buffer.length) {
+			this.writeChunk();
+		}
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		this.ensureOpen();
+		while (len > 0) {
+			int n = Math.min(len, this.buffer.length - this.position);
+			System.arraycopy(b, off, this.buffer, this.position, n);
+			this.position += n;
+			off += n;
+			len -= n;
+			if (this.position == this.buffer.length) {
+				this.writeChunk();
+			}
+		}
+	}
+
+	@Override
+	public void flush() throws IOException {
+		// chunks smaller than the chunk size are only allowed at the end
+		this.out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (this.closed) {
+			return;
+		}
+		if (this.position > 0) {
+			this.writeChunk();
+		}
+		this.writeChunk();
+		this.closed = true;
+		if (this.written != this.decodedContentLength) {
+			throw new IOException(
+					"Expected " + this.decodedContentLength + " bytes but " + this.written + " bytes were written");
+		}
+		this.out.flush();
+	}
+
+	private void writeChunk() throws IOException {
+		String signature = Sigv4Signer.current()
+			.chunkSignature(this.amzDate, this.credentialScope, this.previousSignature, this.buffer, this.position,
+					this.signingKey);
+		this.out.write(Integer.toHexString(this.position).getBytes(StandardCharsets.US_ASCII));
+		this.out.write(CHUNK_SIGNATURE);
+		this.out.write(signature.getBytes(StandardCharsets.US_ASCII));
+		this.out.write(CRLF);
+		this.out.write(this.buffer, 0, this.position);
+		this.out.write(CRLF);
+		this.written += this.position;
+		this.previousSignature = signature;
+		this.position = 0;
+	}
+
+	private void ensureOpen() throws IOException {
+		if (this.closed) {
+			throw new IOException("Stream closed");
+		}
+	}
+
+}
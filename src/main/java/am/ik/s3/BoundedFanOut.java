@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Runs the tasks produced by a single thread on an executor, with up to
+ * {@code concurrency} tasks in flight. The producer takes a permit with
+ * {@link #acquire()} before producing a task, so that it blocks while all permits are in
+ * use, and the permit is released when the task completes. The first failure stops the
+ * producer (see {@link #failed()}) and is rethrown by {@link #join()} once the tasks in
+ * flight have completed.
+ *
+ * @param <T> the result type of the tasks
+ */
+final class BoundedFanOut<T> {
+
+	private final Semaphore permits;
+
+	private final Executor executor;
+
+	private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+	private final List<CompletableFuture<T>> futures = new ArrayList<>();
+
+	private final ConcurrentLinkedQueue<T> results = new ConcurrentLinkedQueue<>();
+
+	BoundedFanOut(int concurrency, Executor executor) {
+		this.permits = new Semaphore(concurrency);
+		this.executor = executor;
+	}
+
+	void acquire() throws InterruptedException {
+		this.permits.acquire();
+	}
+
+	/**
+	 * Gives back a permit that was acquired without submitting a task.
+	 */
+	void release() {
+		this.permits.release();
+	}
+
+	/**
+	 * Runs the task with the permit acquired before.
+	 */
+	void execute(Runnable task) {
+		this.submit(() -> {
+			task.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Runs the task with the permit acquired before, its result is returned by
+	 * {@link #join()}. If the executor rejects the task, the permit is released and the
+	 * rejection is recorded as the failure and rethrown.
+	 */
+	void submit(Supplier<T> task) {
+		CompletableFuture<T> future;
+		try {
+			future = CompletableFuture.supplyAsync(() -> {
+				try {
+					T result = task.get();
+					if (result != null) {
+						this.results.add(result);
+					}
+					return result;
+				}
+				catch (RuntimeException e) {
+					this.failure.compareAndSet(null, e);
+					throw e;
+				}
+				finally {
+					this.permits.release();
+				}
+			}, this.executor);
+		}
+		catch (RejectedExecutionException e) {
+			this.permits.release();
+			this.fail(e);
+			throw e;
+		}
+		this.futures.add(future);
+		this.futures.removeIf(CompletableFuture::isDone);
+	}
+
+	/**
+	 * Records a failure of the producer, the first failure wins.
+	 */
+	void fail(RuntimeException e) {
+		this.failure.compareAndSet(null, e);
+	}
+
+	boolean failed() {
+		return this.failure.get() != null;
+	}
+
+	/**
+	 * Waits for the tasks in flight, even if one of them failed, and rethrows the first
+	 * failure.
+	 * @return the non-null results of the tasks in completion order
+	 */
+	List<T> join() {
+		CompletableFuture.allOf(this.futures.toArray(CompletableFuture[]::new)).exceptionally(e -> null).join();
+		RuntimeException e = this.failure.get();
+		if (e != null) {
+			throw e;
+		}
+		return List.copyOf(this.results);
+	}
+
+}
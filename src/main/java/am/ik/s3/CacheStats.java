@@ -0,0 +1,30 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+/**
+ * Counters and size of an {@link ObjectCache}.
+ *
+ * @param hits the number of calls served without a request
+ * @param revalidations the number of calls served after a {@code 304 Not Modified}
+ * @param misses the number of calls that downloaded the object
+ * @param evictions the number of entries evicted to stay within the maximum size
+ * @param entries the number of cached objects
+ * @param bytes the total size of the cached objects
+ */
+public record CacheStats(long hits, long revalidations, long misses, long evictions, int entries, long bytes) {
+
+}
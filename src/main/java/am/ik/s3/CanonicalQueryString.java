@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.web.util.UriUtils;
+
+/**
+ * Builds a canonical query string, i.e. parameters sorted by name with names and values
+ * URI-encoded as required by SigV4.
+ */
+final class CanonicalQueryString {
+
+	private final TreeMap<String, String> parameters = new TreeMap<>();
+
+	static CanonicalQueryString builder() {
+		return new CanonicalQueryString();
+	}
+
+	/**
+	 * Adds a parameter. {@code null} values are ignored, use an empty string for
+	 * parameters without a value such as {@code uploads}.
+	 */
+	CanonicalQueryString param(String name, Object value) {
+		if (value != null) {
+			this.parameters.put(encode(name), encode(value.toString()));
+		}
+		return this;
+	}
+
+	String build() {
+		StringBuilder sb = new StringBuilder();
+		for (Map.Entry<String, String> entry : this.parameters.entrySet()) {
+			if (!sb.isEmpty()) {
+				sb.append('&');
+			}
+			sb.append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		return sb.toString();
+	}
+
+	static String encode(String value) {
+		return UriUtils.encode(value, StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.time.Clock;
+
+/**
+ * Adaptive client-side rate limiter in the style of the AWS SDKs' "adaptive" retry mode.
+ * It is disabled until the first throttling response. The send rate is then cut to a
+ * fraction of the measured rate and recovers along a cubic curve (CUBIC congestion
+ * control), slowly at first and faster the longer no throttling occurs.
+ */
+final class ClientRateLimiter {
+
+	static final double BETA = 0.7;
+
+	static final double SCALE_CONSTANT = 0.4;
+
+	static final double SMOOTH = 0.8;
+
+	static final double MIN_FILL_RATE = 0.5;
+
+	static final double MIN_CAPACITY = 1;
+
+	private final Clock clock;
+
+	private boolean enabled;
+
+	private double fillRate;
+
+	private double maxCapacity;
+
+	private double currentCapacity;
+
+	private double lastTimestamp = -1;
+
+	private double measuredTxRate;
+
+	private double lastTxRateBucket;
+
+	private long requestCount;
+
+	private double lastMaxRate;
+
+	private double lastThrottleTime;
+
+	private double timeWindow;
+
+	ClientRateLimiter(Clock clock) {
+		this.clock = clock;
+		this.lastTxRateBucket = Math.floor(this.seconds());
+		this.lastThrottleTime = this.seconds();
+	}
+
+	/**
+	 * Takes a token.
+	 * @return the time in nanoseconds to wait before sending the request, {@code 0} if
+	 * the limiter is not enabled or a token is available
+	 */
+	synchronized long acquire() {
+		if (!this.enabled) {
+			return 0;
+		}
+		this.refill();
+		// tokens are reserved in advance, so concurrent callers queue up behind each
+		// other
+		this.currentCapacity -= 1;
+		if (this.currentCapacity >= 0) {
+			return 0;
+		}
+		return (long) (-this.currentCapacity / this.fillRate * 1_000_000_000L);
+	}
+
+	/**
+	 * Updates the send rate after a response.
+	 */
+	synchronized void onResponse(boolean throttled) {
+		this.updateMeasuredRate();
+		double now = this.seconds();
+		double calculatedRate;
+		if (throttled) {
+			double rateToUse = this.enabled ? Math.min(this.measuredTxRate, this.fillRate) : this.measuredTxRate;
+			this.lastMaxRate = rateToUse;
+			this.timeWindow = Math.cbrt(this.lastMaxRate * (1 - BETA) / SCALE_CONSTANT);
+			this.lastThrottleTime = now;
+			calculatedRate = rateToUse * BETA;
+			this.enabled = true;
+		}
+		else {
+			calculatedRate = SCALE_CONSTANT * Math.pow(now - this.lastThrottleTime - this.timeWindow, 3)
+					+ this.lastMaxRate;
+		}
+		this.updateRate(Math.min(calculatedRate, 2 * this.measuredTxRate));
+	}
+
+	synchronized boolean enabled() {
+		return this.enabled;
+	}
+
+	synchronized double fillRate() {
+		return this.fillRate;
+	}
+
+	synchronized double measuredTxRate() {
+		return this.measuredTxRate;
+	}
+
+	private void refill() {
+		double now = this.seconds();
+		if (this.lastTimestamp >= 0) {
+			double fillAmount = (now - this.lastTimestamp) * this.fillRate;
+			this.currentCapacity = Math.min(this.maxCapacity, this.currentCapacity + fillAmount);
+		}
+		this.lastTimestamp = now;
+	}
+
+	private void updateRate(double newRate) {
+		this.refill();
+		this.fillRate = Math.max(newRate, MIN_FILL_RATE);
+		this.maxCapacity = Math.max(newRate, MIN_CAPACITY);
+		this.currentCapacity = Math.min(this.currentCapacity, this.maxCapacity);
+	}
+
+	private void updateMeasuredRate() {
+		double now = this.seconds();
+		// half-second buckets
+		double timeBucket = Math.floor(now * 2) / 2;
+		this.requestCount++;
+		if (timeBucket > this.lastTxRateBucket) {
+			double currentRate = this.requestCount / (timeBucket - this.lastTxRateBucket);
+			this.measuredTxRate = currentRate * SMOOTH + this.measuredTxRate * (1 - SMOOTH);
+			this.requestCount = 0;
+			this.lastTxRateBucket = timeBucket;
+		}
+	}
+
+	private double seconds() {
+		return this.clock.millis() / 1000.0;
+	}
+
+}
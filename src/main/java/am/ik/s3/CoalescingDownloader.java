@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Coalesces concurrent identical GetObject and HeadObject calls (same bucket, key and
+ * version) into a single request ("single flight"). The first caller sends the request on
+ * its own thread, callers arriving while it is in flight wait for its result, and the
+ * result or the exception is handed to all of them. Nothing is cached: a call after the
+ * request has completed sends a new request.
+ * <p>
+ * The body is downloaded once and reference-counted by the callers sharing it:
+ * {@link #getObject(String, String)} returns a copy to all but the last caller to take
+ * it, who gets the downloaded array itself. {@link #getObjectAsBuffer(String, String)}
+ * returns read-only views of the same array without copying, after which the array is no
+ * longer given away.
+ */
+public final class CoalescingDownloader {
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	private final ConcurrentHashMap<FlightKey, Flight<?>> flights = new ConcurrentHashMap<>();
+
+	private final LongAdder upstreamRequests = new LongAdder();
+
+	private final LongAdder coalescedRequests = new LongAdder();
+
+	@Builder(style = BuilderStyle.STAGED)
+	public CoalescingDownloader(RestClient restClient, S3Config config) {
+		this.restClient = restClient;
+		this.config = config;
+	}
+
+	public byte[] getObject(String bucket, String key) {
+		return this.getObject(bucket, key, null);
+	}
+
+	/**
+	 * @param versionId the version, or {@code null} for the current version
+	 */
+	public byte[] getObject(String bucket, String key, String versionId) {
+		Flight<byte[]> flight = this.join(new FlightKey(HttpMethod.GET, bucket, key, versionId),
+				() -> this.download(bucket, key, versionId));
+		byte[] body = flight.await();
+		if (flight.takeOwnershipIfSole()) {
+			return body;
+		}
+		// copy before releasing, the last caller takes the array itself
+		byte[] copy = Arrays.copyOf(body, body.length);
+		flight.release();
+		return copy;
+	}
+
+	public ByteBuffer getObjectAsBuffer(String bucket, String key) {
+		return this.getObjectAsBuffer(bucket, key, null);
+	}
+
+	/**
+	 * @param versionId the version, or {@code null} for the current version
+	 */
+	public ByteBuffer getObjectAsBuffer(String bucket, String key, String versionId) {
+		Flight<byte[]> flight = this.join(new FlightKey(HttpMethod.GET, bucket, key, versionId),
+				() -> this.download(bucket, key, versionId));
+		byte[] body = flight.await();
+		flight.share();
+		flight.release();
+		return ByteBuffer.wrap(body).asReadOnlyBuffer();
+	}
+
+	public HttpHeaders headObject(String bucket, String key) {
+		return this.headObject(bucket, key, null);
+	}
+
+	/**
+	 * Returns the (read-only) response headers of HeadObject.
+	 * @param versionId the version, or {@code null} for the current version
+	 */
+	public HttpHeaders headObject(String bucket, String key, String versionId) {
+		Flight<HttpHeaders> flight = this.join(new FlightKey(HttpMethod.HEAD, bucket, key, versionId), () -> {
+			S3Request request = this.request(HttpMethod.HEAD, bucket, key, versionId);
+			HttpHeaders headers = this.restClient.head()
+				.uri(request.uri())
+				.headers(request.headers())
+				.retrieve()
+				.toBodilessEntity()
+				.getHeaders();
+			return HttpHeaders.readOnlyHttpHeaders(headers);
+		});
+		HttpHeaders headers = flight.await();
+		flight.release();
+		return headers;
+	}
+
+	/**
+	 * The number of requests sent.
+	 */
+	public long upstreamRequests() {
+		return this.upstreamRequests.sum();
+	}
+
+	/**
+	 * The number of calls that shared the request of another call.
+	 */
+	public long coalescedRequests() {
+		return this.coalescedRequests.sum();
+	}
+
+	private byte[] download(String bucket, String key, String versionId) {
+		S3Request request = this.request(HttpMethod.GET, bucket, key, versionId);
+		byte[] body = this.restClient.get().uri(request.uri()).headers(request.headers()).retrieve().body(byte[].class);
+		return body == null ? new byte[0] : body;
+	}
+
+	private S3Request request(HttpMethod method, String bucket, String key, String versionId) {
+		return this.config.s3Request(method, b -> b.bucket(bucket).key(key))
+			.canonicalQueryString(CanonicalQueryString.builder().param("versionId", versionId).build())
+			.build();
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> Flight<T> join(FlightKey key, Supplier<T> request) {
+		while (true) {
+			Flight<T> flight = new Flight<>();
+			Flight<T> existing = (Flight<T>) this.flights.putIfAbsent(key, flight);
+			if (existing == null) {
+				this.upstreamRequests.increment();
+				try {
+					T result = request.get();
+					this.land(key, flight);
+					flight.future.complete(result);
+				}
+				catch (RuntimeException | Error e) {
+					this.land(key, flight);
+					flight.future.completeExceptionally(e);
+				}
+				return flight;
+			}
+			if (existing.retain()) {
+				this.coalescedRequests.increment();
+				return existing;
+			}
+			// completed in the meantime, send a new request
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Closes the flight to new callers before its result is published.
+	 */
+	private void land(FlightKey key, Flight<?> flight) {
+		flight.close();
+		this.flights.remove(key, flight);
+	}
+
+	private record FlightKey(HttpMethod method, String bucket, String key, String versionId) {
+	}
+
+	private static final class Flight<T> {
+
+		final CompletableFuture<T> future = new CompletableFuture<>();
+
+		private int references = 1;
+
+		private boolean closed;
+
+		// a read-only view of the result has been handed out
+		private boolean shared;
+
+		synchronized boolean retain() {
+			if (this.closed) {
+				return false;
+			}
+			this.references++;
+			return true;
+		}
+
+		synchronized void close() {
+			this.closed = true;
+		}
+
+		synchronized void release() {
+			this.references--;
+		}
+
+		synchronized void share() {
+			this.shared = true;
+		}
+
+		/**
+		 * Releases the reference if it is the last one and no view of the result has been
+		 * handed out.
+		 * @return {@code true} if the caller owns the result
+		 */
+		synchronized boolean takeOwnershipIfSole() {
+			if (this.references == 1 && !this.shared) {
+				this.references = 0;
+				return true;
+			}
+			return false;
+		}
+
+		T await() {
+			try {
+				return this.future.get();
+			}
+			catch (ExecutionException e) {
+				this.release();
+				Throwable cause = e.getCause();
+				if (cause instanceof RuntimeException runtimeException) {
+					throw runtimeException;
+				}
+				if (cause instanceof Error error) {
+					throw error;
+				}
+				throw new IllegalStateException(cause);
+			}
+			catch (InterruptedException e) {
+				this.release();
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted", e);
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Limits the number of in-flight requests per endpoint. Requests beyond the limit are
+ * queued in FIFO order and dispatched to the executor as permits are released, so that
+ * waiting requests do not occupy threads or sockets. An instance can be shared between
+ * clients to apply a common limit.
+ */
+public final class EndpointPermits {
+
+	public static final int DEFAULT_MAX_IN_FLIGHT = 64;
+
+	private final int maxInFlight;
+
+	private final ConcurrentHashMap<String, Permits> permits = new ConcurrentHashMap<>();
+
+	public EndpointPermits(int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("'maxInFlight' must be positive");
+		}
+		this.maxInFlight = maxInFlight;
+	}
+
+	public int maxInFlight() {
+		return this.maxInFlight;
+	}
+
+	/**
+	 * Returns the number of requests to the endpoint that are running.
+	 */
+	public int inFlight(URI endpoint) {
+		Permits permits = this.permits.get(key(endpoint));
+		return permits == null ? 0 : permits.inFlight();
+	}
+
+	/**
+	 * Returns the number of requests to the endpoint that are waiting for a permit.
+	 */
+	public int queued(URI endpoint) {
+		Permits permits = this.permits.get(key(endpoint));
+		return permits == null ? 0 : permits.queued();
+	}
+
+	/**
+	 * Runs the task on the executor once a permit for the endpoint is available. A task
+	 * whose future has been cancelled while waiting is skipped.
+	 */
+	<T> CompletableFuture<T> submit(URI endpoint, Executor executor, Supplier<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		Permits permits = this.permits.computeIfAbsent(key(endpoint), k -> new Permits());
+		permits.submit(new Task(future, executor, () -> {
+			T result;
+			try {
+				result = task.get();
+			}
+			catch (Throwable e) {
+				permits.release();
+				future.completeExceptionally(e);
+				return;
+			}
+			// release first so that the permit is available once the future is done
+			permits.release();
+			future.complete(result);
+		}));
+		return future;
+	}
+
+	private static String key(URI endpoint) {
+		return endpoint.getScheme() + "://" + S3Request.host(endpoint);
+	}
+
+	private record Task(CompletableFuture<?> future, Executor executor, Runnable runnable) {
+	}
+
+	private final class Permits {
+
+		private final Queue<Task> queue = new ArrayDeque<>();
+
+		private int inFlight;
+
+		void submit(Task task) {
+			synchronized (this) {
+				if (this.inFlight == maxInFlight) {
+					this.queue.add(task);
+					return;
+				}
+				this.inFlight++;
+			}
+			this.execute(task);
+		}
+
+		/**
+		 * Hands the permit over to the next waiting task, if any.
+		 */
+		void release() {
+			Task next;
+			synchronized (this) {
+				do {
+					next = this.queue.poll();
+				}
+				while (next != null && next.future().isDone());
+				if (next == null) {
+					this.inFlight--;
+					return;
+				}
+			}
+			this.execute(next);
+		}
+
+		private void execute(Task task) {
+			try {
+				task.executor().execute(task.runnable());
+			}
+			catch (RejectedExecutionException e) {
+				task.future().completeExceptionally(e);
+				this.release();
+			}
+		}
+
+		synchronized int inFlight() {
+			return this.inFlight;
+		}
+
+		synchronized int queued() {
+			return this.queue.size();
+		}
+
+	}
+
+}
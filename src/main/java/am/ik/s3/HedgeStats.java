@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+/**
+ * Counters of a {@link HedgedDownloader}.
+ *
+ * @param requests the number of {@code getObject} calls
+ * @param hedged the number of calls that sent a second request
+ * @param hedgeWins the number of calls answered by the second request
+ * @param budgetExhausted the number of calls that were slower than the hedge delay but
+ * not hedged because of the budget
+ * @param hedgeDelayNanos the current hedge delay, or {@code -1} if not known yet
+ */
+public record HedgeStats(long requests, long hedged, long hedgeWins, long budgetExhausted, long hedgeDelayNanos) {
+
+	/**
+	 * The ratio of the additional requests to the calls.
+	 */
+	public double hedgeRatio() {
+		return this.requests == 0 ? 0 : (double) this.hedged / this.requests;
+	}
+
+}
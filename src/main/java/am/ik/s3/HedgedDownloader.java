@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Downloads objects (GetObject) with hedged requests to cut the tail latency. If the
+ * response headers of the first request have not been received within the hedge delay, a
+ * second, separately signed request is sent. The first request to receive successful
+ * response headers wins and the other request is cancelled: the thread waiting for it is
+ * interrupted and its response is closed. A body that is slow to transfer is therefore
+ * not hedged, as the second request would have to transfer it again.
+ * <p>
+ * The hedge delay is either fixed ({@code hedgeDelay}) or the {@code percentile} (p95 by
+ * default) of the time to the response headers of the recent downloads. In the adaptive
+ * mode, nothing is hedged until {@value #MIN_SAMPLES} downloads have completed. The extra
+ * load is capped by a token bucket: each call adds {@code maxHedgeRatio} tokens (up to
+ * {@value #MAX_TOKENS}) and each hedge takes one.
+ */
+public final class HedgedDownloader {
+
+	public static final double DEFAULT_PERCENTILE = 0.95;
+
+	public static final double DEFAULT_MAX_HEDGE_RATIO = 0.05;
+
+	static final int MIN_SAMPLES = 20;
+
+	static final int MAX_TOKENS = 10;
+
+	private static final int WINDOW_SIZE = 1024;
+
+	private static final int RECOMPUTE_INTERVAL = 16;
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	private final Executor executor;
+
+	private final long fixedDelayNanos;
+
+	private final double percentile;
+
+	private final double maxHedgeRatio;
+
+	private final long[] latencies = new long[WINDOW_SIZE];
+
+	private int samples;
+
+	private long adaptiveDelayNanos = -1;
+
+	private double tokens;
+
+	private long requests;
+
+	private long hedged;
+
+	private long hedgeWins;
+
+	private long budgetExhausted;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public HedgedDownloader(RestClient restClient, S3Config config, @Opt Executor executor, @Opt Duration hedgeDelay,
+			@Opt Double percentile, @Opt Double maxHedgeRatio) {
+		this.restClient = restClient;
+		this.config = config;
+		this.executor = Objects.requireNonNullElseGet(executor, TaskExecutors::shared);
+		this.fixedDelayNanos = hedgeDelay == null ? -1 : hedgeDelay.toNanos();
+		this.percentile = Objects.requireNonNullElse(percentile, DEFAULT_PERCENTILE);
+		this.maxHedgeRatio = Objects.requireNonNullElse(maxHedgeRatio, DEFAULT_MAX_HEDGE_RATIO);
+		if (this.percentile <= 0 || this.percentile >= 1) {
+			throw new IllegalArgumentException("'percentile' must be between 0 and 1");
+		}
+		if (this.maxHedgeRatio < 0) {
+			throw new IllegalArgumentException("'maxHedgeRatio' must not be negative");
+		}
+	}
+
+	/**
+	 * Downloads the object into memory, in the same way as
+	 * {@link S3Client#getObject(String, String)}.
+	 */
+	public byte[] getObject(String bucket, String key) {
+		long delay = this.onRequest();
+		Attempt primary = this.start(bucket, key);
+		try {
+			if (delay >= 0) {
+				try {
+					primary.headers.get(delay, TimeUnit.NANOSECONDS);
+					return primary.future.get();
+				}
+				catch (TimeoutException e) {
+					// slower than the hedge delay
+				}
+				if (this.tryAcquireHedge()) {
+					Attempt hedge = this.start(bucket, key);
+					try {
+						return this.race(primary, hedge);
+					}
+					finally {
+						hedge.cancel();
+					}
+				}
+			}
+			return primary.future.get();
+		}
+		catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted", e);
+		}
+		finally {
+			primary.cancel();
+		}
+	}
+
+	public synchronized HedgeStats stats() {
+		return new HedgeStats(this.requests, this.hedged, this.hedgeWins, this.budgetExhausted, this.hedgeDelayNanos());
+	}
+
+	private byte[] race(Attempt primary, Attempt hedge) throws InterruptedException, ExecutionException {
+		try {
+			CompletableFuture.anyOf(primary.headers, hedge.headers).get();
+		}
+		catch (ExecutionException e) {
+			// the first answer is a failure, wait for the other request
+		}
+		if (isSuccessful(primary.headers) || (hedge.headers.isDone() && !isSuccessful(hedge.headers))) {
+			hedge.cancel();
+			return primary.future.get();
+		}
+		primary.cancel();
+		byte[] body = hedge.future.get();
+		synchronized (this) {
+			this.hedgeWins++;
+		}
+		return body;
+	}
+
+	private Attempt start(String bucket, String key) {
+		Attempt attempt = new Attempt(bucket, key);
+		this.executor.execute(attempt);
+		return attempt;
+	}
+
+	/**
+	 * Counts the call, adds to the hedge budget and returns the hedge delay.
+	 */
+	private synchronized long onRequest() {
+		this.requests++;
+		this.tokens = Math.min(MAX_TOKENS, this.tokens + this.maxHedgeRatio);
+		return this.hedgeDelayNanos();
+	}
+
+	private synchronized boolean tryAcquireHedge() {
+		if (this.tokens < 1) {
+			this.budgetExhausted++;
+			return false;
+		}
+		this.tokens--;
+		this.hedged++;
+		return true;
+	}
+
+	private long hedgeDelayNanos() {
+		return this.fixedDelayNanos >= 0 ? this.fixedDelayNanos : this.adaptiveDelayNanos;
+	}
+
+	private synchronized void recordLatency(long nanos) {
+		this.latencies[this.samples % WINDOW_SIZE] = nanos;
+		this.samples++;
+		if (this.samples >= MIN_SAMPLES && (this.adaptiveDelayNanos < 0 || this.samples % RECOMPUTE_INTERVAL == 0)) {
+			long[] window = Arrays.copyOf(this.latencies, Math.min(this.samples, WINDOW_SIZE));
+			Arrays.sort(window);
+			this.adaptiveDelayNanos = window[(int) Math.ceil(this.percentile * window.length) - 1];
+		}
+	}
+
+	private static boolean isSuccessful(CompletableFuture<?> future) {
+		return future.isDone() && !future.isCompletedExceptionally();
+	}
+
+	private static RuntimeException unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof RuntimeException runtimeException) {
+			return runtimeException;
+		}
+		return new IllegalStateException(cause);
+	}
+
+	private final class Attempt implements Runnable {
+
+		final CompletableFuture<Void> headers = new CompletableFuture<>();
+
+		final CompletableFuture<byte[]> future = new CompletableFuture<>();
+
+		private final String bucket;
+
+		private final String key;
+
+		private Thread runner;
+
+		private ClientHttpResponse response;
+
+		private boolean cancelled;
+
+		Attempt(String bucket, String key) {
+			this.bucket = bucket;
+			this.key = key;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (this.cancelled) {
+					return;
+				}
+				this.runner = Thread.currentThread();
+			}
+			long start = System.nanoTime();
+			try {
+				S3Request request = config.s3Request(HttpMethod.GET, b -> b.bucket(this.bucket).key(this.key)).build();
+				byte[] body = restClient.get().uri(request.uri()).headers(request.headers()).exchange((req, res) -> {
+					synchronized (this) {
+						if (this.cancelled) {
+							throw new IOException("Cancelled");
+						}
+						this.response = res;
+					}
+					S3Responses.checkStatus(res);
+					recordLatency(System.nanoTime() - start);
+					this.headers.complete(null);
+					try (InputStream in = res.getBody()) {
+						return in.readAllBytes();
+					}
+				});
+				this.future.complete(body);
+			}
+			catch (Throwable e) {
+				this.headers.completeExceptionally(e);
+				this.future.completeExceptionally(e);
+			}
+			finally {
+				synchronized (this) {
+					this.runner = null;
+					this.response = null;
+					if (this.cancelled) {
+						// the interrupt must not leak into the next task of the thread
+						Thread.interrupted();
+					}
+				}
+			}
+		}
+
+		void cancel() {
+			ClientHttpResponse response;
+			synchronized (this) {
+				if (this.cancelled || this.future.isDone()) {
+					return;
+				}
+				this.cancelled = true;
+				if (this.runner != null) {
+					this.runner.interrupt();
+				}
+				response = this.response;
+			}
+			this.headers.cancel(false);
+			this.future.cancel(false);
+			if (response != null) {
+				response.close();
+			}
+		}
+
+	}
+
+}
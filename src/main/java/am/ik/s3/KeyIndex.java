@@ -0,0 +1,526 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Compact, immutable snapshot of a listing, e.g. to reconcile a bucket with millions of
+ * objects in memory. The keys are front-coded in blocks of {@value #BLOCK_SIZE} and
+ * ordered by their UTF-8 bytes like S3 lists them, the sizes and timestamps are kept in
+ * {@code long[]} columns and the (MD5) ETags are packed into 16 bytes each. Owners are
+ * not kept.
+ */
+public final class KeyIndex {
+
+	static final int BLOCK_SIZE = 16;
+
+	private static final HexFormat HEX = HexFormat.of();
+
+	private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+
+	private final int count;
+
+	// per key: varint shared prefix length, varint suffix length, suffix
+	private final byte[] keys;
+
+	// offsets of the first key of each block, which is stored in full
+	private final int[] blocks;
+
+	private final long[] sizes;
+
+	private final long[] lastModified;
+
+	private final byte[] etags;
+
+	// number of parts of multipart ETags, null if there are none
+	private final int[] parts;
+
+	// ETags that cannot be packed, e.g. unquoted or missing ones
+	private final Map<Integer, String> otherEtags;
+
+	private final byte[] storageClasses;
+
+	private final String[] storageClassNames;
+
+	private KeyIndex(Builder builder) {
+		this.count = builder.count;
+		this.keys = Arrays.copyOf(builder.keys, builder.keysLength);
+		this.blocks = Arrays.copyOf(builder.blocks, (builder.count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+		this.sizes = Arrays.copyOf(builder.sizes, builder.count);
+		this.lastModified = Arrays.copyOf(builder.lastModified, builder.count);
+		this.etags = Arrays.copyOf(builder.etags, builder.count * 16);
+		this.parts = builder.parts == null ? null : Arrays.copyOf(builder.parts, builder.count);
+		this.otherEtags = builder.otherEtags.isEmpty() ? Map.of() : new HashMap<>(builder.otherEtags);
+		this.storageClasses = Arrays.copyOf(builder.storageClasses, builder.count);
+		this.storageClassNames = builder.storageClassNames.toArray(String[]::new);
+	}
+
+	public static Builder builder() {
+		return new Builder();
+	}
+
+	/**
+	 * Builds an index from a listing in key order, e.g.
+	 * {@link ObjectLister#listObjects(String, String)}.
+	 */
+	public static KeyIndex of(Stream<Content> contents) {
+		Builder builder = new Builder();
+		try (contents) {
+			contents.forEachOrdered(builder::add);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Returns the number of keys.
+	 */
+	public int size() {
+		return this.count;
+	}
+
+	public String key(int index) {
+		return this.cursor(index).string();
+	}
+
+	public long objectSize(int index) {
+		return this.sizes[Objects.checkIndex(index, this.count)];
+	}
+
+	public Instant lastModified(int index) {
+		long millis = this.lastModified[Objects.checkIndex(index, this.count)];
+		return millis == NO_TIMESTAMP ? null : Instant.ofEpochMilli(millis);
+	}
+
+	public String etag(int index) {
+		Objects.checkIndex(index, this.count);
+		Integer boxed = index;
+		if (this.otherEtags.containsKey(boxed)) {
+			return this.otherEtags.get(boxed);
+		}
+		StringBuilder sb = new StringBuilder(40).append('"');
+		HEX.formatHex(sb, this.etags, index * 16, index * 16 + 16);
+		if (this.parts != null && this.parts[index] > 0) {
+			sb.append('-').append(this.parts[index]);
+		}
+		return sb.append('"').toString();
+	}
+
+	public String storageClass(int index) {
+		int i = Byte.toUnsignedInt(this.storageClasses[Objects.checkIndex(index, this.count)]);
+		return i == 0 ? null : this.storageClassNames[i - 1];
+	}
+
+	public Content content(int index) {
+		return this.content(this.cursor(index));
+	}
+
+	/**
+	 * Searches the key with a binary search over the first keys of the blocks.
+	 * @return the index of the key, or {@code (-(insertion point) - 1)} like
+	 * {@link Arrays#binarySearch(Object[], Object)}
+	 */
+	public int indexOf(String key) {
+		byte[] target = key.getBytes(StandardCharsets.UTF_8);
+		Cursor cursor = this.lowerBound(target);
+		if (cursor.index < this.count && cursor.compareTo(target) == 0) {
+			return cursor.index;
+		}
+		return -cursor.index - 1;
+	}
+
+	/**
+	 * Returns the keys that start with the prefix, in order.
+	 */
+	public Stream<String> keys(String prefix) {
+		return this.range(prefix, Cursor::string);
+	}
+
+	/**
+	 * Returns the entries whose keys start with the prefix, in order.
+	 */
+	public Stream<Content> contents(String prefix) {
+		return this.range(prefix, this::content);
+	}
+
+	/**
+	 * Compares this (older) snapshot with a newer one in a single merge pass over both
+	 * indexes. Keys are only decoded into strings if they differ. An object is regarded
+	 * as modified if its size or ETag has changed.
+	 */
+	public KeyIndexDiff diff(KeyIndex newer) {
+		List<String> added = new ArrayList<>();
+		List<String> removed = new ArrayList<>();
+		List<String> modified = new ArrayList<>();
+		Cursor a = this.cursor();
+		Cursor b = newer.cursor();
+		while (a.index < this.count || b.index < newer.count) {
+			int c = a.index == this.count ? 1 : b.index == newer.count ? -1 : a.compareTo(b);
+			if (c < 0) {
+				removed.add(a.string());
+				a.next();
+			}
+			else if (c > 0) {
+				added.add(b.string());
+				b.next();
+			}
+			else {
+				if (this.sizes[a.index] != newer.sizes[b.index] || !this.sameEtag(a.index, newer, b.index)) {
+					modified.add(a.string());
+				}
+				a.next();
+				b.next();
+			}
+		}
+		return new KeyIndexDiff(added, removed, modified);
+	}
+
+	/**
+	 * Returns the approximate number of bytes retained by the arrays of the index.
+	 */
+	public long retainedBytes() {
+		return this.keys.length + 4L * this.blocks.length + 8L * this.sizes.length + 8L * this.lastModified.length
+				+ this.etags.length + (this.parts == null ? 0 : 4L * this.parts.length) + this.storageClasses.length;
+	}
+
+	private boolean sameEtag(int i, KeyIndex other, int j) {
+		if (!this.otherEtags.isEmpty() || !other.otherEtags.isEmpty() || this.parts != null || other.parts != null) {
+			return Objects.equals(this.etag(i), other.etag(j));
+		}
+		return Arrays.equals(this.etags, i * 16, i * 16 + 16, other.etags, j * 16, j * 16 + 16);
+	}
+
+	private Content content(Cursor cursor) {
+		Instant lastModified = this.lastModified(cursor.index);
+		return new Content(cursor.string(), lastModified == null ? null : lastModified.atOffset(ZoneOffset.UTC),
+				this.etag(cursor.index), this.sizes[cursor.index], null, this.storageClass(cursor.index));
+	}
+
+	private <T> Stream<T> range(String prefix, Function<Cursor, T> mapper) {
+		byte[] target = prefix == null ? new byte[0] : prefix.getBytes(StandardCharsets.UTF_8);
+		Cursor cursor = this.lowerBound(target);
+		Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+				Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL) {
+			@Override
+			public boolean tryAdvance(Consumer<? super T> action) {
+				if (cursor.index == count || !cursor.startsWith(target)) {
+					return false;
+				}
+				action.accept(mapper.apply(cursor));
+				cursor.next();
+				return true;
+			}
+		};
+		return StreamSupport.stream(spliterator, false);
+	}
+
+	/**
+	 * Returns a cursor at the first key that is not less than the target.
+	 */
+	private Cursor lowerBound(byte[] target) {
+		// the last block whose first key is less than the target
+		int low = 0;
+		int high = this.blocks.length - 1;
+		int block = -1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			if (this.compareBlockHead(mid, target) < 0) {
+				block = mid;
+				low = mid + 1;
+			}
+			else {
+				high = mid - 1;
+			}
+		}
+		if (block < 0) {
+			return this.cursor();
+		}
+		Cursor cursor = this.cursor(block * BLOCK_SIZE);
+		while (cursor.index < this.count && cursor.compareTo(target) < 0) {
+			cursor.next();
+		}
+		return cursor;
+	}
+
+	private int compareBlockHead(int block, byte[] target) {
+		// the shared prefix length of a block head is always 0
+		int position = this.blocks[block] + 1;
+		int length = 0;
+		for (int shift = 0;; shift += 7) {
+			byte b = this.keys[position++];
+			length |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+		}
+		return Arrays.compareUnsigned(this.keys, position, position + length, target, 0, target.length);
+	}
+
+	private Cursor cursor() {
+		Cursor cursor = new Cursor();
+		cursor.next();
+		return cursor;
+	}
+
+	private Cursor cursor(int index) {
+		Objects.checkIndex(index, this.count);
+		Cursor cursor = new Cursor();
+		cursor.position = this.blocks[index / BLOCK_SIZE];
+		cursor.index = index - index % BLOCK_SIZE - 1;
+		while (cursor.index < index) {
+			cursor.next();
+		}
+		return cursor;
+	}
+
+	/**
+	 * Decodes the keys sequentially into a reusable buffer.
+	 */
+	private final class Cursor {
+
+		int index = -1;
+
+		int position;
+
+		byte[] key = new byte[64];
+
+		int length;
+
+		void next() {
+			if (++this.index >= count) {
+				this.index = count;
+				return;
+			}
+			int shared = this.readVarint();
+			int suffix = this.readVarint();
+			this.length = shared + suffix;
+			if (this.key.length < this.length) {
+				this.key = Arrays.copyOf(this.key, Math.max(this.length, this.key.length * 2));
+			}
+			System.arraycopy(keys, this.position, this.key, shared, suffix);
+			this.position += suffix;
+		}
+
+		private int readVarint() {
+			int value = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = keys[this.position++];
+				value |= (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		int compareTo(byte[] target) {
+			return Arrays.compareUnsigned(this.key, 0, this.length, target, 0, target.length);
+		}
+
+		int compareTo(Cursor other) {
+			return Arrays.compareUnsigned(this.key, 0, this.length, other.key, 0, other.length);
+		}
+
+		boolean startsWith(byte[] prefix) {
+			return this.length >= prefix.length && Arrays.equals(this.key, 0, prefix.length, prefix, 0, prefix.length);
+		}
+
+		String string() {
+			return new String(this.key, 0, this.length, StandardCharsets.UTF_8);
+		}
+
+	}
+
+	/**
+	 * Appends entries in ascending key order.
+	 */
+	public static final class Builder {
+
+		private int count;
+
+		private byte[] keys = new byte[4096];
+
+		private int keysLength;
+
+		private int[] blocks = new int[64];
+
+		private long[] sizes = new long[1024];
+
+		private long[] lastModified = new long[1024];
+
+		private byte[] etags = new byte[1024 * 16];
+
+		private int[] parts;
+
+		private final Map<Integer, String> otherEtags = new HashMap<>();
+
+		private byte[] storageClasses = new byte[1024];
+
+		private final List<String> storageClassNames = new ArrayList<>();
+
+		private byte[] previous = new byte[0];
+
+		private Builder() {
+		}
+
+		public Builder add(Content content) {
+			OffsetDateTime lastModified = content.lastModified();
+			return this.add(content.key(), content.size(), lastModified == null ? null : lastModified.toInstant(),
+					content.etag(), content.storageClass());
+		}
+
+		public Builder add(String key, long size, Instant lastModified, String etag, String storageClass) {
+			byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+			if (this.count > 0 && Arrays.compareUnsigned(this.previous, bytes) >= 0) {
+				throw new IllegalArgumentException("Keys must be added in ascending order: '%s' after '%s'"
+					.formatted(key, new String(this.previous, StandardCharsets.UTF_8)));
+			}
+			int index = this.count;
+			if (index == this.sizes.length) {
+				int capacity = index * 2;
+				this.sizes = Arrays.copyOf(this.sizes, capacity);
+				this.lastModified = Arrays.copyOf(this.lastModified, capacity);
+				this.etags = Arrays.copyOf(this.etags, capacity * 16);
+				this.storageClasses = Arrays.copyOf(this.storageClasses, capacity);
+				if (this.parts != null) {
+					this.parts = Arrays.copyOf(this.parts, capacity);
+				}
+			}
+			int shared = 0;
+			if (index % BLOCK_SIZE == 0) {
+				int block = index / BLOCK_SIZE;
+				if (block == this.blocks.length) {
+					this.blocks = Arrays.copyOf(this.blocks, block * 2);
+				}
+				this.blocks[block] = this.keysLength;
+			}
+			else {
+				shared = Arrays.mismatch(this.previous, bytes);
+			}
+			this.ensureKeysCapacity(10 + bytes.length - shared);
+			this.writeVarint(shared);
+			this.writeVarint(bytes.length - shared);
+			System.arraycopy(bytes, shared, this.keys, this.keysLength, bytes.length - shared);
+			this.keysLength += bytes.length - shared;
+			this.previous = bytes;
+			this.sizes[index] = size;
+			this.lastModified[index] = lastModified == null ? NO_TIMESTAMP : lastModified.toEpochMilli();
+			this.packEtag(index, etag);
+			this.storageClasses[index] = this.storageClassIndex(storageClass);
+			this.count++;
+			return this;
+		}
+
+		public KeyIndex build() {
+			return new KeyIndex(this);
+		}
+
+		private void packEtag(int index, String etag) {
+			// "<32 hex digits>" or "<32 hex digits>-<number of parts>"
+			int length = etag == null ? 0 : etag.length();
+			boolean packable = length >= 34 && etag.charAt(0) == '"' && etag.charAt(length - 1) == '"'
+					&& isLowerHex(etag, 1, 33);
+			int partCount = 0;
+			if (packable && length > 34) {
+				// without leading zeros, so that the ETag can be restored as is
+				packable = etag.charAt(33) == '-' && etag.charAt(34) != '0' && length > 35 && length <= 42
+						&& isDigits(etag, 34, length - 1);
+				if (packable) {
+					partCount = Integer.parseInt(etag, 34, length - 1, 10);
+				}
+			}
+			if (!packable) {
+				this.otherEtags.put(index, etag);
+				return;
+			}
+			for (int i = 0; i < 16; i++) {
+				this.etags[index * 16 + i] = (byte) HexFormat.fromHexDigits(etag, 1 + i * 2, 3 + i * 2);
+			}
+			if (partCount > 0) {
+				if (this.parts == null) {
+					this.parts = new int[this.sizes.length];
+				}
+				this.parts[index] = partCount;
+			}
+		}
+
+		private byte storageClassIndex(String storageClass) {
+			if (storageClass == null) {
+				return 0;
+			}
+			int i = this.storageClassNames.indexOf(storageClass);
+			if (i < 0) {
+				if (this.storageClassNames.size() == 255) {
+					throw new IllegalArgumentException("Too many storage classes: " + storageClass);
+				}
+				this.storageClassNames.add(storageClass);
+				i = this.storageClassNames.size() - 1;
+			}
+			return (byte) (i + 1);
+		}
+
+		private void ensureKeysCapacity(int length) {
+			if (this.keysLength + length > this.keys.length) {
+				this.keys = Arrays.copyOf(this.keys, Math.max(this.keysLength + length, this.keys.length * 2));
+			}
+		}
+
+		private void writeVarint(int value) {
+			while ((value & ~0x7F) != 0) {
+				this.keys[this.keysLength++] = (byte) ((value & 0x7F) | 0x80);
+				value >>>= 7;
+			}
+			this.keys[this.keysLength++] = (byte) value;
+		}
+
+		private static boolean isLowerHex(String s, int start, int end) {
+			for (int i = start; i < end; i++) {
+				char c = s.charAt(i);
+				if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		private static boolean isDigits(String s, int start, int end) {
+			for (int i = start; i < end; i++) {
+				char c = s.charAt(i);
+				if (c < '0' || c > '9') {
+					return false;
+				}
+			}
+			return true;
+		}
+
+	}
+
+}
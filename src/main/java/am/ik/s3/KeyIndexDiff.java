@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.List;
+
+/**
+ * Keys that differ between two {@link KeyIndex} snapshots, each in key order.
+ */
+public record KeyIndexDiff(List<String> added, List<String> removed, List<String> modified) {
+
+	public boolean isEmpty() {
+		return this.added.isEmpty() && this.removed.isEmpty() && this.modified.isEmpty();
+	}
+
+}
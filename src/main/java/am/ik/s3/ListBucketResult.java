@@ -21,10 +21,29 @@ import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
 
+/**
+ * The result of ListObjects. The continuation token fields, {@code startAfter} and
+ * {@code keyCount} are only returned by ListObjectsV2 ({@code list-type=2}).
+ * {@code commonPrefixes} are returned if a delimiter is specified.
+ */
 @JacksonXmlRootElement(localName = "ListBucketResult")
 public record ListBucketResult(@JacksonXmlProperty(localName = "Name") String name,
 		@JacksonXmlProperty(localName = "Prefix") String prefix,
 		@JacksonXmlProperty(localName = "Marker") String marker, @JacksonXmlProperty(localName = "MaxKeys") int maxKeys,
-		@JacksonXmlProperty(localName = "IsTruncated") boolean isTruncated, @JacksonXmlProperty(
-				localName = "Contents") @JacksonXmlElementWrapper(useWrapping = false) List<Content> contents) {
+		@JacksonXmlProperty(localName = "IsTruncated") boolean isTruncated,
+		@JacksonXmlProperty(localName = "Contents") @JacksonXmlElementWrapper(
+				useWrapping = false) List<Content> contents,
+		@JacksonXmlProperty(localName = "ContinuationToken") String continuationToken,
+		@JacksonXmlProperty(localName = "NextContinuationToken") String nextContinuationToken,
+		@JacksonXmlProperty(localName = "StartAfter") String startAfter,
+		@JacksonXmlProperty(localName = "KeyCount") int keyCount,
+		@JacksonXmlProperty(localName = "Delimiter") String delimiter,
+		@JacksonXmlProperty(localName = "CommonPrefixes") @JacksonXmlElementWrapper(
+				useWrapping = false) List<CommonPrefix> commonPrefixes) {
+
+	public ListBucketResult(String name, String prefix, String marker, int maxKeys, boolean isTruncated,
+			List<Content> contents) {
+		this(name, prefix, marker, maxKeys, isTruncated, contents, null, null, null, 0, null, null);
+	}
+
 }
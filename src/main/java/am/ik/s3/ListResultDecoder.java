@@ -0,0 +1,407 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.InputStream;
+import java.time.DateTimeException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+/**
+ * Decodes list responses incrementally with StAX. Each {@link Content}, {@link Version}
+ * and {@link DeleteMarker} is handed to a consumer as soon as it is parsed, so the memory
+ * used by a page does not grow with the number of entries.
+ * <p>
+ * The returned results carry the fields of the page (e.g. {@code isTruncated} and
+ * {@code nextContinuationToken}) but no entries, unless the overloads without consumers
+ * are used.
+ */
+public final class ListResultDecoder {
+
+	private static final XMLInputFactory XML_INPUT_FACTORY = createXmlInputFactory();
+
+	private ListResultDecoder() {
+	}
+
+	/**
+	 * Decodes a ListObjects / ListObjectsV2 response, collecting the contents.
+	 */
+	public static ListBucketResult decodeListBucketResult(InputStream body) {
+		List<Content> contents = new ArrayList<>();
+		ListBucketResult result = decodeListBucketResult(body, contents::add);
+		return new ListBucketResult(result.name(), result.prefix(), result.marker(), result.maxKeys(),
+				result.isTruncated(), contents, result.continuationToken(), result.nextContinuationToken(),
+				result.startAfter(), result.keyCount(), result.delimiter(), result.commonPrefixes());
+	}
+
+	/**
+	 * Decodes a ListObjects / ListObjectsV2 response. The returned result has no
+	 * contents, the common prefixes are collected.
+	 */
+	public static ListBucketResult decodeListBucketResult(InputStream body, Consumer<Content> contentConsumer) {
+		XMLStreamReader reader = createReader(body);
+		try {
+			String name = null;
+			String prefix = null;
+			String marker = null;
+			String continuationToken = null;
+			String nextContinuationToken = null;
+			String startAfter = null;
+			String delimiter = null;
+			int maxKeys = 0;
+			int keyCount = 0;
+			boolean isTruncated = false;
+			List<CommonPrefix> commonPrefixes = null;
+			LastModifiedParser lastModifiedParser = new LastModifiedParser();
+			nextElement(reader); // ListBucketResult
+			while (nextElement(reader)) {
+				switch (reader.getLocalName()) {
+					case "Contents" -> contentConsumer.accept(readContent(reader, lastModifiedParser));
+					case "CommonPrefixes" -> {
+						if (commonPrefixes == null) {
+							commonPrefixes = new ArrayList<>();
+						}
+						commonPrefixes.add(new CommonPrefix(readCommonPrefix(reader)));
+					}
+					case "Name" -> name = text(reader);
+					case "Prefix" -> prefix = text(reader);
+					case "Marker" -> marker = text(reader);
+					case "MaxKeys" -> maxKeys = Integer.parseInt(text(reader));
+					case "IsTruncated" -> isTruncated = Boolean.parseBoolean(text(reader));
+					case "ContinuationToken" -> continuationToken = text(reader);
+					case "NextContinuationToken" -> nextContinuationToken = text(reader);
+					case "StartAfter" -> startAfter = text(reader);
+					case "KeyCount" -> keyCount = Integer.parseInt(text(reader));
+					case "Delimiter" -> delimiter = text(reader);
+					default -> skipElement(reader);
+				}
+			}
+			return new ListBucketResult(name, prefix, marker, maxKeys, isTruncated, null, continuationToken,
+					nextContinuationToken, startAfter, keyCount, delimiter, commonPrefixes);
+		}
+		catch (XMLStreamException e) {
+			throw new IllegalStateException("Failed to decode ListBucketResult", e);
+		}
+		finally {
+			close(reader);
+		}
+	}
+
+	/**
+	 * Decodes a ListObjectVersions response, collecting the versions and delete markers.
+	 */
+	public static ListVersionsResult decodeListVersionsResult(InputStream body) {
+		List<Version> versions = new ArrayList<>();
+		List<DeleteMarker> deleteMarkers = new ArrayList<>();
+		ListVersionsResult result = decodeListVersionsResult(body, versions::add, deleteMarkers::add);
+		result.setVersions(versions);
+		result.setDeleteMarkers(deleteMarkers);
+		return result;
+	}
+
+	/**
+	 * Decodes a ListObjectVersions response. The returned result has no versions and no
+	 * delete markers.
+	 */
+	public static ListVersionsResult decodeListVersionsResult(InputStream body, Consumer<Version> versionConsumer,
+			Consumer<DeleteMarker> deleteMarkerConsumer) {
+		XMLStreamReader reader = createReader(body);
+		try {
+			String name = null;
+			String prefix = null;
+			String keyMarker = null;
+			String nextKeyMarker = null;
+			String nextVersionIdMarker = null;
+			String versionIdMarker = null;
+			int maxKeys = 0;
+			boolean isTruncated = false;
+			nextElement(reader); // ListVersionsResult
+			while (nextElement(reader)) {
+				switch (reader.getLocalName()) {
+					case "Version" -> versionConsumer.accept(readVersion(reader));
+					case "DeleteMarker" -> deleteMarkerConsumer.accept(readDeleteMarker(reader));
+					case "Name" -> name = text(reader);
+					case "Prefix" -> prefix = text(reader);
+					case "KeyMarker" -> keyMarker = text(reader);
+					case "NextKeyMarker" -> nextKeyMarker = text(reader);
+					case "NextVersionIdMarker" -> nextVersionIdMarker = text(reader);
+					case "VersionIdMarker" -> versionIdMarker = text(reader);
+					case "MaxKeys" -> maxKeys = Integer.parseInt(text(reader));
+					case "IsTruncated" -> isTruncated = Boolean.parseBoolean(text(reader));
+					default -> skipElement(reader);
+				}
+			}
+			return new ListVersionsResult(name, prefix, keyMarker, nextKeyMarker, nextVersionIdMarker, versionIdMarker,
+					maxKeys, isTruncated, null, null);
+		}
+		catch (XMLStreamException e) {
+			throw new IllegalStateException("Failed to decode ListVersionsResult", e);
+		}
+		finally {
+			close(reader);
+		}
+	}
+
+	private static Content readContent(XMLStreamReader reader, LastModifiedParser lastModifiedParser)
+			throws XMLStreamException {
+		String key = null;
+		String etag = null;
+		String storageClass = null;
+		OffsetDateTime lastModified = null;
+		long size = 0;
+		Owner owner = null;
+		while (nextElement(reader)) {
+			switch (reader.getLocalName()) {
+				case "Key" -> key = text(reader);
+				case "LastModified" -> lastModified = lastModifiedParser.parse(text(reader));
+				case "ETag" -> etag = text(reader);
+				case "Size" -> size = Long.parseLong(text(reader));
+				case "Owner" -> owner = readOwner(reader);
+				case "StorageClass" -> storageClass = text(reader);
+				default -> skipElement(reader);
+			}
+		}
+		return new Content(key, lastModified, etag, size, owner, storageClass);
+	}
+
+	private static Version readVersion(XMLStreamReader reader) throws XMLStreamException {
+		VersionFields fields = readVersionFields(reader);
+		return new Version(fields.key, fields.lastModified, fields.etag, fields.size, fields.owner, fields.storageClass,
+				fields.isLatest, fields.versionId);
+	}
+
+	private static DeleteMarker readDeleteMarker(XMLStreamReader reader) throws XMLStreamException {
+		VersionFields fields = readVersionFields(reader);
+		return new DeleteMarker(fields.key, fields.lastModified, fields.etag, fields.size, fields.owner,
+				fields.storageClass, fields.isLatest, fields.versionId);
+	}
+
+	private static VersionFields readVersionFields(XMLStreamReader reader) throws XMLStreamException {
+		VersionFields fields = new VersionFields();
+		while (nextElement(reader)) {
+			switch (reader.getLocalName()) {
+				case "Key" -> fields.key = text(reader);
+				case "LastModified" -> fields.lastModified = text(reader);
+				case "ETag" -> fields.etag = text(reader);
+				case "Size" -> fields.size = Long.parseLong(text(reader));
+				case "Owner" -> fields.owner = readOwner(reader);
+				case "StorageClass" -> fields.storageClass = text(reader);
+				case "IsLatest" -> fields.isLatest = Boolean.parseBoolean(text(reader));
+				case "VersionId" -> fields.versionId = text(reader);
+				default -> skipElement(reader);
+			}
+		}
+		return fields;
+	}
+
+	private static Owner readOwner(XMLStreamReader reader) throws XMLStreamException {
+		String id = null;
+		String displayName = null;
+		while (nextElement(reader)) {
+			switch (reader.getLocalName()) {
+				case "ID" -> id = text(reader);
+				case "DisplayName" -> displayName = text(reader);
+				default -> skipElement(reader);
+			}
+		}
+		return new Owner(id, displayName);
+	}
+
+	private static String readCommonPrefix(XMLStreamReader reader) throws XMLStreamException {
+		String prefix = null;
+		while (nextElement(reader)) {
+			if (reader.getLocalName().equals("Prefix")) {
+				prefix = text(reader);
+			}
+			else {
+				skipElement(reader);
+			}
+		}
+		return prefix;
+	}
+
+	/**
+	 * Reads the text of the current element like
+	 * {@link XMLStreamReader#getElementText()}, without the intermediate buffer in the
+	 * common case of a single text event.
+	 */
+	static String text(XMLStreamReader reader) throws XMLStreamException {
+		String text = "";
+		StringBuilder sb = null;
+		int event;
+		while ((event = reader.next()) != XMLStreamConstants.END_ELEMENT) {
+			if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE || event == XMLStreamConstants.ENTITY_REFERENCE) {
+				if (text.isEmpty()) {
+					text = reader.getText();
+				}
+				else {
+					if (sb == null) {
+						sb = new StringBuilder(text);
+					}
+					sb.append(reader.getText());
+				}
+			}
+			else if (event == XMLStreamConstants.START_ELEMENT) {
+				throw new XMLStreamException("Unexpected element in text-only element", reader.getLocation());
+			}
+		}
+		return sb == null ? text : sb.toString();
+	}
+
+	/**
+	 * Moves to the next child element of the current element.
+	 * @return {@code false} if the end of the current element has been reached instead
+	 */
+	static boolean nextElement(XMLStreamReader reader) throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				return true;
+			}
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				return false;
+			}
+		}
+		return false;
+	}
+
+	static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	static XMLStreamReader createReader(InputStream body) {
+		try {
+			return XML_INPUT_FACTORY.createXMLStreamReader(body);
+		}
+		catch (XMLStreamException e) {
+			throw new IllegalStateException("Failed to create XMLStreamReader", e);
+		}
+	}
+
+	static void close(XMLStreamReader reader) {
+		try {
+			reader.close();
+		}
+		catch (XMLStreamException e) {
+			// ignore
+		}
+	}
+
+	private static XMLInputFactory createXmlInputFactory() {
+		XMLInputFactory factory = XMLInputFactory.newFactory();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+		return factory;
+	}
+
+	/**
+	 * Parses timestamps in the format returned by S3 (e.g.
+	 * {@code 2023-10-17T10:15:30.000Z}) without {@code DateTimeFormatter}, and reuses the
+	 * previous result since objects listed together often share timestamps.
+	 */
+	static final class LastModifiedParser {
+
+		private String text;
+
+		private OffsetDateTime value;
+
+		OffsetDateTime parse(String text) {
+			if (text.equals(this.text)) {
+				return this.value;
+			}
+			OffsetDateTime value = parseUtcMillis(text);
+			this.text = text;
+			this.value = value == null ? OffsetDateTime.parse(text) : value;
+			return this.value;
+		}
+
+		private static OffsetDateTime parseUtcMillis(String s) {
+			if (s.length() != 24 || s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+					|| s.charAt(13) != ':' || s.charAt(16) != ':' || s.charAt(19) != '.' || s.charAt(23) != 'Z') {
+				return null;
+			}
+			int year = digits(s, 0, 4);
+			int month = digits(s, 5, 2);
+			int day = digits(s, 8, 2);
+			int hour = digits(s, 11, 2);
+			int minute = digits(s, 14, 2);
+			int second = digits(s, 17, 2);
+			int millis = digits(s, 20, 3);
+			if ((year | month | day | hour | minute | second | millis) < 0) {
+				return null;
+			}
+			try {
+				return OffsetDateTime.of(year, month, day, hour, minute, second, millis * 1_000_000, ZoneOffset.UTC);
+			}
+			catch (DateTimeException e) {
+				return null;
+			}
+		}
+
+		private static int digits(String s, int start, int length) {
+			int value = 0;
+			for (int i = start; i < start + length; i++) {
+				int digit = s.charAt(i) - '0';
+				if (digit < 0 || digit > 9) {
+					return -1;
+				}
+				value = value * 10 + digit;
+			}
+			return value;
+		}
+
+	}
+
+	private static final class VersionFields {
+
+		String key;
+
+		String lastModified;
+
+		String etag;
+
+		long size;
+
+		Owner owner;
+
+		String storageClass;
+
+		boolean isLatest;
+
+		String versionId;
+
+	}
+
+}
@@ -17,6 +17,7 @@ package am.ik.s3;
 
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlElementWrapper;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
 import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlRootElement;
@@ -30,6 +31,8 @@ public final class ListVersionsResult {
 
 	private final String keyMarker;
 
+	private final String nextKeyMarker;
+
 	private final String nextVersionIdMarker;
 
 	private final String versionIdMarker;
@@ -42,9 +45,11 @@ public final class ListVersionsResult {
 
 	private List<Version> versions;
 
+	@JsonCreator
 	public ListVersionsResult(@JacksonXmlProperty(localName = "Name") String name,
 			@JacksonXmlProperty(localName = "Prefix") String prefix,
 			@JacksonXmlProperty(localName = "KeyMarker") String keyMarker,
+			@JacksonXmlProperty(localName = "NextKeyMarker") String nextKeyMarker,
 			@JacksonXmlProperty(localName = "NextVersionIdMarker") String nextVersionIdMarker,
 			@JacksonXmlProperty(localName = "VersionIdMarker") String versionIdMarker,
 			@JacksonXmlProperty(localName = "MaxKeys") int maxKeys,
@@ -56,6 +61,7 @@ public final class ListVersionsResult {
 		this.name = name;
 		this.prefix = prefix;
 		this.keyMarker = keyMarker;
+		this.nextKeyMarker = nextKeyMarker;
 		this.nextVersionIdMarker = nextVersionIdMarker;
 		this.versionIdMarker = versionIdMarker;
 		this.maxKeys = maxKeys;
@@ -64,6 +70,13 @@ public final class ListVersionsResult {
 		this.versions = versions;
 	}
 
+	public ListVersionsResult(String name, String prefix, String keyMarker, String nextVersionIdMarker,
+			String versionIdMarker, int maxKeys, boolean isTruncated, List<DeleteMarker> deleteMarkers,
+			List<Version> versions) {
+		this(name, prefix, keyMarker, null, nextVersionIdMarker, versionIdMarker, maxKeys, isTruncated, deleteMarkers,
+				versions);
+	}
+
 	public String name() {
 		return name;
 	}
@@ -76,6 +89,10 @@ public final class ListVersionsResult {
 		return keyMarker;
 	}
 
+	public String nextKeyMarker() {
+		return nextKeyMarker;
+	}
+
 	public String nextVersionIdMarker() {
 		return nextVersionIdMarker;
 	}
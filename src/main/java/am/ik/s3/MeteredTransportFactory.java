@@ -0,0 +1,268 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * {@link ClientHttpRequestFactory} decorator that reports the time to first byte, the
+ * total latency, the status code and the bytes sent and received of each exchange to a
+ * {@link S3MetricsListener}. The times are measured from when the request body starts
+ * being written, or from when the request is executed if it has no body. Unlike a
+ * {@code ClientHttpRequestInterceptor}, streaming request bodies are not buffered. The
+ * operation and the bucket are derived from the URI (see
+ * {@link S3Operation#of(HttpMethod, URI)}), other virtual-hosted-style endpoints than
+ * Amazon S3 are treated as path style.
+ *
+ * <pre>{@code
+ * RestClient restClient = RestClient.builder()
+ * 	.requestFactory(new MeteredTransportFactory(new JdkClientHttpRequestFactory(), listener))
+ * 	.build();
+ * }</pre>
+ */
+public final class MeteredTransportFactory implements ClientHttpRequestFactory {
+
+	private final ClientHttpRequestFactory delegate;
+
+	private final S3MetricsListener listener;
+
+	public MeteredTransportFactory(ClientHttpRequestFactory delegate, S3MetricsListener listener) {
+		this.delegate = delegate;
+		this.listener = listener;
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		ClientHttpRequest request = this.delegate.createRequest(uri, httpMethod);
+		if (this.listener == S3MetricsListener.NOOP) {
+			return request;
+		}
+		return new MeteredRequest(request, this.listener, S3Operation.of(httpMethod, uri), S3Operation.bucket(uri));
+	}
+
+	private static final class MeteredRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+		private final ClientHttpRequest delegate;
+
+		private final S3MetricsListener listener;
+
+		private final S3Operation operation;
+
+		private final String bucket;
+
+		private long bytesOut;
+
+		private boolean started;
+
+		private long start;
+
+		MeteredRequest(ClientHttpRequest delegate, S3MetricsListener listener, S3Operation operation, String bucket) {
+			this.delegate = delegate;
+			this.listener = listener;
+			this.operation = operation;
+			this.bucket = bucket;
+		}
+
+		@Override
+		public ClientHttpResponse execute() throws IOException {
+			this.markStart();
+			ClientHttpResponse response;
+			try {
+				response = this.delegate.execute();
+			}
+			catch (IOException | RuntimeException e) {
+				this.listener.onFailure(this.operation, this.bucket, System.nanoTime() - this.start, e);
+				throw e;
+			}
+			return new MeteredResponse(response, this, System.nanoTime() - this.start);
+		}
+
+		@Override
+		public void setBody(Body body) {
+			if (this.delegate instanceof StreamingHttpOutputMessage streaming) {
+				// the body is written while executing
+				streaming.setBody(new Body() {
+					@Override
+					public void writeTo(OutputStream outputStream) throws IOException {
+						body.writeTo(new CountingOutputStream(outputStream, MeteredRequest.this));
+					}
+
+					@Override
+					public boolean repeatable() {
+						return body.repeatable();
+					}
+				});
+			}
+			else {
+				try (OutputStream out = this.getBody()) {
+					body.writeTo(out);
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+
+		@Override
+		public OutputStream getBody() throws IOException {
+			// a non-streaming request writes the body before execute()
+			this.markStart();
+			return new CountingOutputStream(this.delegate.getBody(), this);
+		}
+
+		private void markStart() {
+			if (!this.started) {
+				this.started = true;
+				this.start = System.nanoTime();
+			}
+		}
+
+		@Override
+		public HttpMethod getMethod() {
+			return this.delegate.getMethod();
+		}
+
+		@Override
+		public URI getURI() {
+			return this.delegate.getURI();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return this.delegate.getHeaders();
+		}
+
+	}
+
+	private static final class MeteredResponse implements ClientHttpResponse {
+
+		private final ClientHttpResponse delegate;
+
+		private final MeteredRequest request;
+
+		private final long timeToFirstByte;
+
+		private long bytesIn;
+
+		private InputStream body;
+
+		private boolean closed;
+
+		MeteredResponse(ClientHttpResponse delegate, MeteredRequest request, long timeToFirstByte) {
+			this.delegate = delegate;
+			this.request = request;
+			this.timeToFirstByte = timeToFirstByte;
+		}
+
+		@Override
+		public HttpStatusCode getStatusCode() throws IOException {
+			return this.delegate.getStatusCode();
+		}
+
+		@Override
+		public String getStatusText() throws IOException {
+			return this.delegate.getStatusText();
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			if (this.body == null) {
+				this.body = new FilterInputStream(this.delegate.getBody()) {
+					@Override
+					public int read() throws IOException {
+						int b = super.read();
+						if (b >= 0) {
+							bytesIn++;
+						}
+						return b;
+					}
+
+					@Override
+					public int read(byte[] b, int off, int len) throws IOException {
+						int n = super.read(b, off, len);
+						if (n > 0) {
+							bytesIn += n;
+						}
+						return n;
+					}
+				};
+			}
+			return this.body;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return this.delegate.getHeaders();
+		}
+
+		@Override
+		public void close() {
+			if (!this.closed) {
+				this.closed = true;
+				int statusCode;
+				try {
+					statusCode = this.delegate.getStatusCode().value();
+				}
+				catch (IOException e) {
+					statusCode = -1;
+				}
+				MeteredRequest request = this.request;
+				request.listener.onExchange(request.operation, request.bucket, statusCode, this.timeToFirstByte,
+						System.nanoTime() - request.start, request.bytesOut, this.bytesIn);
+			}
+			this.delegate.close();
+		}
+
+	}
+
+	private static final class CountingOutputStream extends FilterOutputStream {
+
+		private final MeteredRequest request;
+
+		CountingOutputStream(OutputStream out, MeteredRequest request) {
+			super(out);
+			this.request = request;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			this.out.write(b);
+			this.request.bytesOut++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			this.out.write(b, off, len);
+			this.request.bytesOut += len;
+		}
+
+	}
+
+}
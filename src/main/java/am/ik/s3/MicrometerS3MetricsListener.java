@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * {@link S3MetricsListener} that records the metrics to a Micrometer
+ * {@link MeterRegistry}, tagged with {@code operation} and {@code bucket}:
+ * <ul>
+ * <li>{@code s3.client.signing} (timer)</li>
+ * <li>{@code s3.client.requests} (timer, also tagged with {@code status} and
+ * {@code exception})</li>
+ * <li>{@code s3.client.requests.first.byte} (timer)</li>
+ * <li>{@code s3.client.bytes.sent} and {@code s3.client.bytes.received} (distribution
+ * summaries)</li>
+ * </ul>
+ * The request timers publish percentile histograms.
+ */
+public final class MicrometerS3MetricsListener implements S3MetricsListener {
+
+	private final MeterRegistry registry;
+
+	public MicrometerS3MetricsListener(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	@Override
+	public void onSigned(S3Operation operation, String bucket, long signingNanos) {
+		Timer.builder("s3.client.signing")
+			.description("Time to sign S3 requests")
+			.tag("operation", operation.name())
+			.tag("bucket", bucket)
+			.register(this.registry)
+			.record(signingNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void onExchange(S3Operation operation, String bucket, int statusCode, long timeToFirstByteNanos,
+			long totalNanos, long bytesOut, long bytesIn) {
+		this.requestTimer(operation, bucket, String.valueOf(statusCode), "none")
+			.record(totalNanos, TimeUnit.NANOSECONDS);
+		Timer.builder("s3.client.requests.first.byte")
+			.description("Time until the response headers of S3 requests are received")
+			.tag("operation", operation.name())
+			.tag("bucket", bucket)
+			.publishPercentileHistogram()
+			.register(this.registry)
+			.record(timeToFirstByteNanos, TimeUnit.NANOSECONDS);
+		this.bytes("s3.client.bytes.sent", operation, bucket).record(bytesOut);
+		this.bytes("s3.client.bytes.received", operation, bucket).record(bytesIn);
+	}
+
+	@Override
+	public void onFailure(S3Operation operation, String bucket, long totalNanos, Throwable error) {
+		this.requestTimer(operation, bucket, "CLIENT_ERROR", error.getClass().getSimpleName())
+			.record(totalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private Timer requestTimer(S3Operation operation, String bucket, String status, String exception) {
+		return Timer.builder("s3.client.requests")
+			.description("Latency of S3 requests")
+			.tag("operation", operation.name())
+			.tag("bucket", bucket)
+			.tag("status", status)
+			.tag("exception", exception)
+			.publishPercentileHistogram()
+			.register(this.registry);
+	}
+
+	private DistributionSummary bytes(String name, S3Operation operation, String bucket) {
+		return DistributionSummary.builder(name)
+			.baseUnit("bytes")
+			.tag("operation", operation.name())
+			.tag("bucket", bucket)
+			.register(this.registry);
+	}
+
+}
@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Uploads an object in parts (CreateMultipartUpload, UploadPart, CompleteMultipartUpload)
+ * that are sent concurrently. If any part fails, the upload is aborted
+ * (AbortMultipartUpload).
+ * <p>
+ * At most {@code concurrency} parts are in flight at a time, so uploading from an
+ * {@link InputStream} holds at most {@code concurrency} part buffers in memory. Files are
+ * uploaded from memory-mapped regions without any part buffer.
+ * <p>
+ * Parts are sent on the given {@link Executor}. On Java 21 or later,
+ * {@code Executors.newVirtualThreadPerTaskExecutor()} can be used. If no executor is
+ * specified, a fixed thread pool of {@code concurrency} threads is created per upload.
+ */
+public final class MultipartUploader {
+
+	public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+
+	public static final long MAX_PART_SIZE = 5L * 1024 * 1024 * 1024;
+
+	public static final int MAX_PARTS = 10_000;
+
+	public static final long DEFAULT_PART_SIZE = 8L * 1024 * 1024;
+
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	private final Executor executor;
+
+	private final int concurrency;
+
+	private final long partSize;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public MultipartUploader(RestClient restClient, S3Config config, @Opt Executor executor, @Opt Integer concurrency,
+			@Opt Long partSize) {
+		this.restClient = restClient;
+		this.config = config;
+		this.executor = executor;
+		this.concurrency = Objects.requireNonNullElse(concurrency, DEFAULT_CONCURRENCY);
+		this.partSize = Objects.requireNonNullElse(partSize, DEFAULT_PART_SIZE);
+		if (this.concurrency < 1) {
+			throw new IllegalArgumentException("'concurrency' must be positive");
+		}
+		if (this.partSize < MIN_PART_SIZE || this.partSize > MAX_PART_SIZE) {
+			throw new IllegalArgumentException(
+					"'partSize' must be between %d and %d".formatted(MIN_PART_SIZE, MAX_PART_SIZE));
+		}
+	}
+
+	/**
+	 * Returns the part size for an object of the given size, i.e. the preferred part size
+	 * unless the object would need more than {@link #MAX_PARTS} parts.
+	 * @param contentLength the size of the object or {@code -1} if unknown
+	 */
+	static long partSize(long contentLength, long preferredPartSize) {
+		if (contentLength < 0) {
+			return preferredPartSize;
+		}
+		long mib = 1024 * 1024;
+		long minimum = (contentLength + MAX_PARTS - 1) / MAX_PARTS;
+		// round up to MiB
+		minimum = (minimum + mib - 1) / mib * mib;
+		long partSize = Math.max(preferredPartSize, minimum);
+		if (partSize > MAX_PART_SIZE) {
+			throw new IllegalArgumentException("'contentLength' is too large: " + contentLength);
+		}
+		return partSize;
+	}
+
+	public CompleteMultipartUploadResult upload(String bucket, String key, Path file, MediaType mediaType) {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			long contentLength = channel.size();
+			long partSize = partSize(contentLength, this.partSize);
+			return this.upload(bucket, key, mediaType, new PartSource() {
+				long position = 0;
+
+				@Override
+				public Part next(int partNumber) throws IOException {
+					if (this.position >= contentLength && partNumber > 1) {
+						return null;
+					}
+					long size = Math.min(partSize, contentLength - this.position);
+					ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, this.position, size);
+					this.position += size;
+					return new Part(partNumber, S3Content.of(buffer, null), () -> {
+					});
+				}
+			});
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param contentLength the size of the object or {@code -1} if unknown. It is used to
+	 * choose a part size that fits in {@link #MAX_PARTS} parts.
+	 */
+	public CompleteMultipartUploadResult upload(String bucket, String key, InputStream in, long contentLength,
+			MediaType mediaType) {
+		long partSize = partSize(contentLength, this.partSize);
+		if (partSize > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("'contentLength' is too large to be buffered: " + contentLength);
+		}
+		ConcurrentLinkedQueue<byte[]> buffers = new ConcurrentLinkedQueue<>();
+		return this.upload(bucket, key, mediaType, new PartSource() {
+			boolean eof = false;
+
+			@Override
+			public Part next(int partNumber) throws IOException {
+				if (this.eof) {
+					return null;
+				}
+				// at most 'concurrency' buffers are allocated as the number of parts in
+				// flight is bounded
+				byte[] buffer = Objects.requireNonNullElseGet(buffers.poll(), () -> new byte[(int) partSize]);
+				int n = in.readNBytes(buffer, 0, buffer.length);
+				if (n < buffer.length) {
+					this.eof = true;
+				}
+				if (n == 0 && partNumber > 1) {
+					buffers.offer(buffer);
+					return null;
+				}
+				return new Part(partNumber, S3Content.of(ByteBuffer.wrap(buffer, 0, n), null),
+						() -> buffers.offer(buffer));
+			}
+		});
+	}
+
+	private CompleteMultipartUploadResult upload(String bucket, String key, MediaType mediaType, PartSource source) {
+		String uploadId = this.initiate(bucket, key, mediaType);
+		ExecutorService ownExecutor = this.executor == null
+				? TaskExecutors.newFixedThreadPool(this.concurrency, "multipart-upload") : null;
+		Executor executor = ownExecutor == null ? this.executor : ownExecutor;
+		try {
+			List<CompletedPart> parts = this.uploadParts(bucket, key, uploadId, source, executor);
+			return this.complete(bucket, key, uploadId, parts);
+		}
+		catch (RuntimeException e) {
+			try {
+				this.abort(bucket, key, uploadId);
+			}
+			catch (RuntimeException abortFailure) {
+				e.addSuppressed(abortFailure);
+			}
+			throw e;
+		}
+		finally {
+			if (ownExecutor != null) {
+				ownExecutor.shutdownNow();
+			}
+		}
+	}
+
+	private List<CompletedPart> uploadParts(String bucket, String key, String uploadId, PartSource source,
+			Executor executor) {
+		BoundedFanOut<CompletedPart> fanOut = new BoundedFanOut<>(this.concurrency, executor);
+		int partNumber = 0;
+		try {
+			while (!fanOut.failed()) {
+				fanOut.acquire();
+				Part part;
+				try {
+					part = source.next(++partNumber);
+				}
+				catch (IOException | RuntimeException e) {
+					fanOut.release();
+					throw e;
+				}
+				if (part == null) {
+					fanOut.release();
+					break;
+				}
+				if (partNumber > MAX_PARTS) {
+					fanOut.release();
+					part.release().run();
+					throw new IllegalStateException("The object does not fit in %d parts".formatted(MAX_PARTS));
+				}
+				fanOut.submit(() -> {
+					try {
+						return this.uploadPart(bucket, key, uploadId, part);
+					}
+					finally {
+						part.release().run();
+					}
+				});
+			}
+		}
+		catch (IOException e) {
+			fanOut.fail(new UncheckedIOException(e));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fanOut.fail(new IllegalStateException("Interrupted", e));
+		}
+		catch (RuntimeException e) {
+			fanOut.fail(e);
+		}
+		// wait for the parts in flight even if one of them failed
+		return fanOut.join().stream().sorted(Comparator.comparingInt(CompletedPart::partNumber)).toList();
+	}
+
+	private String initiate(String bucket, String key, MediaType mediaType) {
+		S3Request request = this.config.s3Request(HttpMethod.POST, b -> b.bucket(bucket).key(key))
+			.canonicalQueryString(CanonicalQueryString.builder().param("uploads", "").build())
+			.build();
+		RestClient.RequestBodySpec spec = this.restClient.post().uri(request.uri()).headers(request.headers());
+		if (mediaType != null) {
+			// not signed, S3 stores it as the content type of the object
+			spec.contentType(mediaType);
+		}
+		InitiateMultipartUploadResult result = spec.retrieve().body(InitiateMultipartUploadResult.class);
+		if (result == null || result.uploadId() == null) {
+			throw new IllegalStateException("Failed to initiate multipart upload: " + result);
+		}
+		return result.uploadId();
+	}
+
+	private CompletedPart uploadPart(String bucket, String key, String uploadId, Part part) {
+		S3Request request = this.config.s3Request(HttpMethod.PUT, b -> b.bucket(bucket).key(key))
+			.canonicalQueryString(CanonicalQueryString.builder()
+				.param("partNumber", part.partNumber())
+				.param("uploadId", uploadId)
+				.build())
+			.content(part.content())
+			.build();
+		String etag = this.restClient.put()
+			.uri(request.uri())
+			.headers(request.headers())
+			.body(part.content()::writeTo)
+			.retrieve()
+			.toBodilessEntity()
+			.getHeaders()
+			.getETag();
+		if (etag == null) {
+			throw new IllegalStateException("No ETag was returned for part " + part.partNumber());
+		}
+		return new CompletedPart(part.partNumber(), etag);
+	}
+
+	private CompleteMultipartUploadResult complete(String bucket, String key, String uploadId,
+			List<CompletedPart> parts) {
+		StringBuilder xml = new StringBuilder(
+				"<CompleteMultipartUpload xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+		for (CompletedPart part : parts) {
+			xml.append("<Part><PartNumber>")
+				.append(part.partNumber())
+				.append("</PartNumber><ETag>")
+				.append(escapeXml(part.etag()))
+				.append("</ETag></Part>");
+		}
+		xml.append("</CompleteMultipartUpload>");
+		S3Content content = S3Content.of(xml.toString(), MediaType.APPLICATION_XML);
+		S3Request request = this.config.s3Request(HttpMethod.POST, b -> b.bucket(bucket).key(key))
+			.canonicalQueryString(CanonicalQueryString.builder().param("uploadId", uploadId).build())
+			.content(content)
+			.build();
+		CompleteMultipartUploadResult result = this.restClient.post()
+			.uri(request.uri())
+			.headers(request.headers())
+			.body(content.body())
+			.retrieve()
+			.body(CompleteMultipartUploadResult.class);
+		// S3 may respond with 200 OK and an error document
+		if (result == null || result.etag() == null) {
+			throw new IllegalStateException("Failed to complete multipart upload: " + result);
+		}
+		return result;
+	}
+
+	private void abort(String bucket, String key, String uploadId) {
+		S3Request request = this.config.s3Request(HttpMethod.DELETE, b -> b.bucket(bucket).key(key))
+			.canonicalQueryString(CanonicalQueryString.builder().param("uploadId", uploadId).build())
+			.build();
+		this.restClient.delete().uri(request.uri()).headers(request.headers()).retrieve().toBodilessEntity();
+	}
+
+	static String escapeXml(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+	}
+
+	private interface PartSource {
+
+		/**
+		 * @return the next part or {@code null} if there is no more part
+		 */
+		Part next(int partNumber) throws IOException;
+
+	}
+
+	private record Part(int partNumber, S3Content content, Runnable release) {
+	}
+
+	private record CompletedPart(int partNumber, String etag) {
+	}
+
+}
@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.RestClient;
+import org.springframework.web.util.UriUtils;
+
+/**
+ * Read-through cache of objects (GetObject) in a local directory. A cached object is
+ * revalidated with a signed {@code If-None-Match} request carrying its ETag, so that an
+ * unchanged object is not transferred again ({@code 304 Not Modified}). Objects validated
+ * less than {@code maxAge} ago (zero by default) are served without a request. Hits are
+ * read by memory-mapping the file.
+ * <p>
+ * The cache is bounded by {@code maxBytes}, the least recently used objects are evicted
+ * first. The index is kept in a journal file in the directory, so the cached objects
+ * survive a restart (and are revalidated on first use). Reads are only recorded in the
+ * journal in batches, so the recency of the latest hits may be lost on a crash. Files are
+ * written to a temporary file and renamed, so concurrent readers never see a partially
+ * written object. An instance is safe for concurrent use, but a directory must not be
+ * shared by multiple instances or processes.
+ */
+public final class ObjectCache implements AutoCloseable {
+
+	public static final long DEFAULT_MAX_BYTES = 1024L * 1024 * 1024;
+
+	static final String JOURNAL = "journal";
+
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final String PUT = "PUT";
+
+	private static final String READ = "READ";
+
+	private static final String REMOVE = "REMOVE";
+
+	private static final int MIN_COMPACTION_LINES = 1000;
+
+	private static final int MAX_PENDING_READS = 256;
+
+	private static final long READ_FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	private final Path directory;
+
+	private final long maxBytes;
+
+	private final Duration maxAge;
+
+	private final Clock clock;
+
+	// in access order
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	private BufferedWriter journal;
+
+	private int journalLines;
+
+	// READ records written but not flushed yet
+	private int pendingReads;
+
+	private long lastFlush = System.nanoTime();
+
+	private long bytes;
+
+	private long hits;
+
+	private long revalidations;
+
+	private long misses;
+
+	private long evictions;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public ObjectCache(RestClient restClient, S3Config config, Path directory, @Opt Long maxBytes,
+			@Opt Duration maxAge) {
+		this.restClient = restClient;
+		this.config = config;
+		this.directory = directory;
+		this.maxBytes = Objects.requireNonNullElse(maxBytes, DEFAULT_MAX_BYTES);
+		this.maxAge = Objects.requireNonNullElse(maxAge, Duration.ZERO);
+		this.clock = config.clock();
+		if (this.maxBytes <= 0) {
+			throw new IllegalArgumentException("'maxBytes' must be positive");
+		}
+		try {
+			Files.createDirectories(directory);
+			this.load();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Returns the object, in the same way as {@link S3Client#getObject(String, String)}.
+	 */
+	public byte[] getObject(String bucket, String key) {
+		ByteBuffer buffer = this.getObjectAsBuffer(bucket, key);
+		byte[] body = new byte[buffer.remaining()];
+		buffer.get(body);
+		return body;
+	}
+
+	/**
+	 * Returns a read-only buffer mapping the cached file of the object. The buffer stays
+	 * valid after the object has been updated or evicted.
+	 */
+	public ByteBuffer getObjectAsBuffer(String bucket, String key) {
+		String name = fileName(bucket, key);
+		Entry entry;
+		synchronized (this) {
+			entry = this.get(name);
+			if (entry != null && entry.validatedAt != null
+					&& entry.validatedAt.plus(this.maxAge).isAfter(this.clock.instant())) {
+				try {
+					ByteBuffer buffer = this.map(entry);
+					this.hits++;
+					return buffer;
+				}
+				catch (NoSuchFileException e) {
+					this.removeIfSame(name, entry);
+					entry = null;
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}
+		}
+		try {
+			return this.fetch(bucket, key, name, entry);
+		}
+		catch (NoSuchFileException e) {
+			// evicted while revalidating
+			synchronized (this) {
+				this.removeIfSame(name, entry);
+			}
+			return this.getObjectAsBuffer(bucket, key);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Removes the object from the cache.
+	 */
+	public synchronized void invalidate(String bucket, String key) {
+		this.remove(fileName(bucket, key));
+	}
+
+	public synchronized CacheStats stats() {
+		return new CacheStats(this.hits, this.revalidations, this.misses, this.evictions, this.entries.size(),
+				this.bytes);
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			this.journal.close();
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private ByteBuffer fetch(String bucket, String key, String name, Entry cached) throws IOException {
+		S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket).key(key))
+			.additionalHeaders(cached == null ? null : Map.of(HttpHeaders.IF_NONE_MATCH, cached.etag))
+			.build();
+		Path tmp = this.directory.resolve(name + "." + UUID.randomUUID() + TMP_SUFFIX);
+		try {
+			Entry fetched = this.restClient.get().uri(request.uri()).headers(request.headers()).exchange((req, res) -> {
+				if (cached != null && res.getStatusCode().isSameCodeAs(HttpStatus.NOT_MODIFIED)) {
+					return null;
+				}
+				S3Responses.checkStatus(res);
+				String etag = res.getHeaders().getETag();
+				try (InputStream in = res.getBody();
+						FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW,
+								StandardOpenOption.WRITE)) {
+					long size = StreamingDownloader.transfer(in, channel);
+					return new Entry(name, bucket, key, size, etag);
+				}
+			});
+			Instant now = this.clock.instant();
+			synchronized (this) {
+				if (fetched == null) {
+					ByteBuffer buffer = this.map(cached);
+					cached.validatedAt = now;
+					this.revalidations++;
+					this.get(name);
+					return buffer;
+				}
+				Files.move(tmp, this.directory.resolve(name), StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				fetched.validatedAt = fetched.etag == null ? null : now;
+				ByteBuffer buffer = this.map(fetched);
+				this.misses++;
+				this.put(fetched);
+				return buffer;
+			}
+		}
+		finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private ByteBuffer map(Entry entry) throws IOException {
+		try (FileChannel channel = FileChannel.open(this.directory.resolve(entry.name), StandardOpenOption.READ)) {
+			return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()).asReadOnlyBuffer();
+		}
+	}
+
+	private Entry get(String name) {
+		Entry entry = this.entries.get(name);
+		if (entry != null) {
+			this.appendRead(name);
+		}
+		return entry;
+	}
+
+	private void put(Entry entry) throws IOException {
+		Entry previous = this.entries.put(entry.name, entry);
+		if (previous != null) {
+			this.bytes -= previous.size;
+		}
+		this.bytes += entry.size;
+		if (entry.etag == null) {
+			// cannot be revalidated
+			this.remove(entry.name);
+			return;
+		}
+		this.append(PUT, entry.name, Long.toString(entry.size), encode(entry.etag), encode(entry.bucket),
+				encode(entry.key));
+		Iterator<Entry> iterator = this.entries.values().iterator();
+		while (this.bytes > this.maxBytes && iterator.hasNext()) {
+			Entry eldest = iterator.next();
+			iterator.remove();
+			this.bytes -= eldest.size;
+			this.evictions++;
+			this.delete(eldest.name);
+		}
+	}
+
+	private void remove(String name) {
+		Entry entry = this.entries.remove(name);
+		if (entry != null) {
+			this.bytes -= entry.size;
+		}
+		this.delete(name);
+	}
+
+	/**
+	 * Removes the entry unless it has been replaced by another thread in the meantime.
+	 */
+	private void removeIfSame(String name, Entry expected) {
+		if (this.entries.remove(name, expected)) {
+			this.bytes -= expected.size;
+			this.delete(name);
+		}
+	}
+
+	private void delete(String name) {
+		try {
+			Files.deleteIfExists(this.directory.resolve(name));
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.append(REMOVE, name);
+	}
+
+	private void append(String... fields) {
+		this.write(true, fields);
+	}
+
+	/**
+	 * Appends a READ record without flushing it, the records are flushed once
+	 * {@value #MAX_PENDING_READS} are pending or a second has passed, with the next PUT
+	 * or REMOVE record, on compaction or on {@link #close()}.
+	 */
+	private void appendRead(String name) {
+		this.write(false, READ, name);
+	}
+
+	private void write(boolean flush, String... fields) {
+		try {
+			this.journal.write(String.join(" ", fields));
+			this.journal.newLine();
+			this.journalLines++;
+			if (flush || ++this.pendingReads >= MAX_PENDING_READS
+					|| System.nanoTime() - this.lastFlush >= READ_FLUSH_INTERVAL_NANOS) {
+				this.journal.flush();
+				this.pendingReads = 0;
+				this.lastFlush = System.nanoTime();
+			}
+			if (this.journalLines >= MIN_COMPACTION_LINES && this.journalLines > 2 * this.entries.size()) {
+				this.compact();
+			}
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Replays the journal and deletes files that are not in the index.
+	 */
+	private void load() throws IOException {
+		Path journalFile = this.directory.resolve(JOURNAL);
+		if (Files.exists(journalFile)) {
+			try (BufferedReader reader = Files.newBufferedReader(journalFile, StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.split(" ");
+					switch (fields[0]) {
+						case PUT -> {
+							if (fields.length == 6) {
+								Entry entry = new Entry(fields[1], decode(fields[4]), decode(fields[5]),
+										Long.parseLong(fields[2]), decode(fields[3]));
+								Entry previous = this.entries.put(entry.name, entry);
+								this.bytes += entry.size - (previous == null ? 0 : previous.size);
+							}
+						}
+						case READ -> this.entries.get(fields[1]);
+						case REMOVE -> {
+							Entry previous = this.entries.remove(fields[1]);
+							this.bytes -= previous == null ? 0 : previous.size;
+						}
+						default -> {
+							// truncated line
+						}
+					}
+				}
+			}
+		}
+		Iterator<Entry> iterator = this.entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			Path file = this.directory.resolve(entry.name);
+			if (!Files.exists(file) || Files.size(file) != entry.size) {
+				iterator.remove();
+				this.bytes -= entry.size;
+			}
+		}
+		List<Path> orphans;
+		try (Stream<Path> files = Files.list(this.directory)) {
+			orphans = files.filter(file -> {
+				String name = file.getFileName().toString();
+				return !name.equals(JOURNAL) && !this.entries.containsKey(name);
+			}).toList();
+		}
+		for (Path orphan : orphans) {
+			Files.deleteIfExists(orphan);
+		}
+		this.compact();
+	}
+
+	/**
+	 * Rewrites the journal with one line per entry, in access order.
+	 */
+	private void compact() throws IOException {
+		if (this.journal != null) {
+			this.journal.close();
+		}
+		Path tmp = this.directory.resolve(JOURNAL + TMP_SUFFIX);
+		List<String> lines = new ArrayList<>(this.entries.size());
+		for (Entry entry : this.entries.values()) {
+			lines.add(String.join(" ", PUT, entry.name, Long.toString(entry.size), encode(entry.etag),
+					encode(entry.bucket), encode(entry.key)));
+		}
+		Files.write(tmp, lines, StandardCharsets.UTF_8);
+		Files.move(tmp, this.directory.resolve(JOURNAL), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		this.journal = Files.newBufferedWriter(this.directory.resolve(JOURNAL), StandardCharsets.UTF_8,
+				StandardOpenOption.APPEND);
+		this.journalLines = lines.size();
+		this.pendingReads = 0;
+	}
+
+	static String fileName(String bucket, String key) {
+		return Sigv4Signer.current().sha256Hex((bucket + "/" + key).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String encode(String value) {
+		return UriUtils.encode(value, StandardCharsets.UTF_8);
+	}
+
+	private static String decode(String value) {
+		return UriUtils.decode(value, StandardCharsets.UTF_8);
+	}
+
+	private static final class Entry {
+
+		final String name;
+
+		final String bucket;
+
+		final String key;
+
+		final long size;
+
+		final String etag;
+
+		// not persisted, entries loaded from the journal are revalidated first
+		Instant validatedAt;
+
+		Entry(String name, String bucket, String key, long size, String etag) {
+			this.name = name;
+			this.bucket = bucket;
+			this.key = key;
+			this.size = size;
+			this.etag = etag;
+		}
+
+	}
+
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Deletes objects with the multi-object {@code DeleteObjects} API, up to 1000 keys per
+ * request. When the objects are given as a stream (e.g. from a listing), they are grouped
+ * into batches and several batches are deleted concurrently while the next one is being
+ * collected.
+ */
+public final class ObjectDeleter {
+
+	public static final int MAX_BATCH_SIZE = 1000;
+
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	static final String CONTENT_MD5 = "Content-MD5";
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	private final Executor executor;
+
+	private final int concurrency;
+
+	private final int batchSize;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public ObjectDeleter(RestClient restClient, S3Config config, @Opt Executor executor, @Opt Integer concurrency,
+			@Opt Integer batchSize) {
+		this.restClient = restClient;
+		this.config = config;
+		this.executor = Objects.requireNonNullElseGet(executor, TaskExecutors::shared);
+		this.concurrency = Objects.requireNonNullElse(concurrency, DEFAULT_CONCURRENCY);
+		this.batchSize = Objects.requireNonNullElse(batchSize, MAX_BATCH_SIZE);
+		if (this.concurrency < 1) {
+			throw new IllegalArgumentException("'concurrency' must be positive");
+		}
+		if (this.batchSize < 1 || this.batchSize > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("'batchSize' must be between 1 and " + MAX_BATCH_SIZE);
+		}
+	}
+
+	/**
+	 * Deletes the objects with a single {@code DeleteObjects} request. The request is
+	 * sent in quiet mode, so only the keys that could not be deleted are reported.
+	 */
+	public DeleteResult deleteBatch(String bucket, List<ObjectIdentifier> objects) {
+		if (objects.isEmpty()) {
+			return new DeleteResult(0, List.of());
+		}
+		if (objects.size() > MAX_BATCH_SIZE) {
+			throw new IllegalArgumentException("At most " + MAX_BATCH_SIZE + " objects can be deleted at once");
+		}
+		byte[] body = deleteRequestBody(objects);
+		S3Request request = this.config.s3Request(HttpMethod.POST, b -> b.bucket(bucket))
+			.canonicalQueryString(CanonicalQueryString.builder().param("delete", "").build())
+			.content(S3Content.of(body, MediaType.APPLICATION_XML))
+			// required by DeleteObjects, and signed along with the other headers
+			.additionalHeaders(Map.of(CONTENT_MD5, md5Base64(body)))
+			.build();
+		List<DeleteError> errors = this.restClient.post()
+			.uri(request.uri())
+			.headers(request.headers())
+			.body(body)
+			.exchange((req, res) -> {
+				S3Responses.checkStatus(res);
+				try (InputStream in = res.getBody()) {
+					return decodeDeleteErrors(in);
+				}
+			});
+		return new DeleteResult(objects.size() - errors.size(), errors);
+	}
+
+	/**
+	 * Deletes the given objects in batches of up to {@code batchSize} keys, with up to
+	 * {@code concurrency} requests in flight. Per-key errors are collected in the result,
+	 * while a failed request stops the deletion and is rethrown.
+	 */
+	public DeleteResult deleteObjects(String bucket, Stream<ObjectIdentifier> objects) {
+		BoundedFanOut<Void> fanOut = new BoundedFanOut<>(this.concurrency, this.executor);
+		AtomicLong deleted = new AtomicLong();
+		ConcurrentLinkedQueue<DeleteError> errors = new ConcurrentLinkedQueue<>();
+		try (objects) {
+			Iterator<ObjectIdentifier> iterator = objects.iterator();
+			while (!fanOut.failed() && iterator.hasNext()) {
+				List<ObjectIdentifier> batch = new ArrayList<>(this.batchSize);
+				while (batch.size() < this.batchSize && iterator.hasNext()) {
+					batch.add(iterator.next());
+				}
+				fanOut.acquire();
+				fanOut.execute(() -> {
+					DeleteResult result = this.deleteBatch(bucket, batch);
+					deleted.addAndGet(result.deleted());
+					errors.addAll(result.errors());
+				});
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fanOut.fail(new IllegalStateException("Interrupted", e));
+		}
+		catch (RuntimeException e) {
+			fanOut.fail(e);
+		}
+		fanOut.join();
+		return new DeleteResult(deleted.get(), List.copyOf(errors));
+	}
+
+	/**
+	 * Deletes the (current versions of the) objects under the prefix, feeding the batches
+	 * from a paginated listing.
+	 * @param prefix the prefix of the keys, or {@code null} to delete all objects
+	 */
+	public DeleteResult deletePrefix(String bucket, String prefix) {
+		ObjectLister lister = ObjectListerBuilder.objectLister()
+			.restClient(this.restClient)
+			.config(this.config)
+			.executor(this.executor)
+			.build();
+		return this.deleteObjects(bucket, lister.listObjects(bucket, prefix).map(c -> ObjectIdentifier.of(c.key())));
+	}
+
+	/**
+	 * Deletes the bucket.
+	 * @param recursive whether to empty the bucket first, i.e. to delete all objects,
+	 * versions and delete markers in it
+	 */
+	public void deleteBucket(String bucket, boolean recursive) {
+		if (recursive) {
+			PurgeResult purged = VersionPurgerBuilder.versionPurger()
+				.restClient(this.restClient)
+				.config(this.config)
+				.executor(this.executor)
+				.concurrency(this.concurrency)
+				.batchSize(this.batchSize)
+				.build()
+				.purge(bucket, null);
+			if (!purged.errors().isEmpty()) {
+				throw new IllegalStateException("Failed to delete versions in " + bucket + ": " + purged.errors());
+			}
+			// objects in an unversioned bucket are not necessarily listed as versions
+			DeleteResult deleted = this.deletePrefix(bucket, null);
+			if (deleted.hasErrors()) {
+				throw new IllegalStateException("Failed to delete objects in " + bucket + ": " + deleted.errors());
+			}
+		}
+		S3Request request = this.config.s3Request(HttpMethod.DELETE, b -> b.bucket(bucket)).build();
+		this.restClient.delete().uri(request.uri()).headers(request.headers()).retrieve().toBodilessEntity();
+	}
+
+	static byte[] deleteRequestBody(List<ObjectIdentifier> objects) {
+		StringBuilder xml = new StringBuilder(64 + objects.size() * 96);
+		xml.append("<Delete xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Quiet>true</Quiet>");
+		for (ObjectIdentifier object : objects) {
+			xml.append("<Object><Key>").append(MultipartUploader.escapeXml(object.key())).append("</Key>");
+			if (object.versionId() != null) {
+				xml.append("<VersionId>")
+					.append(MultipartUploader.escapeXml(object.versionId()))
+					.append("</VersionId>");
+			}
+			xml.append("</Object>");
+		}
+		xml.append("</Delete>");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	static List<DeleteError> decodeDeleteErrors(InputStream body) {
+		XMLStreamReader reader = ListResultDecoder.createReader(body);
+		try {
+			List<DeleteError> errors = new ArrayList<>();
+			ListResultDecoder.nextElement(reader); // DeleteResult
+			while (ListResultDecoder.nextElement(reader)) {
+				if (!reader.getLocalName().equals("Error")) {
+					ListResultDecoder.skipElement(reader);
+					continue;
+				}
+				String key = null;
+				String versionId = null;
+				String code = null;
+				String message = null;
+				while (ListResultDecoder.nextElement(reader)) {
+					switch (reader.getLocalName()) {
+						case "Key" -> key = ListResultDecoder.text(reader);
+						case "VersionId" -> versionId = ListResultDecoder.text(reader);
+						case "Code" -> code = ListResultDecoder.text(reader);
+						case "Message" -> message = ListResultDecoder.text(reader);
+						default -> ListResultDecoder.skipElement(reader);
+					}
+				}
+				errors.add(new DeleteError(key, versionId, code, message));
+			}
+			return errors;
+		}
+		catch (XMLStreamException e) {
+			throw new IllegalStateException("Failed to decode DeleteResult", e);
+		}
+		finally {
+			ListResultDecoder.close(reader);
+		}
+	}
+
+	static String md5Base64(byte[] data) {
+		try {
+			return Base64.getEncoder().encodeToString(MessageDigest.getInstance("MD5").digest(data));
+		}
+		catch (NoSuchAlgorithmException e) {
+			// should not happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+/**
+ * Identifies an object (or a version of it) to delete.
+ *
+ * @param versionId the version to delete, or {@code null} for the current one
+ */
+public record ObjectIdentifier(String key, String versionId) {
+
+	public static ObjectIdentifier of(String key) {
+		return new ObjectIdentifier(key, null);
+	}
+
+}
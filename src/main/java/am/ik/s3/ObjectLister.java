@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Lists objects with ListObjectsV2 ({@code list-type=2}), following the continuation
+ * tokens, and versions with ListObjectVersions, following the key and version id markers.
+ * The next page is requested in the background as soon as a page arrives, so the round
+ * trip overlaps with the consumption of the current page.
+ * <p>
+ * Pages are decoded with {@link ListResultDecoder}, so the {@link RestClient} does not
+ * need an XML message converter.
+ */
+public final class ObjectLister {
+
+	public static final int DEFAULT_MAX_KEYS = 1000;
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	private final Executor executor;
+
+	private final int maxKeys;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public ObjectLister(RestClient restClient, S3Config config, @Opt Executor executor, @Opt Integer maxKeys) {
+		this.restClient = restClient;
+		this.config = config;
+		this.executor = Objects.requireNonNullElseGet(executor, TaskExecutors::shared);
+		this.maxKeys = Objects.requireNonNullElse(maxKeys, DEFAULT_MAX_KEYS);
+		if (this.maxKeys < 1 || this.maxKeys > DEFAULT_MAX_KEYS) {
+			throw new IllegalArgumentException("'maxKeys' must be between 1 and 1000");
+		}
+	}
+
+	/**
+	 * Returns the objects in the bucket in key order. The next page is prefetched while
+	 * the current one is consumed, so the stream has to be closed, e.g. with
+	 * try-with-resources, when it is not consumed to the end. Closing it discards the
+	 * result of a prefetch in flight, the request itself still runs to completion.
+	 * @param prefix the prefix of the keys, or {@code null} to list all
+	 */
+	public Stream<Content> listObjects(String bucket, String prefix) {
+		return this.listPages(bucket, prefix).flatMap(page -> contents(page).stream());
+	}
+
+	/**
+	 * Returns the pages of the listing. The stream has to be closed, e.g. with
+	 * try-with-resources, closing it discards the result of a prefetch in flight.
+	 * @param prefix the prefix of the keys, or {@code null} to list all
+	 */
+	public Stream<ListBucketResult> listPages(String bucket, String prefix) {
+		return stream(this.pageIterator(bucket, prefix, null, null));
+	}
+
+	/**
+	 * Returns an iterator over the objects in the bucket in key order. An iterator that
+	 * is abandoned before the end cannot discard the page prefetched in flight, use
+	 * {@link #listObjects(String, String)} with try-with-resources instead.
+	 * @param prefix the prefix of the keys, or {@code null} to list all
+	 */
+	public Iterator<Content> iterator(String bucket, String prefix) {
+		return this.listObjects(bucket, prefix).iterator();
+	}
+
+	/**
+	 * Returns the pages of the versions of the objects (ListObjectVersions), following
+	 * the key and version id markers. The stream has to be closed, e.g. with
+	 * try-with-resources, closing it discards the result of a prefetch in flight.
+	 * @param prefix the prefix of the keys, or {@code null} to list all
+	 */
+	public Stream<ListVersionsResult> listVersionPages(String bucket, String prefix) {
+		return stream(this.versionPageIterator(bucket, prefix));
+	}
+
+	PageIterator<ListBucketResult> pageIterator(String bucket, String prefix, String delimiter, String startAfter) {
+		return new PageIterator<>(() -> this.listPage(bucket, prefix, delimiter, startAfter, null), page -> {
+			String token = page.isTruncated() ? page.nextContinuationToken() : null;
+			return token == null ? null : () -> this.listPage(bucket, prefix, delimiter, startAfter, token);
+		}, this.executor);
+	}
+
+	PageIterator<ListVersionsResult> versionPageIterator(String bucket, String prefix) {
+		return new PageIterator<>(() -> this.listVersionsPage(bucket, prefix, null, null), page -> {
+			if (!page.isTruncated()) {
+				return null;
+			}
+			return () -> this.listVersionsPage(bucket, prefix, page.nextKeyMarker(), page.nextVersionIdMarker());
+		}, this.executor);
+	}
+
+	ListBucketResult listPage(String bucket, String prefix, String delimiter, String startAfter,
+			String continuationToken) {
+		String query = CanonicalQueryString.builder()
+			.param("list-type", 2)
+			.param("max-keys", this.maxKeys)
+			.param("prefix", prefix)
+			.param("delimiter", delimiter)
+			.param("start-after", continuationToken == null ? startAfter : null)
+			.param("continuation-token", continuationToken)
+			.build();
+		S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket))
+			.canonicalQueryString(query)
+			.build();
+		return this.restClient.get().uri(request.uri()).headers(request.headers()).exchange((req, res) -> {
+			S3Responses.checkStatus(res);
+			try (InputStream body = res.getBody()) {
+				return ListResultDecoder.decodeListBucketResult(body);
+			}
+		});
+	}
+
+	ListVersionsResult listVersionsPage(String bucket, String prefix, String keyMarker, String versionIdMarker) {
+		String query = CanonicalQueryString.builder()
+			.param("versions", "")
+			.param("max-keys", this.maxKeys)
+			.param("prefix", prefix)
+			.param("key-marker", keyMarker)
+			.param("version-id-marker", versionIdMarker)
+			.build();
+		S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket))
+			.canonicalQueryString(query)
+			.build();
+		return this.restClient.get().uri(request.uri()).headers(request.headers()).exchange((req, res) -> {
+			S3Responses.checkStatus(res);
+			try (InputStream body = res.getBody()) {
+				return ListResultDecoder.decodeListVersionsResult(body);
+			}
+		});
+	}
+
+	private static <T> Stream<T> stream(PageIterator<T> pages) {
+		return StreamSupport
+			.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false)
+			.onClose(pages::cancel);
+	}
+
+	static List<Content> contents(ListBucketResult page) {
+		return page.contents() == null ? List.of() : page.contents();
+	}
+
+	/**
+	 * Iterates over pages, requesting the next page in the background as soon as a page
+	 * is returned.
+	 */
+	static final class PageIterator<T> implements Iterator<T> {
+
+		private final Supplier<T> firstPage;
+
+		private final Function<T, Supplier<T>> nextPage;
+
+		private final Executor executor;
+
+		private boolean started;
+
+		private CompletableFuture<T> next;
+
+		/**
+		 * @param nextPage returns the request of the page after the given one, or
+		 * {@code null} if it is the last page
+		 */
+		PageIterator(Supplier<T> firstPage, Function<T, Supplier<T>> nextPage, Executor executor) {
+			this.firstPage = firstPage;
+			this.nextPage = nextPage;
+			this.executor = executor;
+		}
+
+		@Override
+		public boolean hasNext() {
+			if (!this.started) {
+				this.started = true;
+				// the first page is fetched by the caller
+				this.next = CompletableFuture.completedFuture(this.firstPage.get());
+			}
+			return this.next != null;
+		}
+
+		@Override
+		public T next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			T page;
+			try {
+				page = this.next.join();
+			}
+			catch (CompletionException e) {
+				this.next = null;
+				throw e.getCause() instanceof RuntimeException cause ? cause : e;
+			}
+			Supplier<T> request = this.nextPage.apply(page);
+			this.next = request == null ? null : CompletableFuture.supplyAsync(request, this.executor);
+			return page;
+		}
+
+		/**
+		 * Discards the result of the prefetch in flight. The request is not aborted and
+		 * runs to completion on the executor.
+		 */
+		void cancel() {
+			if (this.next != null) {
+				this.next.cancel(false);
+				this.next = null;
+			}
+		}
+
+	}
+
+}
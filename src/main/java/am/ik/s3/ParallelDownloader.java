@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Downloads an object to a file by fetching byte ranges concurrently. The size and the
+ * ETag of the object are fetched first (HeadObject), then each range is requested with a
+ * signed {@code Range} header (and {@code If-Match}, so that all ranges belong to the
+ * same version) and written to the file with positional writes. Only a small copy buffer
+ * is held in memory per range in flight.
+ * <p>
+ * A range that fails with an I/O error or a 5xx response is retried up to
+ * {@code maxAttempts} times, resuming from the last byte written.
+ */
+public final class ParallelDownloader {
+
+	public static final long DEFAULT_RANGE_SIZE = 8L * 1024 * 1024;
+
+	public static final int DEFAULT_CONCURRENCY = 4;
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	private final Executor executor;
+
+	private final int concurrency;
+
+	private final long rangeSize;
+
+	private final int maxAttempts;
+
+	private final ProgressListener progressListener;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public ParallelDownloader(RestClient restClient, S3Config config, @Opt Executor executor, @Opt Integer concurrency,
+			@Opt Long rangeSize, @Opt Integer maxAttempts, @Opt ProgressListener progressListener) {
+		this.restClient = restClient;
+		this.config = config;
+		this.executor = executor;
+		this.concurrency = Objects.requireNonNullElse(concurrency, DEFAULT_CONCURRENCY);
+		this.rangeSize = Objects.requireNonNullElse(rangeSize, DEFAULT_RANGE_SIZE);
+		this.maxAttempts = Objects.requireNonNullElse(maxAttempts, DEFAULT_MAX_ATTEMPTS);
+		this.progressListener = Objects.requireNonNullElse(progressListener, ProgressListener.NOOP);
+		if (this.concurrency < 1) {
+			throw new IllegalArgumentException("'concurrency' must be positive");
+		}
+		if (this.rangeSize < 1) {
+			throw new IllegalArgumentException("'rangeSize' must be positive");
+		}
+		if (this.maxAttempts < 1) {
+			throw new IllegalArgumentException("'maxAttempts' must be positive");
+		}
+	}
+
+	public DownloadResult download(String bucket, String key, Path target) {
+		S3Request headRequest = this.config.s3Request(HttpMethod.HEAD, b -> b.bucket(bucket).key(key)).build();
+		HttpHeaders headers = this.restClient.head()
+			.uri(headRequest.uri())
+			.headers(headRequest.headers())
+			.retrieve()
+			.toBodilessEntity()
+			.getHeaders();
+		long contentLength = headers.getContentLength();
+		if (contentLength < 0) {
+			throw new IllegalStateException("Content-Length is unknown: " + bucket + "/" + key);
+		}
+		String etag = headers.getETag();
+		ExecutorService ownExecutor = this.executor == null
+				? TaskExecutors.newFixedThreadPool(this.concurrency, "parallel-download") : null;
+		Executor executor = ownExecutor == null ? this.executor : ownExecutor;
+		try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			this.downloadRanges(bucket, key, etag, contentLength, channel, executor);
+		}
+		catch (IOException | RuntimeException e) {
+			try {
+				Files.deleteIfExists(target);
+			}
+			catch (IOException deleteFailure) {
+				e.addSuppressed(deleteFailure);
+			}
+			if (e instanceof IOException ioException) {
+				throw new UncheckedIOException(ioException);
+			}
+			throw (RuntimeException) e;
+		}
+		finally {
+			if (ownExecutor != null) {
+				ownExecutor.shutdownNow();
+			}
+		}
+		return new DownloadResult(target, contentLength, etag);
+	}
+
+	private void downloadRanges(String bucket, String key, String etag, long contentLength, FileChannel channel,
+			Executor executor) {
+		BoundedFanOut<Void> fanOut = new BoundedFanOut<>(this.concurrency, executor);
+		AtomicLong transferred = new AtomicLong();
+		try {
+			for (long start = 0; start < contentLength && !fanOut.failed(); start += this.rangeSize) {
+				long rangeStart = start;
+				long rangeEnd = Math.min(start + this.rangeSize, contentLength) - 1;
+				fanOut.acquire();
+				fanOut.execute(() -> this.downloadRange(bucket, key, etag, contentLength, rangeStart, rangeEnd, channel,
+						transferred));
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fanOut.fail(new IllegalStateException("Interrupted", e));
+		}
+		catch (RuntimeException e) {
+			fanOut.fail(e);
+		}
+		fanOut.join();
+	}
+
+	private void downloadRange(String bucket, String key, String etag, long contentLength, long start, long end,
+			FileChannel channel, AtomicLong transferred) {
+		// the next position to write, kept across attempts to resume the range
+		long[] position = { start };
+		for (int attempt = 1;; attempt++) {
+			Map<String, String> headers = etag == null
+					? Map.of(HttpHeaders.RANGE, "bytes=%d-%d".formatted(position[0], end))
+					: Map.of(HttpHeaders.RANGE, "bytes=%d-%d".formatted(position[0], end), HttpHeaders.IF_MATCH, etag);
+			S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket).key(key))
+				.additionalHeaders(headers)
+				.build();
+			try {
+				this.restClient.get().uri(request.uri()).headers(request.headers()).exchange((req, res) -> {
+					S3Responses.checkStatus(res);
+					boolean wholeObject = position[0] == 0 && end == contentLength - 1;
+					if (res.getStatusCode() != HttpStatus.PARTIAL_CONTENT && !wholeObject) {
+						throw new IllegalStateException("Range request was not honored: " + res.getStatusCode());
+					}
+					byte[] buffer = new byte[BUFFER_SIZE];
+					try (InputStream in = res.getBody()) {
+						int n;
+						while (position[0] <= end && (n = in.read(buffer, 0,
+								(int) Math.min(buffer.length, end - position[0] + 1))) != -1) {
+							ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, n);
+							while (byteBuffer.hasRemaining()) {
+								position[0] += channel.write(byteBuffer, position[0]);
+							}
+							this.progressListener.onProgress(transferred.addAndGet(n), contentLength);
+						}
+					}
+					if (position[0] <= end) {
+						throw new IOException("Premature end of range: expected %d bytes but received %d"
+							.formatted(end - start + 1, position[0] - start));
+					}
+					return null;
+				});
+				return;
+			}
+			catch (ResourceAccessException | HttpServerErrorException e) {
+				if (attempt >= this.maxAttempts) {
+					throw e;
+				}
+				try {
+					Thread.sleep(100L << (attempt - 1));
+				}
+				catch (InterruptedException interrupted) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+}
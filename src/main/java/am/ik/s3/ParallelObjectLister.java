@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.web.client.RestClient;
+
+/**
+ * Lists a large bucket by splitting the key space into partitions that are listed
+ * concurrently. The partitions are either discovered with a delimiter (one partition per
+ * {@code CommonPrefixes} entry) or given as {@code start-after} boundaries.
+ * <p>
+ * At most {@code concurrency} partitions are listed or waiting to be consumed at a time.
+ * A partition is buffered in memory until it is consumed, so partitions should be much
+ * smaller than the whole listing. Pass a {@link java.util.concurrent.ForkJoinPool} or, on
+ * Java 21+, {@code Executors.newVirtualThreadPerTaskExecutor()} as the executor if the
+ * shared I/O threads are not wanted.
+ */
+public final class ParallelObjectLister {
+
+	public static final int DEFAULT_CONCURRENCY = 8;
+
+	public static final String DEFAULT_DELIMITER = "/";
+
+	private final ObjectLister lister;
+
+	private final Executor executor;
+
+	private final int concurrency;
+
+	private final String delimiter;
+
+	/**
+	 * The order of the listed objects.
+	 */
+	public enum Order {
+
+		/**
+		 * In key order, like a sequential listing.
+		 */
+		KEY,
+
+		/**
+		 * In the order the partitions are completed.
+		 */
+		UNORDERED
+
+	}
+
+	@Builder(style = BuilderStyle.STAGED)
+	public ParallelObjectLister(RestClient restClient, S3Config config, @Opt Executor executor,
+			@Opt Integer concurrency, @Opt String delimiter, @Opt Integer maxKeys) {
+		this.executor = Objects.requireNonNullElseGet(executor, TaskExecutors::shared);
+		this.concurrency = Objects.requireNonNullElse(concurrency, DEFAULT_CONCURRENCY);
+		this.delimiter = Objects.requireNonNullElse(delimiter, DEFAULT_DELIMITER);
+		this.lister = ObjectListerBuilder.objectLister().restClient(restClient).config(config).maxKeys(maxKeys).build();
+		if (this.concurrency < 1) {
+			throw new IllegalArgumentException("'concurrency' must be positive");
+		}
+		if (this.delimiter.isEmpty()) {
+			throw new IllegalArgumentException("'delimiter' must not be empty");
+		}
+	}
+
+	/**
+	 * Lists the objects under the prefix, one partition per common prefix below it.
+	 * @param prefix the prefix of the keys, or {@code null} to list all
+	 */
+	public Stream<Content> listObjects(String bucket, String prefix, Order order) {
+		return this.stream(bucket, this.discoverPartitions(bucket, prefix), order);
+	}
+
+	/**
+	 * Lists the objects under the prefix, split at the given keys. A partition contains
+	 * the keys after the previous boundary up to and including its own boundary, the last
+	 * one the keys after the last boundary.
+	 * @param prefix the prefix of the keys, or {@code null} to list all
+	 * @param boundaries the keys to split at, in ascending order
+	 */
+	public Stream<Content> listObjects(String bucket, String prefix, List<String> boundaries, Order order) {
+		List<Partition> partitions = new ArrayList<>(boundaries.size() + 1);
+		String startAfter = null;
+		for (String boundary : boundaries) {
+			if (startAfter != null && boundary.compareTo(startAfter) <= 0) {
+				throw new IllegalArgumentException("'boundaries' must be in ascending order");
+			}
+			partitions.add(Partition.range(prefix, startAfter, boundary));
+			startAfter = boundary;
+		}
+		partitions.add(Partition.range(prefix, startAfter, null));
+		return this.stream(bucket, partitions, order);
+	}
+
+	List<Partition> discoverPartitions(String bucket, String prefix) {
+		List<Content> contents = new ArrayList<>();
+		List<String> commonPrefixes = new ArrayList<>();
+		ObjectLister.PageIterator<ListBucketResult> pages = this.lister.pageIterator(bucket, prefix, this.delimiter,
+				null);
+		while (pages.hasNext()) {
+			ListBucketResult page = pages.next();
+			contents.addAll(ObjectLister.contents(page));
+			if (page.commonPrefixes() != null) {
+				page.commonPrefixes().forEach(p -> commonPrefixes.add(p.prefix()));
+			}
+		}
+		// the objects directly under the prefix are already listed, they are placed
+		// between the common prefixes in key order
+		List<Partition> partitions = new ArrayList<>(commonPrefixes.size() * 2 + 1);
+		int i = 0;
+		for (String commonPrefix : commonPrefixes) {
+			int start = i;
+			while (i < contents.size() && contents.get(i).key().compareTo(commonPrefix) < 0) {
+				i++;
+			}
+			if (i > start) {
+				partitions.add(Partition.listed(contents.subList(start, i)));
+			}
+			partitions.add(Partition.range(commonPrefix, null, null));
+		}
+		if (i < contents.size()) {
+			partitions.add(Partition.listed(contents.subList(i, contents.size())));
+		}
+		return partitions;
+	}
+
+	private Stream<Content> stream(String bucket, List<Partition> partitions, Order order) {
+		PartitionIterator iterator = new PartitionIterator(bucket, partitions.iterator(), order);
+		return StreamSupport
+			.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL | Spliterator.ORDERED), false)
+			.onClose(iterator::cancel)
+			.flatMap(List::stream);
+	}
+
+	private List<Content> list(String bucket, Partition partition) {
+		if (partition.contents() != null) {
+			return partition.contents();
+		}
+		List<Content> contents = new ArrayList<>();
+		ObjectLister.PageIterator<ListBucketResult> pages = this.lister.pageIterator(bucket, partition.prefix(), null,
+				partition.startAfter());
+		try {
+			while (pages.hasNext()) {
+				for (Content content : ObjectLister.contents(pages.next())) {
+					if (partition.endInclusive() != null && content.key().compareTo(partition.endInclusive()) > 0) {
+						return contents;
+					}
+					contents.add(content);
+				}
+			}
+			return contents;
+		}
+		finally {
+			pages.cancel();
+		}
+	}
+
+	/**
+	 * Either a range of keys to list or objects listed during the discovery.
+	 */
+	record Partition(String prefix, String startAfter, String endInclusive, List<Content> contents) {
+
+		static Partition range(String prefix, String startAfter, String endInclusive) {
+			return new Partition(prefix, startAfter, endInclusive, null);
+		}
+
+		static Partition listed(List<Content> contents) {
+			return new Partition(null, null, null, contents);
+		}
+
+	}
+
+	private final class PartitionIterator implements Iterator<List<Content>> {
+
+		private final String bucket;
+
+		private final Iterator<Partition> partitions;
+
+		private final Order order;
+
+		// listing in submission order
+		private final Deque<CompletableFuture<List<Content>>> inFlight = new ArrayDeque<>();
+
+		// listing in completion order, only used with Order.UNORDERED
+		private final BlockingQueue<CompletableFuture<List<Content>>> completed = new LinkedBlockingQueue<>();
+
+		PartitionIterator(String bucket, Iterator<Partition> partitions, Order order) {
+			this.bucket = bucket;
+			this.partitions = partitions;
+			this.order = order;
+		}
+
+		@Override
+		public boolean hasNext() {
+			this.submit();
+			return !this.inFlight.isEmpty();
+		}
+
+		@Override
+		public List<Content> next() {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			CompletableFuture<List<Content>> future;
+			if (this.order == Order.KEY) {
+				future = this.inFlight.poll();
+			}
+			else {
+				try {
+					future = this.completed.take();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted", e);
+				}
+				this.inFlight.remove(future);
+			}
+			try {
+				return future.join();
+			}
+			catch (CompletionException e) {
+				this.cancel();
+				throw e.getCause() instanceof RuntimeException cause ? cause : e;
+			}
+		}
+
+		private void submit() {
+			while (this.inFlight.size() < concurrency && this.partitions.hasNext()) {
+				Partition partition = this.partitions.next();
+				CompletableFuture<List<Content>> future = CompletableFuture
+					.supplyAsync(() -> list(this.bucket, partition), executor);
+				this.inFlight.add(future);
+				if (this.order == Order.UNORDERED) {
+					future.whenComplete((contents, e) -> this.completed.add(future));
+				}
+			}
+		}
+
+		void cancel() {
+			this.inFlight.forEach(future -> future.cancel(false));
+			this.inFlight.clear();
+			this.completed.clear();
+		}
+
+	}
+
+}
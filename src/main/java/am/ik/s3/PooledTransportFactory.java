@@ -0,0 +1,385 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.StreamingHttpOutputMessage;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+
+/**
+ * {@link ClientHttpRequestFactory} on top of the JDK {@link HttpClient} with a separate
+ * keep-alive connection pool per endpoint. The number of connections per endpoint is
+ * bounded by limiting the requests in flight, requests beyond the limit wait in FIFO
+ * order. A pool that has been idle for {@code idleTimeout} is released, and a new one is
+ * created on the next request. The connections of a released pool are closed right away
+ * only on JDK 21 and later, where {@code HttpClient} is {@link AutoCloseable}. On older
+ * JDKs they stay open until they exceed the keep-alive timeout or the client is garbage
+ * collected.
+ *
+ * <pre>{@code
+ * RestClient restClient = RestClient.builder().requestFactory(transportFactory).build();
+ * }</pre>
+ */
+public final class PooledTransportFactory implements ClientHttpRequestFactory, AutoCloseable {
+
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 50;
+
+	public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+	public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(60);
+
+	public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(60);
+
+	public static final Duration DEFAULT_ACQUIRE_TIMEOUT = Duration.ofSeconds(30);
+
+	private final int maxConnectionsPerEndpoint;
+
+	private final Duration connectTimeout;
+
+	private final Duration readTimeout;
+
+	private final long idleTimeoutNanos;
+
+	private final long acquireTimeoutNanos;
+
+	private final ConcurrentHashMap<String, EndpointPool> pools = new ConcurrentHashMap<>();
+
+	private final ScheduledExecutorService evictor;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public PooledTransportFactory(@Opt Integer maxConnectionsPerEndpoint, @Opt Duration connectTimeout,
+			@Opt Duration readTimeout, @Opt Duration idleTimeout, @Opt Duration acquireTimeout) {
+		this.maxConnectionsPerEndpoint = Objects.requireNonNullElse(maxConnectionsPerEndpoint,
+				DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT);
+		this.connectTimeout = Objects.requireNonNullElse(connectTimeout, DEFAULT_CONNECT_TIMEOUT);
+		this.readTimeout = Objects.requireNonNullElse(readTimeout, DEFAULT_READ_TIMEOUT);
+		this.idleTimeoutNanos = Objects.requireNonNullElse(idleTimeout, DEFAULT_IDLE_TIMEOUT).toNanos();
+		this.acquireTimeoutNanos = Objects.requireNonNullElse(acquireTimeout, DEFAULT_ACQUIRE_TIMEOUT).toNanos();
+		if (this.maxConnectionsPerEndpoint < 1) {
+			throw new IllegalArgumentException("'maxConnectionsPerEndpoint' must be positive");
+		}
+		if (this.idleTimeoutNanos <= 0) {
+			throw new IllegalArgumentException("'idleTimeout' must be positive");
+		}
+		this.evictor = TaskExecutors.newSingleThreadScheduledExecutor("s3-transport-evictor");
+		long period = Math.max(TimeUnit.MILLISECONDS.toNanos(10), this.idleTimeoutNanos / 2);
+		this.evictor.scheduleWithFixedDelay(this::evictIdlePools, period, period, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public ClientHttpRequest createRequest(URI uri, HttpMethod httpMethod) throws IOException {
+		EndpointPool pool = this.pools.computeIfAbsent(key(uri), k -> new EndpointPool());
+		return new PooledRequest(pool, uri, httpMethod);
+	}
+
+	/**
+	 * Returns the stats of the pool of the endpoint, e.g. {@link S3Config#endpoint()}.
+	 */
+	public TransportStats stats(URI endpoint) {
+		EndpointPool pool = this.pools.get(key(endpoint));
+		return pool == null ? new TransportStats(this.maxConnectionsPerEndpoint, 0, 0, 0, 0, 0, 0, 0) : pool.stats();
+	}
+
+	/**
+	 * Returns the stats of all pools keyed by {@code scheme://host[:port]}.
+	 */
+	public Map<String, TransportStats> stats() {
+		return this.pools.entrySet()
+			.stream()
+			.collect(Collectors.toUnmodifiableMap(Map.Entry::getKey, e -> e.getValue().stats()));
+	}
+
+	@Override
+	public void close() {
+		this.evictor.shutdownNow();
+		this.pools.values().forEach(EndpointPool::evict);
+	}
+
+	void evictIdlePools() {
+		long now = System.nanoTime();
+		this.pools.values().forEach(pool -> pool.evictIfIdle(now));
+	}
+
+	private static String key(URI uri) {
+		return uri.getScheme() + "://" + S3Request.host(uri);
+	}
+
+	private final class EndpointPool {
+
+		private final Semaphore permits = new Semaphore(maxConnectionsPerEndpoint, true);
+
+		private HttpClient httpClient;
+
+		private JdkClientHttpRequestFactory requestFactory;
+
+		private int inFlight;
+
+		private int openConnections;
+
+		private long lastUsed = System.nanoTime();
+
+		private long requests;
+
+		private long newConnections;
+
+		private long evictions;
+
+		private long totalWaitNanos;
+
+		private long maxWaitNanos;
+
+		/**
+		 * Waits for a connection permit and returns the request factory of the current
+		 * client. The client is resolved under the same lock that counts the request as
+		 * in flight, so it cannot be evicted before the request is executed.
+		 */
+		JdkClientHttpRequestFactory acquire() throws IOException {
+			long start = System.nanoTime();
+			try {
+				if (!this.permits.tryAcquire(acquireTimeoutNanos, TimeUnit.NANOSECONDS)) {
+					throw new HttpTimeoutException("Timed out waiting for a connection");
+				}
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting for a connection", e);
+			}
+			long waited = System.nanoTime() - start;
+			synchronized (this) {
+				this.requests++;
+				this.totalWaitNanos += waited;
+				this.maxWaitNanos = Math.max(this.maxWaitNanos, waited);
+				this.inFlight++;
+				if (this.inFlight > this.openConnections) {
+					// all kept-alive connections are busy
+					this.openConnections = this.inFlight;
+					this.newConnections++;
+				}
+				if (this.requestFactory == null) {
+					this.httpClient = HttpClient.newBuilder()
+						.version(HttpClient.Version.HTTP_1_1)
+						.connectTimeout(connectTimeout)
+						.build();
+					this.requestFactory = new JdkClientHttpRequestFactory(this.httpClient);
+					this.requestFactory.setReadTimeout(readTimeout);
+				}
+				return this.requestFactory;
+			}
+		}
+
+		void release() {
+			synchronized (this) {
+				this.inFlight--;
+				this.lastUsed = System.nanoTime();
+			}
+			this.permits.release();
+		}
+
+		synchronized void evictIfIdle(long now) {
+			if (this.inFlight == 0 && this.httpClient != null && now - this.lastUsed >= idleTimeoutNanos) {
+				this.evict();
+			}
+		}
+
+		synchronized void evict() {
+			if (this.httpClient == null) {
+				return;
+			}
+			// HttpClient is AutoCloseable as of JDK 21. Before that its connections stay
+			// open until they exceed the keep-alive timeout of the client or the server,
+			// or the client is garbage collected
+			if (this.httpClient instanceof AutoCloseable closeable) {
+				try {
+					closeable.close();
+				}
+				catch (Exception e) {
+					// ignore
+				}
+			}
+			this.httpClient = null;
+			this.requestFactory = null;
+			this.openConnections = 0;
+			this.evictions++;
+		}
+
+		synchronized TransportStats stats() {
+			return new TransportStats(maxConnectionsPerEndpoint, this.inFlight, this.openConnections, this.requests,
+					this.newConnections, this.evictions, this.totalWaitNanos, this.maxWaitNanos);
+		}
+
+	}
+
+	/**
+	 * Buffers the headers and the body until {@link #execute()}, which creates the
+	 * request on the client of the pool and holds a connection permit until the response
+	 * is closed.
+	 */
+	private static final class PooledRequest implements ClientHttpRequest, StreamingHttpOutputMessage {
+
+		private final EndpointPool pool;
+
+		private final URI uri;
+
+		private final HttpMethod method;
+
+		private final HttpHeaders headers = new HttpHeaders();
+
+		private Body body;
+
+		private ByteArrayOutputStream bufferedBody;
+
+		PooledRequest(EndpointPool pool, URI uri, HttpMethod method) {
+			this.pool = pool;
+			this.uri = uri;
+			this.method = method;
+		}
+
+		@Override
+		public ClientHttpResponse execute() throws IOException {
+			JdkClientHttpRequestFactory requestFactory = this.pool.acquire();
+			try {
+				ClientHttpRequest delegate = requestFactory.createRequest(this.uri, this.method);
+				delegate.getHeaders().putAll(this.headers);
+				if (this.bufferedBody != null) {
+					byte[] bytes = this.bufferedBody.toByteArray();
+					this.body = out -> out.write(bytes);
+				}
+				if (this.body != null) {
+					writeBody(delegate, this.body);
+				}
+				return new PooledResponse(this.pool, delegate.execute());
+			}
+			catch (IOException | RuntimeException e) {
+				this.pool.release();
+				throw e;
+			}
+		}
+
+		private static void writeBody(ClientHttpRequest delegate, Body body) throws IOException {
+			if (delegate instanceof StreamingHttpOutputMessage streaming) {
+				streaming.setBody(body);
+			}
+			else {
+				try (OutputStream out = delegate.getBody()) {
+					body.writeTo(out);
+				}
+			}
+		}
+
+		@Override
+		public void setBody(Body body) {
+			this.body = body;
+		}
+
+		@Override
+		public OutputStream getBody() {
+			if (this.bufferedBody == null) {
+				this.bufferedBody = new ByteArrayOutputStream();
+			}
+			return this.bufferedBody;
+		}
+
+		@Override
+		public HttpMethod getMethod() {
+			return this.method;
+		}
+
+		@Override
+		public URI getURI() {
+			return this.uri;
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return this.headers;
+		}
+
+	}
+
+	private static final class PooledResponse implements ClientHttpResponse {
+
+		private final EndpointPool pool;
+
+		private final ClientHttpResponse delegate;
+
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		PooledResponse(EndpointPool pool, ClientHttpResponse delegate) {
+			this.pool = pool;
+			this.delegate = delegate;
+		}
+
+		@Override
+		public HttpStatusCode getStatusCode() throws IOException {
+			return this.delegate.getStatusCode();
+		}
+
+		@Override
+		public String getStatusText() throws IOException {
+			return this.delegate.getStatusText();
+		}
+
+		@Override
+		public InputStream getBody() throws IOException {
+			return this.delegate.getBody();
+		}
+
+		@Override
+		public HttpHeaders getHeaders() {
+			return this.delegate.getHeaders();
+		}
+
+		@Override
+		public void close() {
+			try {
+				this.delegate.close();
+			}
+			finally {
+				if (this.closed.compareAndSet(false, true)) {
+					this.pool.release();
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * Reactive counterpart of the {@link org.springframework.web.client.RestClient} based API
+ * on top of {@link WebClient}. Bodies are streamed as {@code Flux<DataBuffer>} with
+ * backpressure instead of being copied into memory, so that a few event loop threads can
+ * serve many concurrent transfers. Requires {@code spring-webflux}, which is an optional
+ * dependency.
+ */
+public final class ReactiveS3Client {
+
+	private final WebClient webClient;
+
+	private final S3Config config;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public ReactiveS3Client(WebClient webClient, S3Config config) {
+		this.webClient = webClient;
+		this.config = config;
+	}
+
+	/**
+	 * Downloads the object. The body is emitted as it is received, the buffers have to be
+	 * released by the subscriber (e.g. with {@link DataBufferUtils#write}).
+	 */
+	public Flux<DataBuffer> getObject(String bucket, String key) {
+		return Flux.defer(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket).key(key)).build();
+			return this.webClient.get()
+				.uri(request.uri())
+				.headers(headers(request))
+				.retrieve()
+				.bodyToFlux(DataBuffer.class);
+		});
+	}
+
+	/**
+	 * Uploads the body with the {@code aws-chunked} content encoding, signing it chunk by
+	 * chunk while it is streamed. The body must emit exactly
+	 * {@link S3ChunkedContent#decodedContentLength()} bytes.
+	 */
+	public Mono<Void> putObject(String bucket, String key, Publisher<? extends DataBuffer> body,
+			S3ChunkedContent content) {
+		return Mono.defer(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.PUT, b -> b.bucket(bucket).key(key))
+				.chunkedContent(content)
+				.build();
+			return this.webClient.put()
+				.uri(request.uri())
+				.headers(headers(request))
+				.body(encodeChunked(request, body, DefaultDataBufferFactory.sharedInstance), DataBuffer.class)
+				.retrieve()
+				.toBodilessEntity()
+				.then();
+		});
+	}
+
+	/**
+	 * Uploads the content with a signed payload. Signing reads the whole content to
+	 * compute its SHA-256, which blocks for a file or a stream, so it runs on
+	 * {@link Schedulers#boundedElastic()} instead of the subscribing thread, which is
+	 * typically an event loop. Use
+	 * {@link #putObject(String, String, Publisher, S3ChunkedContent)} to sign the body
+	 * while it is streamed instead.
+	 */
+	public Mono<Void> putObject(String bucket, String key, S3Content content) {
+		return Mono.fromCallable(
+				() -> this.config.s3Request(HttpMethod.PUT, b -> b.bucket(bucket).key(key)).content(content).build())
+			.subscribeOn(Schedulers.boundedElastic())
+			.flatMap(request -> this.webClient.put()
+				.uri(request.uri())
+				.headers(headers(request))
+				.bodyValue(content.toResource())
+				.retrieve()
+				.toBodilessEntity()
+				.then());
+	}
+
+	public Mono<Void> deleteObject(String bucket, String key) {
+		return Mono.defer(() -> {
+			S3Request request = this.config.s3Request(HttpMethod.DELETE, b -> b.bucket(bucket).key(key)).build();
+			return this.webClient.delete()
+				.uri(request.uri())
+				.headers(headers(request))
+				.retrieve()
+				.toBodilessEntity()
+				.then();
+		});
+	}
+
+	/**
+	 * Returns the headers of the request without {@code Host}, which some connectors
+	 * (e.g. the JDK {@code HttpClient}) reject. The connectors derive the same value from
+	 * the URI.
+	 */
+	public static Consumer<HttpHeaders> headers(S3Request request) {
+		return request.headers().andThen(headers -> headers.remove(HttpHeaders.HOST));
+	}
+
+	/**
+	 * Encodes the body with the {@code aws-chunked} content encoding of the request,
+	 * which must have been built with {@link S3ChunkedContent}. Each input buffer is
+	 * released once it has been copied into the current chunk, and an encoded buffer is
+	 * emitted whenever a chunk is complete.
+	 */
+	public static Flux<DataBuffer> encodeChunked(S3Request request, Publisher<? extends DataBuffer> body,
+			DataBufferFactory bufferFactory) {
+		return Flux.defer(() -> {
+			DataBufferOutputStream sink = new DataBufferOutputStream(bufferFactory);
+			AwsChunkedOutputStream out = request.chunkedOutputStream(sink);
+			byte[] buffer = new byte[8 * 1024];
+			return Flux.<DataBuffer>from(body).concatMapIterable(dataBuffer -> {
+				try {
+					while (dataBuffer.readableByteCount() > 0) {
+						int n = Math.min(buffer.length, dataBuffer.readableByteCount());
+						dataBuffer.read(buffer, 0, n);
+						out.write(buffer, 0, n);
+					}
+					return sink.drain();
+				}
+				catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				finally {
+					DataBufferUtils.release(dataBuffer);
+				}
+			}, 1).concatWith(Mono.fromCallable(() -> {
+				out.close();
+				return sink.drain();
+			}).flatMapIterable(Function.identity())).doFinally(signal -> sink.release());
+		});
+	}
+
+	/**
+	 * Collects the bytes written by {@link AwsChunkedOutputStream} into a data buffer
+	 * that is handed over by {@link #drain()}.
+	 */
+	private static final class DataBufferOutputStream extends OutputStream {
+
+		private final DataBufferFactory bufferFactory;
+
+		private DataBuffer current;
+
+		DataBufferOutputStream(DataBufferFactory bufferFactory) {
+			this.bufferFactory = bufferFactory;
+		}
+
+		@Override
+		public void write(int b) {
+			this.buffer(1).write((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			this.buffer(len).write(b, off, len);
+		}
+
+		private DataBuffer buffer(int length) {
+			if (this.current == null) {
+				this.current = this.bufferFactory.allocateBuffer(Math.max(length, S3ChunkedContent.DEFAULT_CHUNK_SIZE));
+			}
+			return this.current;
+		}
+
+		List<DataBuffer> drain() {
+			DataBuffer buffer = this.current;
+			this.current = null;
+			return buffer == null ? List.of() : List.of(buffer);
+		}
+
+		void release() {
+			DataBufferUtils.release(this.current);
+			this.current = null;
+		}
+
+	}
+
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+/**
+ * Snapshot of the counters of an {@link AdaptiveRetry}.
+ *
+ * @param attempts the number of attempts, including retries
+ * @param retries the number of attempts that were retries
+ * @param throttled the number of throttling responses, e.g. 503 SlowDown
+ * @param exhausted the number of operations that failed after the last attempt
+ * @param rateLimited whether the client-side rate limiter is active
+ * @param fillRate the allowed send rate in requests per second
+ * @param measuredRate the measured send rate in requests per second
+ */
+public record RetryStats(long attempts, long retries, long throttled, long exhausted, boolean rateLimited,
+		double fillRate, double measuredRate) {
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import org.springframework.http.MediaType;
+
+/**
+ * Content that is uploaded with the {@code aws-chunked} content encoding and signed chunk
+ * by chunk ({@code STREAMING-AWS4-HMAC-SHA256-PAYLOAD}). Unlike {@link S3Content}, the
+ * body does not need to be in memory, only its length has to be known in advance.
+ *
+ * @see S3Request#chunkedOutputStream(java.io.OutputStream)
+ */
+public record S3ChunkedContent(long decodedContentLength, MediaType mediaType, int chunkSize) {
+
+	public static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * S3 requires every chunk but the last one to be at least 8 KiB.
+	 */
+	public static final int MIN_CHUNK_SIZE = 8 * 1024;
+
+	private static final int SIGNATURE_LENGTH = 64;
+
+	private static final int CHUNK_SIGNATURE_EXTENSION_LENGTH = ";chunk-signature=".length();
+
+	private static final int CRLF_LENGTH = 2;
+
+	public S3ChunkedContent {
+		if (decodedContentLength < 0) {
+			throw new IllegalArgumentException("'decodedContentLength' must not be negative");
+		}
+		if (chunkSize < MIN_CHUNK_SIZE) {
+			throw new IllegalArgumentException("'chunkSize' must be at least " + MIN_CHUNK_SIZE);
+		}
+	}
+
+	public static S3ChunkedContent of(long decodedContentLength, MediaType mediaType) {
+		return new S3ChunkedContent(decodedContentLength, mediaType, DEFAULT_CHUNK_SIZE);
+	}
+
+	public static S3ChunkedContent of(long decodedContentLength, MediaType mediaType, int chunkSize) {
+		return new S3ChunkedContent(decodedContentLength, mediaType, chunkSize);
+	}
+
+	/**
+	 * The length of the encoded body including the chunk metadata, i.e. the value of the
+	 * {@code Content-Length} header.
+	 */
+	public long encodedContentLength() {
+		long fullChunks = this.decodedContentLength / this.chunkSize;
+		long remaining = this.decodedContentLength % this.chunkSize;
+		long length = fullChunks * encodedChunkLength(this.chunkSize);
+		if (remaining > 0) {
+			length += encodedChunkLength(remaining);
+		}
+		return length + encodedChunkLength(0);
+	}
+
+	static long encodedChunkLength(long chunkSize) {
+		return Long.toHexString(chunkSize).length() + CHUNK_SIGNATURE_EXTENSION_LENGTH + SIGNATURE_LENGTH + CRLF_LENGTH
+				+ chunkSize + CRLF_LENGTH;
+	}
+
+}
@@ -16,6 +16,8 @@
 package am.ik.s3;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UncheckedIOException;
 import java.net.URI;
 
@@ -43,13 +45,29 @@ public class S3Client {
 
 	private final String secretAccessKey;
 
+	private final SigningKeyCache signingKeyCache;
+
+	private final S3MetricsListener metricsListener;
+
 	public S3Client(RestTemplate restTemplate, URI endpoint, String region, String accessKeyId,
 			String secretAccessKey) {
+		this(restTemplate, endpoint, region, accessKeyId, secretAccessKey, SigningKeyCache.shared());
+	}
+
+	public S3Client(RestTemplate restTemplate, URI endpoint, String region, String accessKeyId, String secretAccessKey,
+			SigningKeyCache signingKeyCache) {
+		this(restTemplate, endpoint, region, accessKeyId, secretAccessKey, signingKeyCache, S3MetricsListener.NOOP);
+	}
+
+	public S3Client(RestTemplate restTemplate, URI endpoint, String region, String accessKeyId, String secretAccessKey,
+			SigningKeyCache signingKeyCache, S3MetricsListener metricsListener) {
 		this.restTemplate = restTemplate;
 		this.endpoint = endpoint;
 		this.region = region;
 		this.accessKeyId = accessKeyId;
 		this.secretAccessKey = secretAccessKey;
+		this.signingKeyCache = signingKeyCache;
+		this.metricsListener = metricsListener;
 	}
 
 	public ListBucketsResult listBuckets() {
@@ -59,6 +77,8 @@ public class S3Client {
 			.secretAccessKey(this.secretAccessKey)
 			.method(HttpMethod.GET)
 			.path(b -> b)
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener)
 			.build()
 			.toEntityBuilder()
 			.build();
@@ -72,6 +92,8 @@ public class S3Client {
 			.secretAccessKey(this.secretAccessKey)
 			.method(HttpMethod.GET)
 			.path(b -> b.bucket(bucket))
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener)
 			.build()
 			.toEntityBuilder()
 			.build();
@@ -85,6 +107,8 @@ public class S3Client {
 			.secretAccessKey(this.secretAccessKey)
 			.method(HttpMethod.DELETE)
 			.path(b -> b.bucket(bucket))
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener)
 			.build()
 			.toEntityBuilder()
 			.build();
@@ -98,6 +122,8 @@ public class S3Client {
 			.secretAccessKey(this.secretAccessKey)
 			.method(HttpMethod.PUT)
 			.path(b -> b.bucket(bucket))
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener)
 			.build()
 			.toEntityBuilder()
 			.build();
@@ -112,6 +138,8 @@ public class S3Client {
 			.method(HttpMethod.PUT)
 			.path(b -> b.bucket(bucket).key(key))
 			.content(S3Content.of(content, mediaType))
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener)
 			.build()
 			.toEntityBuilder()
 			.body(content);
@@ -120,17 +148,23 @@ public class S3Client {
 
 	public void putObject(String bucket, String key, Resource resource, MediaType mediaType) {
 		try {
-			byte[] body = resource.getContentAsByteArray();
-			RequestEntity<byte[]> request = s3Request().endpoint(this.endpoint)
+			// the resource is hashed and sent without being loaded into the heap, unless
+			// it can only be read once (e.g. InputStreamResource)
+			S3Content content = resource.isFile() ? S3Content.of(resource.getFile().toPath(), mediaType)
+					: resource.isOpen() ? S3Content.of(resource.getContentAsByteArray(), mediaType)
+							: S3Content.of(resource, resource.contentLength(), mediaType);
+			RequestEntity<Resource> request = s3Request().endpoint(this.endpoint)
 				.region(this.region)
 				.accessKeyId(this.accessKeyId)
 				.secretAccessKey(this.secretAccessKey)
 				.method(HttpMethod.PUT)
 				.path(b -> b.bucket(bucket).key(key))
-				.content(S3Content.of(body, mediaType))
+				.content(content)
+				.signingKeyCache(this.signingKeyCache)
+				.metricsListener(this.metricsListener)
 				.build()
 				.toEntityBuilder()
-				.body(body);
+				.body(content.toResource());
 			this.restTemplate.exchange(request, Void.class);
 		}
 		catch (IOException e) {
@@ -145,12 +179,37 @@ public class S3Client {
 			.secretAccessKey(this.secretAccessKey)
 			.method(HttpMethod.GET)
 			.path(b -> b.bucket(bucket).key(key))
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener)
 			.build()
 			.toEntityBuilder()
 			.build();
 		return this.restTemplate.exchange(request, byte[].class).getBody();
 	}
 
+	/**
+	 * Writes the object to the given output stream without buffering the whole body.
+	 * @return the number of bytes written
+	 */
+	public long getObject(String bucket, String key, OutputStream out) {
+		S3Request request = s3Request().endpoint(this.endpoint)
+			.region(this.region)
+			.accessKeyId(this.accessKeyId)
+			.secretAccessKey(this.secretAccessKey)
+			.method(HttpMethod.GET)
+			.path(b -> b.bucket(bucket).key(key))
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener)
+			.build();
+		Long length = this.restTemplate.execute(request.uri(), HttpMethod.GET,
+				req -> request.headers().accept(req.getHeaders()), res -> {
+					try (InputStream in = res.getBody()) {
+						return in.transferTo(out);
+					}
+				});
+		return length == null ? 0 : length;
+	}
+
 	public void deleteObject(String bucket, String key) {
 		RequestEntity<Void> request = s3Request().endpoint(this.endpoint)
 			.region(this.region)
@@ -158,6 +217,8 @@ public class S3Client {
 			.secretAccessKey(this.secretAccessKey)
 			.method(HttpMethod.DELETE)
 			.path(b -> b.bucket(bucket).key(key))
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener)
 			.build()
 			.toEntityBuilder()
 			.build();
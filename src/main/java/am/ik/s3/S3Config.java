@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.net.URI;
+import java.time.Clock;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpMethod;
+
+/**
+ * The endpoint, region and credentials shared by the requests of a client, e.g.
+ * {@link MultipartUploader}.
+ */
+public final class S3Config {
+
+	private final URI endpoint;
+
+	private final String region;
+
+	private final String accessKeyId;
+
+	private final String secretAccessKey;
+
+	private final Clock clock;
+
+	private final SigningKeyCache signingKeyCache;
+
+	private final S3MetricsListener metricsListener;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public S3Config(URI endpoint, String region, String accessKeyId, String secretAccessKey, @Opt Clock clock,
+			@Opt SigningKeyCache signingKeyCache, @Opt S3MetricsListener metricsListener) {
+		this.endpoint = endpoint;
+		this.region = region;
+		this.accessKeyId = accessKeyId;
+		this.secretAccessKey = secretAccessKey;
+		this.clock = Objects.requireNonNullElseGet(clock, Clock::systemUTC);
+		this.signingKeyCache = Objects.requireNonNullElseGet(signingKeyCache, SigningKeyCache::shared);
+		this.metricsListener = Objects.requireNonNullElse(metricsListener, S3MetricsListener.NOOP);
+	}
+
+	/**
+	 * Returns a builder of a request to this endpoint.
+	 */
+	public S3RequestBuilders.Optionals s3Request(HttpMethod method, Function<S3PathBuilder, S3PathBuilder> path) {
+		return S3RequestBuilder.s3Request()
+			.endpoint(this.endpoint)
+			.region(this.region)
+			.accessKeyId(this.accessKeyId)
+			.secretAccessKey(this.secretAccessKey)
+			.method(method)
+			.path(path)
+			.clock(this.clock)
+			.signingKeyCache(this.signingKeyCache)
+			.metricsListener(this.metricsListener);
+	}
+
+	public URI endpoint() {
+		return this.endpoint;
+	}
+
+	public String region() {
+		return this.region;
+	}
+
+	public String accessKeyId() {
+		return this.accessKeyId;
+	}
+
+	public String secretAccessKey() {
+		return this.secretAccessKey;
+	}
+
+	public Clock clock() {
+		return this.clock;
+	}
+
+	public SigningKeyCache signingKeyCache() {
+		return this.signingKeyCache;
+	}
+
+	public S3MetricsListener metricsListener() {
+		return this.metricsListener;
+	}
+
+	@Override
+	public String toString() {
+		return "S3Config{" + "endpoint=" + endpoint + ", region='" + region + '\'' + ", accessKeyId='" + accessKeyId
+				+ '\'' + '}';
+	}
+
+}
@@ -15,11 +15,60 @@
  */
 package am.ik.s3;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Objects;
 
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.MediaType;
 
-public record S3Content(byte[] body, MediaType mediaType) {
+/**
+ * The body of a request. The body can be backed by a byte array, a file, a
+ * {@link ByteBuffer} or an {@link InputStreamSource} of known length. Except for the byte
+ * array variant, the body is never copied into the heap to calculate its length and
+ * SHA-256 hash.
+ * <p>
+ * Use {@link #writeTo(OutputStream)} as the body of a {@code RestClient} request or
+ * {@link #toResource()} as the body of a {@code RestTemplate} request.
+ */
+public final class S3Content {
+
+	/**
+	 * Files are hashed through memory-mapped windows of this size.
+	 */
+	private static final long MAPPED_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private static final int BUFFER_SIZE = 8 * 1024;
+
+	private final Body body;
+
+	private final MediaType mediaType;
+
+	public S3Content(byte[] body, MediaType mediaType) {
+		this(new ByteArrayBody(Objects.requireNonNull(body, "'body' must not be null")), mediaType);
+	}
+
+	private S3Content(Body body, MediaType mediaType) {
+		this.body = body;
+		this.mediaType = mediaType;
+	}
+
 	public static S3Content of(String body, MediaType mediaType) {
 		return new S3Content(body.getBytes(StandardCharsets.UTF_8), mediaType);
 	}
@@ -27,4 +76,296 @@ public record S3Content(byte[] body, MediaType mediaType) {
 	public static S3Content of(byte[] body, MediaType mediaType) {
 		return new S3Content(body, mediaType);
 	}
+
+	public static S3Content of(Path path, MediaType mediaType) {
+		try {
+			return new S3Content(new PathBody(path, Files.size(path)), mediaType);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * The content between the position and the limit of the given buffer. The buffer's
+	 * position is not modified.
+	 */
+	public static S3Content of(ByteBuffer buffer, MediaType mediaType) {
+		return new S3Content(new ByteBufferBody(buffer.slice()), mediaType);
+	}
+
+	/**
+	 * @param source must return a new stream with the same {@code contentLength} bytes on
+	 * every call, as the stream is read once for hashing and once for sending.
+	 */
+	public static S3Content of(InputStreamSource source, long contentLength, MediaType mediaType) {
+		if (contentLength < 0) {
+			throw new IllegalArgumentException("'contentLength' must not be negative");
+		}
+		return new S3Content(new InputStreamSourceBody(source, contentLength), mediaType);
+	}
+
+	/**
+	 * Returns the body if it is backed by a byte array.
+	 * @throws IllegalStateException if the content is not backed by a byte array
+	 */
+	public byte[] body() {
+		if (this.body instanceof ByteArrayBody byteArrayBody) {
+			return byteArrayBody.bytes();
+		}
+		throw new IllegalStateException(
+				"The content is not backed by a byte array. Use writeTo(OutputStream) instead.");
+	}
+
+	public MediaType mediaType() {
+		return this.mediaType;
+	}
+
+	public long contentLength() {
+		return this.body.length();
+	}
+
+	/**
+	 * Writes the body to the given stream. A method reference to this method can be
+	 * passed to {@code RestClient.RequestBodySpec#body(StreamingHttpOutputMessage.Body)}.
+	 */
+	public void writeTo(OutputStream out) throws IOException {
+		this.body.writeTo(out);
+	}
+
+	/**
+	 * Returns the body as a {@link Resource} that reports the known content length. It
+	 * can be used as the body of a {@code RestTemplate} request.
+	 */
+	public Resource toResource() {
+		return this.body.toResource();
+	}
+
+	void digest(MessageDigest digest) {
+		try {
+			this.body.digest(digest);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "S3Content{" + "body=" + body + ", mediaType=" + mediaType + '}';
+	}
+
+	private sealed interface Body permits ByteArrayBody, PathBody, ByteBufferBody, InputStreamSourceBody {
+
+		long length();
+
+		void digest(MessageDigest digest) throws IOException;
+
+		void writeTo(OutputStream out) throws IOException;
+
+		Resource toResource();
+
+	}
+
+	private record ByteArrayBody(byte[] bytes) implements Body {
+
+		@Override
+		public long length() {
+			return this.bytes.length;
+		}
+
+		@Override
+		public void digest(MessageDigest digest) {
+			digest.update(this.bytes);
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			out.write(this.bytes);
+		}
+
+		@Override
+		public Resource toResource() {
+			return new ByteArrayResource(this.bytes);
+		}
+
+		@Override
+		public String toString() {
+			return "byte[" + this.bytes.length + "]";
+		}
+
+	}
+
+	private record PathBody(Path path, long length) implements Body {
+
+		@Override
+		public void digest(MessageDigest digest) throws IOException {
+			try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+				this.checkLength(channel);
+				for (long position = 0; position < this.length; position += MAPPED_WINDOW_SIZE) {
+					long size = Math.min(MAPPED_WINDOW_SIZE, this.length - position);
+					MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+					digest.update(mapped);
+				}
+			}
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			try (FileChannel channel = FileChannel.open(this.path, StandardOpenOption.READ)) {
+				WritableByteChannel target = Channels.newChannel(out);
+				long position = 0;
+				while (position < this.length) {
+					long transferred = channel.transferTo(position, this.length - position, target);
+					if (transferred == 0 && position >= channel.size()) {
+						// transferTo keeps returning 0 at the end of the file
+						this.checkLength(channel);
+					}
+					position += transferred;
+				}
+			}
+		}
+
+		/**
+		 * Fails if the file is shorter than when the content was created.
+		 */
+		private void checkLength(FileChannel channel) throws IOException {
+			long size = channel.size();
+			if (size < this.length) {
+				throw new IOException(
+						"File %s shrank: expected %d bytes but was %d".formatted(this.path, this.length, size));
+			}
+		}
+
+		@Override
+		public Resource toResource() {
+			return new FileSystemResource(this.path);
+		}
+
+	}
+
+	private record ByteBufferBody(ByteBuffer buffer) implements Body {
+
+		@Override
+		public long length() {
+			return this.buffer.remaining();
+		}
+
+		@Override
+		public void digest(MessageDigest digest) {
+			digest.update(this.buffer.duplicate());
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			ByteBuffer source = this.buffer.duplicate();
+			if (source.hasArray()) {
+				out.write(source.array(), source.arrayOffset() + source.position(), source.remaining());
+				return;
+			}
+			WritableByteChannel target = Channels.newChannel(out);
+			while (source.hasRemaining()) {
+				target.write(source);
+			}
+		}
+
+		@Override
+		public Resource toResource() {
+			return new KnownLengthResource(this.length(), () -> new ByteBufferInputStream(this.buffer.duplicate()),
+					"ByteBuffer");
+		}
+
+	}
+
+	private record InputStreamSourceBody(InputStreamSource source, long length) implements Body {
+
+		@Override
+		public void digest(MessageDigest digest) throws IOException {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			try (InputStream in = this.source.getInputStream()) {
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, n);
+				}
+			}
+		}
+
+		@Override
+		public void writeTo(OutputStream out) throws IOException {
+			try (InputStream in = this.source.getInputStream()) {
+				in.transferTo(out);
+			}
+		}
+
+		@Override
+		public Resource toResource() {
+			return new KnownLengthResource(this.length, this.source, this.source.toString());
+		}
+
+	}
+
+	private static final class KnownLengthResource extends AbstractResource {
+
+		private final long contentLength;
+
+		private final InputStreamSource source;
+
+		private final String description;
+
+		KnownLengthResource(long contentLength, InputStreamSource source, String description) {
+			this.contentLength = contentLength;
+			this.source = source;
+			this.description = description;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			return this.source.getInputStream();
+		}
+
+		@Override
+		public long contentLength() {
+			return this.contentLength;
+		}
+
+		@Override
+		public String getDescription() {
+			return this.description;
+		}
+
+	}
+
+	private static final class ByteBufferInputStream extends InputStream {
+
+		private final ByteBuffer buffer;
+
+		ByteBufferInputStream(ByteBuffer buffer) {
+			this.buffer = buffer;
+		}
+
+		@Override
+		public int read() {
+			return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) {
+			if (len == 0) {
+				return 0;
+			}
+			if (!this.buffer.hasRemaining()) {
+				return -1;
+			}
+			int n = Math.min(len, this.buffer.remaining());
+			this.buffer.get(b, off, n);
+			return n;
+		}
+
+		@Override
+		public int available() {
+			return this.buffer.remaining();
+		}
+
+	}
+
 }
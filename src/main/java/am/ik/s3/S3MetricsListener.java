@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+/**
+ * Receives the metrics of requests. Signing is reported by {@link S3Request} when the
+ * listener is set on {@link S3Config} (or {@link S3Client}), exchanges are reported by
+ * {@link MeteredTransportFactory}. The methods are called on the thread executing the
+ * request and must not block.
+ */
+public interface S3MetricsListener {
+
+	/**
+	 * Ignores all metrics. Requests with this listener do not measure anything.
+	 */
+	S3MetricsListener NOOP = new S3MetricsListener() {
+	};
+
+	/**
+	 * Called when a request has been signed, including hashing the payload.
+	 * @param operation the operation
+	 * @param bucket the bucket, or an empty string for the service endpoint or if unknown
+	 * @param signingNanos the time to sign the request
+	 */
+	default void onSigned(S3Operation operation, String bucket, long signingNanos) {
+	}
+
+	/**
+	 * Called when the response has been closed.
+	 * @param operation the operation
+	 * @param bucket the bucket, or an empty string for the service endpoint or if unknown
+	 * @param statusCode the status code of the response
+	 * @param timeToFirstByteNanos the time from the start of the request, including
+	 * writing the request body, until the response headers were received
+	 * @param totalNanos the time from the start of the request until the response was
+	 * closed
+	 * @param bytesOut the number of bytes of the request body
+	 * @param bytesIn the number of bytes of the response body read
+	 */
+	default void onExchange(S3Operation operation, String bucket, int statusCode, long timeToFirstByteNanos,
+			long totalNanos, long bytesOut, long bytesIn) {
+	}
+
+	/**
+	 * Called when no response has been received, e.g. on a connect or read timeout.
+	 * @param operation the operation
+	 * @param bucket the bucket, or an empty string for the service endpoint or if unknown
+	 * @param totalNanos the time until the request failed
+	 * @param error the cause
+	 */
+	default void onFailure(S3Operation operation, String bucket, long totalNanos, Throwable error) {
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.net.URI;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpMethod;
+
+/**
+ * The kind of S3 operation of a request.
+ */
+public enum S3Operation {
+
+	GET, HEAD, PUT, LIST, DELETE, OTHER;
+
+	// e.g. bucket.s3.amazonaws.com, bucket.s3.us-east-1.amazonaws.com or
+	// bucket.s3-us-west-2.amazonaws.com
+	private static final Pattern VIRTUAL_HOSTED_HOST = Pattern
+		.compile("(.+)\\.s3(?:[.-][^.]+)?(?:\\.dualstack\\.[^.]+)?\\.amazonaws\\.com(?:\\.cn)?");
+
+	/**
+	 * @param method the HTTP method
+	 * @param objectRequest whether the request addresses an object (i.e. has a key)
+	 * rather than a bucket or the service
+	 * @param query the raw query string, may be {@code null}
+	 */
+	public static S3Operation of(HttpMethod method, boolean objectRequest, String query) {
+		if (HttpMethod.GET.equals(method)) {
+			return objectRequest ? GET : LIST;
+		}
+		if (HttpMethod.PUT.equals(method)) {
+			return PUT;
+		}
+		if (HttpMethod.DELETE.equals(method)) {
+			return DELETE;
+		}
+		if (HttpMethod.HEAD.equals(method)) {
+			return HEAD;
+		}
+		if (HttpMethod.POST.equals(method) && hasParameter(query, "delete")) {
+			// DeleteObjects
+			return DELETE;
+		}
+		return OTHER;
+	}
+
+	/**
+	 * Derives the operation from the request URI. The bucket is taken from the host for
+	 * virtual-hosted-style Amazon S3 endpoints, and from the first path segment
+	 * otherwise.
+	 */
+	public static S3Operation of(HttpMethod method, URI uri) {
+		String path = uri.getRawPath();
+		boolean objectRequest = virtualHostedBucket(uri.getHost()) != null ? path != null && path.length() > 1
+				: hasKey(path);
+		return of(method, objectRequest, uri.getRawQuery());
+	}
+
+	/**
+	 * Returns the bucket of the request URI (see {@link #of(HttpMethod, URI)}), or an
+	 * empty string for the service endpoint, e.g. {@code ListBuckets}.
+	 */
+	public static String bucket(URI uri) {
+		String bucket = virtualHostedBucket(uri.getHost());
+		return bucket != null ? bucket : pathStyleBucket(uri.getRawPath());
+	}
+
+	/**
+	 * Returns the bucket of a virtual-hosted-style Amazon S3 host, or {@code null}.
+	 */
+	static String virtualHostedBucket(String host) {
+		if (host == null) {
+			return null;
+		}
+		Matcher matcher = VIRTUAL_HOSTED_HOST.matcher(host);
+		return matcher.matches() ? matcher.group(1) : null;
+	}
+
+	private static String pathStyleBucket(String path) {
+		if (path == null || path.length() <= 1) {
+			return "";
+		}
+		int end = path.indexOf('/', 1);
+		return end < 0 ? path.substring(1) : path.substring(1, end);
+	}
+
+	private static boolean hasKey(String path) {
+		if (path == null) {
+			return false;
+		}
+		int end = path.indexOf('/', 1);
+		return end > 0 && end < path.length() - 1;
+	}
+
+	private static boolean hasParameter(String query, String name) {
+		if (query == null) {
+			return false;
+		}
+		int from = 0;
+		while (from <= query.length()) {
+			int end = query.indexOf('&', from);
+			if (end < 0) {
+				end = query.length();
+			}
+			if (query.startsWith(name, from)
+					&& (from + name.length() == end || query.charAt(from + name.length()) == '=')) {
+				return true;
+			}
+			from = end + 1;
+		}
+		return false;
+	}
+
+}
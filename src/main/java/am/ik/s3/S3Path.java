@@ -19,11 +19,28 @@ import java.util.Objects;
 
 import org.jilt.Builder;
 
-import org.springframework.web.util.UriComponentsBuilder;
-
 @Builder
 public final class S3Path {
 
+	// ASCII characters that are not escaped in the canonical URI, i.e. the unreserved
+	// characters of RFC 3986 and the path separator
+	private static final boolean[] UNESCAPED = new boolean[128];
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	static {
+		for (char c = 'A'; c <= 'Z'; c++) {
+			UNESCAPED[c] = true;
+			UNESCAPED[Character.toLowerCase(c)] = true;
+		}
+		for (char c = '0'; c <= '9'; c++) {
+			UNESCAPED[c] = true;
+		}
+		for (char c : "-._~/".toCharArray()) {
+			UNESCAPED[c] = true;
+		}
+	}
+
 	private final String bucket;
 
 	private final String key;
@@ -36,6 +53,14 @@ public final class S3Path {
 		this.encodeKey = Objects.requireNonNullElse(encodeKey, true);
 	}
 
+	String bucket() {
+		return this.bucket;
+	}
+
+	String key() {
+		return this.key;
+	}
+
 	public String toCanonicalUri() {
 		StringBuilder builder = new StringBuilder();
 		if (bucket == null || bucket.isEmpty()) {
@@ -48,7 +73,8 @@ public final class S3Path {
 			builder.append(bucket);
 		}
 		if (key != null && !key.isEmpty()) {
-			if (!key.startsWith("/")) {
+			// no bucket in the path with virtual-hosted-style endpoints
+			if (!key.startsWith("/") && builder.charAt(builder.length() - 1) != '/') {
 				builder.append("/");
 			}
 			if (encodeKey) {
@@ -61,29 +87,62 @@ public final class S3Path {
 		return builder.toString();
 	}
 
-	private static String encodeKey(String key) {
-		String encodedKey = UriComponentsBuilder.fromPath(key).encode().build().getPath();
-		if (encodedKey == null) {
-			return null;
+	/**
+	 * Encodes the key in a single pass. All bytes of the UTF-8 representation except the
+	 * unreserved characters and {@code '/'} are percent-encoded, and keys that need no
+	 * escaping are returned as is.
+	 */
+	static String encodeKey(String key) {
+		int length = key.length();
+		int i = 0;
+		while (i < length && isUnescaped(key.charAt(i))) {
+			i++;
 		}
-		return encodedKey.replace("!", "%21")
-			.replace("#", "%23")
-			.replace("$", "%24")
-			.replace("&", "%26")
-			.replace("'", "%27")
-			.replace("(", "%28")
-			.replace(")", "%29")
-			.replace("*", "%2A")
-			.replace("+", "%2B")
-			.replace(",", "%2C")
-			.replace(":", "%3A")
-			.replace(";", "%3B")
-			.replace("=", "%3D")
-			.replace("@", "%40")
-			.replace("[", "%5B")
-			.replace("]", "%5D")
-			.replace("{", "%7B")
-			.replace("}", "%7D");
+		if (i == length) {
+			return key;
+		}
+		StringBuilder sb = new StringBuilder(length + 32);
+		sb.append(key, 0, i);
+		for (; i < length; i++) {
+			char c = key.charAt(i);
+			if (c < 0x80) {
+				if (UNESCAPED[c]) {
+					sb.append(c);
+				}
+				else {
+					appendEscaped(sb, c);
+				}
+			}
+			else if (c < 0x800) {
+				appendEscaped(sb, 0xC0 | (c >> 6));
+				appendEscaped(sb, 0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(key.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, key.charAt(++i));
+				appendEscaped(sb, 0xF0 | (cp >> 18));
+				appendEscaped(sb, 0x80 | ((cp >> 12) & 0x3F));
+				appendEscaped(sb, 0x80 | ((cp >> 6) & 0x3F));
+				appendEscaped(sb, 0x80 | (cp & 0x3F));
+			}
+			else if (Character.isSurrogate(c)) {
+				// malformed input is replaced in the same way as String#getBytes
+				appendEscaped(sb, '?');
+			}
+			else {
+				appendEscaped(sb, 0xE0 | (c >> 12));
+				appendEscaped(sb, 0x80 | ((c >> 6) & 0x3F));
+				appendEscaped(sb, 0x80 | (c & 0x3F));
+			}
+		}
+		return sb.toString();
+	}
+
+	private static boolean isUnescaped(char c) {
+		return c < 0x80 && UNESCAPED[c];
+	}
+
+	private static void appendEscaped(StringBuilder sb, int b) {
+		sb.append('%').append(HEX_DIGITS[(b >> 4) & 0xF]).append(HEX_DIGITS[b & 0xF]);
 	}
 
 }
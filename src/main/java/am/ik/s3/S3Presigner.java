@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import static am.ik.s3.S3PathBuilder.s3Path;
+
+/**
+ * Generates presigned (query string authenticated) URLs that can be handed to clients
+ * without exposing the credentials.
+ * https://docs.aws.amazon.com/AmazonS3/latest/API/sigv4-query-string-auth.html
+ * <p>
+ * The bulk variants derive the date, the credential scope and the signing key once per
+ * call, so that presigning a listing page costs one canonical request hash and one HMAC
+ * per key.
+ */
+public final class S3Presigner {
+
+	public static final Duration DEFAULT_EXPIRES_IN = Duration.ofMinutes(15);
+
+	public static final Duration MAX_EXPIRES_IN = Duration.ofDays(7);
+
+	private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+
+	private static final String SIGNED_HEADERS = "host";
+
+	private final S3Config config;
+
+	private final Duration expiresIn;
+
+	private final String origin;
+
+	private final String host;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public S3Presigner(S3Config config, @Opt Duration expiresIn) {
+		this.config = config;
+		this.expiresIn = validate(Objects.requireNonNullElse(expiresIn, DEFAULT_EXPIRES_IN));
+		URI endpoint = config.endpoint();
+		this.origin = endpoint.getScheme() + "://" + endpoint.getRawAuthority();
+		this.host = S3Request.host(endpoint);
+	}
+
+	public URI presign(HttpMethod method, Function<S3PathBuilder, S3PathBuilder> path) {
+		return this.presign(method, path, Map.of(), this.expiresIn);
+	}
+
+	/**
+	 * @param queryParameters additional parameters to sign, e.g.
+	 * {@code response-content-disposition} or {@code versionId}
+	 */
+	public URI presign(HttpMethod method, Function<S3PathBuilder, S3PathBuilder> path,
+			Map<String, String> queryParameters, Duration expiresIn) {
+		Signing signing = this.signing(validate(expiresIn));
+		String canonicalUri = path.apply(s3Path()).build().toCanonicalUri();
+		CanonicalQueryString query = CanonicalQueryString.builder()
+			.param("X-Amz-Algorithm", S3Request.AWS4_HMAC_SHA256)
+			.param("X-Amz-Credential", this.config.accessKeyId() + "/" + signing.credentialScope())
+			.param("X-Amz-Date", signing.amzDate().date())
+			.param("X-Amz-Expires", expiresIn.toSeconds())
+			.param("X-Amz-SignedHeaders", SIGNED_HEADERS);
+		queryParameters.forEach(query::param);
+		return this.sign(method, canonicalUri, query.build(), signing);
+	}
+
+	/**
+	 * Presigns GetObject URLs for the given keys.
+	 * @return the URLs in the order of the keys
+	 */
+	public List<URI> presignGetObjects(String bucket, Collection<String> keys) {
+		return this.presign(HttpMethod.GET, bucket, keys, this.expiresIn);
+	}
+
+	/**
+	 * Presigns URLs for the given keys with the same date and expiry.
+	 * @return the URLs in the order of the keys
+	 */
+	public List<URI> presign(HttpMethod method, String bucket, Collection<String> keys, Duration expiresIn) {
+		Signing signing = this.signing(validate(expiresIn));
+		// the X-Amz-* parameters are already in canonical order
+		String canonicalQueryString = "X-Amz-Algorithm=" + S3Request.AWS4_HMAC_SHA256 + "&X-Amz-Credential="
+				+ CanonicalQueryString.encode(this.config.accessKeyId() + "/" + signing.credentialScope())
+				+ "&X-Amz-Date=" + signing.amzDate().date() + "&X-Amz-Expires=" + expiresIn.toSeconds()
+				+ "&X-Amz-SignedHeaders=" + SIGNED_HEADERS;
+		List<URI> uris = new ArrayList<>(keys.size());
+		for (String key : keys) {
+			String canonicalUri = s3Path().bucket(bucket).key(key).build().toCanonicalUri();
+			uris.add(this.sign(method, canonicalUri, canonicalQueryString, signing));
+		}
+		return uris;
+	}
+
+	private Signing signing(Duration expiresIn) {
+		AmzDate amzDate = AmzDate.now(this.config.clock());
+		String credentialScope = amzDate.credentialScope(this.config.region());
+		byte[] signingKey = this.config.signingKeyCache()
+			.signingKey(this.config.accessKeyId(), this.config.secretAccessKey(), amzDate.yymmdd(),
+					this.config.region(), "s3", () -> S3Request.signingKey(this.config.secretAccessKey(),
+							amzDate.yymmdd(), this.config.region(), "s3"));
+		return new Signing(amzDate, credentialScope, signingKey);
+	}
+
+	private URI sign(HttpMethod method, String canonicalUri, String canonicalQueryString, Signing signing) {
+		Sigv4Signer signer = Sigv4Signer.current();
+		Sigv4Signer.Headers headers = signer.headers().add(HttpHeaders.HOST, this.host);
+		String signature = signer.signature(method.name(), canonicalUri, canonicalQueryString, headers,
+				UNSIGNED_PAYLOAD, signing.amzDate(), signing.credentialScope(), signing.signingKey());
+		return URI.create(this.origin + canonicalUri + "?" + canonicalQueryString + "&X-Amz-Signature=" + signature);
+	}
+
+	private static Duration validate(Duration expiresIn) {
+		if (expiresIn.toSeconds() < 1 || expiresIn.compareTo(MAX_EXPIRES_IN) > 0) {
+			throw new IllegalArgumentException("'expiresIn' must be between 1 second and 7 days");
+		}
+		return expiresIn;
+	}
+
+	private record Signing(AmzDate amzDate, String credentialScope, byte[] signingKey) {
+	}
+
+}
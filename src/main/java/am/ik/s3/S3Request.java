@@ -15,21 +15,14 @@
  */
 package am.ik.s3;
 
+import java.io.OutputStream;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
-import java.security.InvalidKeyException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.time.Clock;
-import java.util.HexFormat;
+import java.util.Map;
 import java.util.Objects;
-import java.util.TreeMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 import org.jilt.Builder;
 import org.jilt.BuilderStyle;
@@ -58,50 +51,98 @@ public final class S3Request {
 
 	private final S3Content content;
 
+	private final S3ChunkedContent chunkedContent;
+
+	private final Map<String, String> additionalHeaders;
+
 	private final Clock clock;
 
+	private final SigningKeyCache signingKeyCache;
+
+	private final S3MetricsListener metricsListener;
+
 	public static final String AWS4_HMAC_SHA256 = "AWS4-HMAC-SHA256";
 
 	private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
 
+	private static final String STREAMING_AWS4_HMAC_SHA256_PAYLOAD = "STREAMING-AWS4-HMAC-SHA256-PAYLOAD";
+
+	private static final String AWS_CHUNKED = "aws-chunked";
+
 	private URI uri;
 
 	private HttpHeaders httpHeaders;
 
+	private AmzDate amzDate;
+
+	private String credentialScope;
+
+	private byte[] signingKey;
+
+	private String signature;
+
 	@Builder(style = BuilderStyle.STAGED)
 	public S3Request(URI endpoint, String region, String accessKeyId, String secretAccessKey, HttpMethod method,
 			Function<S3PathBuilder, S3PathBuilder> path, @Opt String canonicalQueryString, @Opt S3Content content,
-			@Opt Clock clock) {
+			@Opt S3ChunkedContent chunkedContent, @Opt Map<String, String> additionalHeaders, @Opt Clock clock,
+			@Opt SigningKeyCache signingKeyCache, @Opt S3MetricsListener metricsListener) {
 		this.endpoint = endpoint;
 		this.region = region;
 		this.accessKeyId = accessKeyId;
 		this.secretAccessKey = secretAccessKey;
 		this.method = method;
-		this.canonicalUri = path == null ? "/" : path.apply(new S3PathBuilder()).build().toCanonicalUri();
+		S3Path s3Path = path == null ? null : path.apply(new S3PathBuilder()).build();
+		this.canonicalUri = s3Path == null ? "/" : s3Path.toCanonicalUri();
 		this.canonicalQueryString = Objects.requireNonNullElse(canonicalQueryString, "");
+		if (content != null && chunkedContent != null) {
+			throw new IllegalArgumentException("Only one of 'content' and 'chunkedContent' can be specified");
+		}
 		this.content = content;
+		this.chunkedContent = chunkedContent;
+		this.additionalHeaders = Objects.requireNonNullElseGet(additionalHeaders, Map::of);
 		this.clock = Objects.requireNonNullElseGet(clock, Clock::systemUTC);
-		this.init();
+		this.signingKeyCache = Objects.requireNonNullElseGet(signingKeyCache, SigningKeyCache::shared);
+		this.metricsListener = Objects.requireNonNullElse(metricsListener, S3MetricsListener.NOOP);
+		if (this.metricsListener == S3MetricsListener.NOOP) {
+			this.init();
+		}
+		else {
+			long start = System.nanoTime();
+			this.init();
+			this.metricsListener.onSigned(
+					S3Operation.of(method, s3Path != null && hasText(s3Path.key()), this.canonicalQueryString),
+					bucket(s3Path, endpoint), System.nanoTime() - start);
+		}
 	}
 
 	private void init() {
-		AmzDate amzDate = new AmzDate(this.clock.instant());
-		String contentSha256 = content == null ? UNSIGNED_PAYLOAD : encodeHex(sha256Hash(content.body()));
-		TreeMap<String, String> headers = new TreeMap<>();
-		StringBuilder host = new StringBuilder(this.endpoint.getHost());
-		if (this.endpoint.getPort() != -1) {
-			host.append(":").append(this.endpoint.getPort());
-		}
-		headers.put(HttpHeaders.HOST, host.toString());
-		headers.put(AmzHttpHeaders.X_AMZ_CONTENT_SHA256, contentSha256);
-		headers.put(AmzHttpHeaders.X_AMZ_DATE, amzDate.date());
-		if (content != null && content.body() != null) {
-			headers.put(HttpHeaders.CONTENT_LENGTH, String.valueOf(content.body().length));
+		AmzDate amzDate = AmzDate.now(this.clock);
+		Sigv4Signer signer = Sigv4Signer.current();
+		String contentSha256 = content != null ? signer.sha256Hex(content)
+				: chunkedContent != null ? STREAMING_AWS4_HMAC_SHA256_PAYLOAD : UNSIGNED_PAYLOAD;
+		// must appear in alphabetical order
+		Sigv4Signer.Headers headers = signer.headers();
+		headers.add(HttpHeaders.HOST, host(this.endpoint));
+		headers.add(AmzHttpHeaders.X_AMZ_CONTENT_SHA256, contentSha256);
+		headers.add(AmzHttpHeaders.X_AMZ_DATE, amzDate.date());
+		if (content != null) {
+			headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(content.contentLength()));
 		}
 		if (content != null && content.mediaType() != null) {
-			headers.put(HttpHeaders.CONTENT_TYPE, content.mediaType().toString());
+			headers.add(HttpHeaders.CONTENT_TYPE, content.mediaType().toString());
 		}
-		String authorization = this.authorization(headers, contentSha256, amzDate);
+		if (chunkedContent != null) {
+			headers.add(HttpHeaders.CONTENT_ENCODING, AWS_CHUNKED);
+			headers.add(HttpHeaders.CONTENT_LENGTH, String.valueOf(chunkedContent.encodedContentLength()));
+			headers.add(AmzHttpHeaders.X_AMZ_DECODED_CONTENT_LENGTH,
+					String.valueOf(chunkedContent.decodedContentLength()));
+			if (chunkedContent.mediaType() != null) {
+				headers.add(HttpHeaders.CONTENT_TYPE, chunkedContent.mediaType().toString());
+			}
+		}
+		// e.g. Range or If-None-Match
+		this.additionalHeaders.forEach(headers::add);
+		String authorization = this.authorization(signer, headers, contentSha256, amzDate);
 		this.httpHeaders = new HttpHeaders();
 		headers.forEach(this.httpHeaders::add);
 		this.httpHeaders.add(HttpHeaders.AUTHORIZATION, authorization);
@@ -124,75 +165,62 @@ public final class S3Request {
 		return RequestEntity.method(this.method, this.uri).headers(this.httpHeaders);
 	}
 
-	private String authorization(
-			TreeMap<String, String> headers /* must appear in alphabetical order */, String payloadHash,
-			AmzDate amzDate) {
-		// Step 1: Create a canonical request
-		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#create-canonical-request
-		String canonicalHeaders = headers.entrySet()
-			.stream()
-			.map(e -> "%s:%s".formatted(e.getKey().toLowerCase(), e.getValue()))
-			.collect(Collectors.joining("\n")) + "\n";
-		String signedHeaders = headers.keySet().stream().map(String::toLowerCase).collect(Collectors.joining(";"));
-		String canonicalRequest = String.join("\n", method.name(), canonicalUri, canonicalQueryString, canonicalHeaders,
-				signedHeaders, payloadHash);
-		// Step 2: Create a hash of the canonical request
-		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#create-canonical-request-hash
-		String hashedCanonicalRequest = encodeHex(sha256Hash(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
-		// Step 3: Create a string to sign
-		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#create-string-to-sign
-		String credentialScope = "%s/%s/s3/aws4_request".formatted(amzDate.yymmdd(), this.region);
-		String stringToSign = String.join("\n", AWS4_HMAC_SHA256, amzDate.date(), credentialScope,
-				hashedCanonicalRequest);
-		// Step 4: Calculate the signature
-		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#calculate-signature
-		String signature = this.sign(stringToSign, amzDate);
-		// Step 5: Add the signature to the request
-		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#add-signature-to-request
-		String credential = "%s/%s".formatted(this.accessKeyId, credentialScope);
-		return "%s Credential=%s,SignedHeaders=%s,Signature=%s".formatted(AWS4_HMAC_SHA256, credential, signedHeaders,
-				signature);
+	/**
+	 * Wraps the given request body stream so that the bytes written to it are sent as
+	 * signed {@code aws-chunked} chunks. Only available if the request was built with
+	 * {@link S3ChunkedContent}.
+	 */
+	public AwsChunkedOutputStream chunkedOutputStream(OutputStream out) {
+		if (this.chunkedContent == null) {
+			throw new IllegalStateException("'chunkedContent' is not specified");
+		}
+		return new AwsChunkedOutputStream(out, this.chunkedContent, this.amzDate, this.credentialScope, this.signingKey,
+				this.signature);
 	}
 
-	private String sign(String stringToSign, AmzDate amzDate) {
-		byte[] kSecret = ("AWS4" + this.secretAccessKey).getBytes(StandardCharsets.UTF_8);
-		byte[] kDate = hmacSHA256(amzDate.yymmdd(), kSecret);
-		byte[] kRegion = hmacSHA256(this.region, kDate);
-		byte[] kService = hmacSHA256("s3", kRegion);
-		byte[] kSigning = hmacSHA256("aws4_request", kService);
-		return encodeHex(hmacSHA256(stringToSign, kSigning));
+	private String authorization(Sigv4Signer signer, Sigv4Signer.Headers headers, String payloadHash, AmzDate amzDate) {
+		String credentialScope = amzDate.credentialScope(this.region);
+		byte[] signingKey = this.signingKeyCache.signingKey(this.accessKeyId, this.secretAccessKey, amzDate.yymmdd(),
+				this.region, "s3", () -> signingKey(this.secretAccessKey, amzDate.yymmdd(), this.region, "s3"));
+		String authorization = signer.authorization(this.method.name(), this.canonicalUri, this.canonicalQueryString,
+				headers, payloadHash, amzDate, credentialScope, this.accessKeyId, signingKey);
+		if (this.chunkedContent != null) {
+			// kept to sign the chunks
+			this.amzDate = amzDate;
+			this.credentialScope = credentialScope;
+			this.signingKey = signingKey;
+			this.signature = authorization.substring(authorization.lastIndexOf('=') + 1);
+		}
+		return authorization;
 	}
 
-	private static byte[] sha256Hash(byte[] data) {
-		try {
-			MessageDigest md = MessageDigest.getInstance("SHA-256");
-			return md.digest(data);
-		}
-		catch (NoSuchAlgorithmException e) {
-			// should not happen
-			throw new IllegalStateException(e);
+	/**
+	 * The bucket of the path, or of the endpoint with virtual-hosted-style endpoints.
+	 * Empty if unknown.
+	 */
+	private static String bucket(S3Path s3Path, URI endpoint) {
+		String bucket = s3Path == null ? null : s3Path.bucket();
+		if (hasText(bucket)) {
+			return bucket.startsWith("/") ? bucket.substring(1) : bucket;
 		}
+		return Objects.requireNonNullElse(S3Operation.virtualHostedBucket(endpoint.getHost()), "");
 	}
 
-	private static byte[] hmacSHA256(String data, byte[] key) {
-		try {
-			Mac mac = Mac.getInstance("HmacSHA256");
-			mac.init(new SecretKeySpec(key, "HmacSHA256"));
-			return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
-		}
-		catch (NoSuchAlgorithmException | InvalidKeyException e) {
-			// should not happen
-			throw new IllegalStateException(e);
-		}
+	private static boolean hasText(String s) {
+		return s != null && !s.isEmpty();
 	}
 
-	private static String encodeHex(byte[] data) {
-		HexFormat hex = HexFormat.of();
-		StringBuilder sb = new StringBuilder();
-		for (byte datum : data) {
-			sb.append(hex.toHexDigits(datum));
-		}
-		return sb.toString();
+	static String host(URI endpoint) {
+		return endpoint.getPort() == -1 ? endpoint.getHost() : endpoint.getHost() + ":" + endpoint.getPort();
+	}
+
+	static byte[] signingKey(String secretAccessKey, String yymmdd, String region, String service) {
+		Sigv4Signer signer = Sigv4Signer.current();
+		byte[] kSecret = ("AWS4" + secretAccessKey).getBytes(StandardCharsets.UTF_8);
+		byte[] kDate = signer.hmacSha256(kSecret, yymmdd);
+		byte[] kRegion = signer.hmacSha256(kDate, region);
+		byte[] kService = signer.hmacSha256(kRegion, service);
+		return signer.hmacSha256(kService, "aws4_request");
 	}
 
 	@Override
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.IOException;
+
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.DefaultResponseErrorHandler;
+
+final class S3Responses {
+
+	private static final DefaultResponseErrorHandler ERROR_HANDLER = new DefaultResponseErrorHandler();
+
+	private S3Responses() {
+	}
+
+	/**
+	 * Throws the exception that {@code retrieve()} would throw for an error status, for
+	 * responses handled in an {@code exchange} callback.
+	 */
+	static void checkStatus(ClientHttpResponse response) throws IOException {
+		if (ERROR_HANDLER.hasError(response)) {
+			ERROR_HANDLER.handleError(response);
+		}
+	}
+
+}
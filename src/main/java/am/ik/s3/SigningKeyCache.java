@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Bounded, thread-safe cache of derived SigV4 signing keys. A signing key only depends on
+ * the secret access key, the date (UTC), the region and the service, so it can be reused
+ * for every request signed on the same day. Entries for previous days are dropped as soon
+ * as a key for a newer day is stored.
+ */
+public final class SigningKeyCache {
+
+	public static final int DEFAULT_MAX_SIZE = 256;
+
+	private static final SigningKeyCache SHARED = new SigningKeyCache(DEFAULT_MAX_SIZE);
+
+	private final int maxSize;
+
+	private final ConcurrentHashMap<CacheKey, CacheEntry> entries = new ConcurrentHashMap<>();
+
+	private volatile String latestDate = "";
+
+	/**
+	 * @param maxSize maximum number of signing keys to keep. {@code 0} disables caching.
+	 */
+	public SigningKeyCache(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("'maxSize' must not be negative");
+		}
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The cache used by {@link S3Request} and {@link S3Client} unless another one is
+	 * specified.
+	 */
+	public static SigningKeyCache shared() {
+		return SHARED;
+	}
+
+	/**
+	 * A cache that never stores anything and derives the signing key on every request.
+	 */
+	public static SigningKeyCache disabled() {
+		return new SigningKeyCache(0);
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	public void clear() {
+		this.entries.clear();
+	}
+
+	byte[] signingKey(String accessKeyId, String secretAccessKey, String yymmdd, String region, String service,
+			Supplier<byte[]> signingKeySupplier) {
+		if (this.maxSize == 0) {
+			return signingKeySupplier.get();
+		}
+		CacheKey key = new CacheKey(accessKeyId, yymmdd, region, service);
+		CacheEntry entry = this.entries.get(key);
+		// the secret is compared as well so that a rotated secret is never signed with a
+		// stale key
+		if (entry != null && entry.secretAccessKey().equals(secretAccessKey)) {
+			return entry.signingKey();
+		}
+		byte[] signingKey = signingKeySupplier.get();
+		this.evictIfNecessary(yymmdd);
+		this.entries.put(key, new CacheEntry(secretAccessKey, signingKey));
+		return signingKey;
+	}
+
+	private void evictIfNecessary(String yymmdd) {
+		String latest = this.latestDate;
+		if (yymmdd.compareTo(latest) > 0) {
+			this.latestDate = yymmdd;
+			// day boundary has passed
+			this.entries.keySet().removeIf(k -> k.yymmdd().compareTo(yymmdd) < 0);
+		}
+		if (this.entries.size() >= this.maxSize) {
+			this.entries.keySet().removeIf(k -> k.yymmdd().compareTo(this.latestDate) < 0);
+			Iterator<Map.Entry<CacheKey, CacheEntry>> iterator = this.entries.entrySet().iterator();
+			while (this.entries.size() >= this.maxSize && iterator.hasNext()) {
+				iterator.next();
+				iterator.remove();
+			}
+		}
+	}
+
+	private record CacheKey(String accessKeyId, String yymmdd, String region, String service) {
+	}
+
+	private record CacheEntry(String secretAccessKey, byte[] signingKey) {
+	}
+
+}
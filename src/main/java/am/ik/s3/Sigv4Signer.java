@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.function.BiConsumer;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Per-thread SigV4 signing engine. The canonical request and the string to sign are built
+ * in buffers that are reused across requests, and the {@link MessageDigest} and
+ * {@link Mac} instances are created once per thread.
+ */
+final class Sigv4Signer {
+
+	private static final ThreadLocal<Sigv4Signer> CURRENT = ThreadLocal.withInitial(Sigv4Signer::new);
+
+	private static final HexFormat HEX = HexFormat.of();
+
+	static final String AWS4_HMAC_SHA256_PAYLOAD = "AWS4-HMAC-SHA256-PAYLOAD";
+
+	static final String EMPTY_SHA256 = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+
+	private final MessageDigest sha256;
+
+	private final Mac hmacSha256;
+
+	private final StringBuilder text = new StringBuilder(1024);
+
+	private byte[] bytes = new byte[1024];
+
+	private byte[] macKey;
+
+	private final Headers headers = new Headers();
+
+	private Sigv4Signer() {
+		try {
+			this.sha256 = MessageDigest.getInstance("SHA-256");
+			this.hmacSha256 = Mac.getInstance("HmacSHA256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			// should not happen
+			throw new IllegalStateException(e);
+		}
+	}
+
+	static Sigv4Signer current() {
+		return CURRENT.get();
+	}
+
+	/**
+	 * Returns the (cleared) headers to sign. The instance is reused by the next call on
+	 * the same thread.
+	 */
+	Headers headers() {
+		this.headers.clear();
+		return this.headers;
+	}
+
+	String sha256Hex(byte[] data) {
+		return HEX.formatHex(this.sha256.digest(data));
+	}
+
+	String sha256Hex(S3Content content) {
+		this.sha256.reset();
+		content.digest(this.sha256);
+		return HEX.formatHex(this.sha256.digest());
+	}
+
+	byte[] hmacSha256(byte[] key, String data) {
+		Mac mac = this.mac(key);
+		int length = this.encode(data);
+		mac.update(this.bytes, 0, length);
+		return mac.doFinal();
+	}
+
+	String authorization(String method, String canonicalUri, String canonicalQueryString, Headers headers,
+			String payloadHash, AmzDate amzDate, String credentialScope, String accessKeyId, byte[] signingKey) {
+		byte[] signature = this.sign(method, canonicalUri, canonicalQueryString, headers, payloadHash, amzDate,
+				credentialScope, signingKey);
+		// Step 5: Add the signature to the request
+		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#add-signature-to-request
+		StringBuilder sb = this.text;
+		sb.setLength(0);
+		sb.append(S3Request.AWS4_HMAC_SHA256)
+			.append(" Credential=")
+			.append(accessKeyId)
+			.append('/')
+			.append(credentialScope)
+			.append(",SignedHeaders=");
+		appendSignedHeaders(sb, headers);
+		sb.append(",Signature=");
+		appendHex(sb, signature);
+		return sb.toString();
+	}
+
+	/**
+	 * Calculates the signature in hex, e.g. for the {@code X-Amz-Signature} parameter of
+	 * a presigned URL.
+	 */
+	String signature(String method, String canonicalUri, String canonicalQueryString, Headers headers,
+			String payloadHash, AmzDate amzDate, String credentialScope, byte[] signingKey) {
+		return HEX.formatHex(this.sign(method, canonicalUri, canonicalQueryString, headers, payloadHash, amzDate,
+				credentialScope, signingKey));
+	}
+
+	private byte[] sign(String method, String canonicalUri, String canonicalQueryString, Headers headers,
+			String payloadHash, AmzDate amzDate, String credentialScope, byte[] signingKey) {
+		StringBuilder sb = this.text;
+		// Step 1: Create a canonical request
+		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#create-canonical-request
+		sb.setLength(0);
+		sb.append(method).append('\n').append(canonicalUri).append('\n').append(canonicalQueryString).append('\n');
+		for (int i = 0; i < headers.size; i++) {
+			appendLowerCase(sb, headers.names[i]).append(':').append(headers.values[i]).append('\n');
+		}
+		sb.append('\n');
+		appendSignedHeaders(sb, headers);
+		sb.append('\n').append(payloadHash);
+		// Step 2: Create a hash of the canonical request
+		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#create-canonical-request-hash
+		int length = this.encode(sb);
+		this.sha256.update(this.bytes, 0, length);
+		byte[] hashedCanonicalRequest = this.sha256.digest();
+		// Step 3: Create a string to sign
+		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#create-string-to-sign
+		sb.setLength(0);
+		sb.append(S3Request.AWS4_HMAC_SHA256)
+			.append('\n')
+			.append(amzDate.date())
+			.append('\n')
+			.append(credentialScope)
+			.append('\n');
+		appendHex(sb, hashedCanonicalRequest);
+		// Step 4: Calculate the signature
+		// https://docs.aws.amazon.com/IAM/latest/UserGuide/create-signed-request.html#calculate-signature
+		Mac mac = this.mac(signingKey);
+		length = this.encode(sb);
+		mac.update(this.bytes, 0, length);
+		return mac.doFinal();
+	}
+
+	/**
+	 * Calculates the signature of a chunk of an {@code aws-chunked} payload.
+	 * https://docs.aws.amazon.com/AmazonS3/latest/API/sigv4-streaming.html
+	 */
+	String chunkSignature(AmzDate amzDate, String credentialScope, String previousSignature, byte[] chunk, int length,
+			byte[] signingKey) {
+		this.sha256.update(chunk, 0, length);
+		byte[] chunkHash = this.sha256.digest();
+		StringBuilder sb = this.text;
+		sb.setLength(0);
+		sb.append(AWS4_HMAC_SHA256_PAYLOAD)
+			.append('\n')
+			.append(amzDate.date())
+			.append('\n')
+			.append(credentialScope)
+			.append('\n')
+			.append(previousSignature)
+			.append('\n')
+			.append(EMPTY_SHA256)
+			.append('\n');
+		appendHex(sb, chunkHash);
+		Mac mac = this.mac(signingKey);
+		int n = this.encode(sb);
+		mac.update(this.bytes, 0, n);
+		return HEX.formatHex(mac.doFinal());
+	}
+
+	private Mac mac(byte[] key) {
+		// Mac#doFinal resets the instance to its initialized state, so the (cached)
+		// signing key does not need to be set again
+		if (key != this.macKey) {
+			try {
+				this.hmacSha256.init(new SecretKeySpec(key, "HmacSHA256"));
+			}
+			catch (InvalidKeyException e) {
+				// should not happen
+				throw new IllegalStateException(e);
+			}
+			this.macKey = key;
+		}
+		return this.hmacSha256;
+	}
+
+	/**
+	 * Encodes the given chars as UTF-8 into the reusable byte buffer.
+	 * @return the number of bytes written
+	 */
+	private int encode(CharSequence chars) {
+		int length = chars.length();
+		byte[] buf = this.ensureCapacity(length * 3);
+		int pos = 0;
+		for (int i = 0; i < length; i++) {
+			char c = chars.charAt(i);
+			if (c < 0x80) {
+				buf[pos++] = (byte) c;
+			}
+			else if (c < 0x800) {
+				buf[pos++] = (byte) (0xC0 | (c >> 6));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+			else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, chars.charAt(++i));
+				buf[pos++] = (byte) (0xF0 | (cp >> 18));
+				buf[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				buf[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (cp & 0x3F));
+			}
+			else if (Character.isSurrogate(c)) {
+				// malformed input is replaced in the same way as String#getBytes
+				buf[pos++] = '?';
+			}
+			else {
+				buf[pos++] = (byte) (0xE0 | (c >> 12));
+				buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				buf[pos++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return pos;
+	}
+
+	private byte[] ensureCapacity(int capacity) {
+		if (this.bytes.length < capacity) {
+			this.bytes = new byte[Math.max(capacity, this.bytes.length * 2)];
+		}
+		return this.bytes;
+	}
+
+	private static void appendSignedHeaders(StringBuilder sb, Headers headers) {
+		for (int i = 0; i < headers.size; i++) {
+			if (i > 0) {
+				sb.append(';');
+			}
+			appendLowerCase(sb, headers.names[i]);
+		}
+	}
+
+	private static StringBuilder appendLowerCase(StringBuilder sb, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			sb.append(Character.toLowerCase(s.charAt(i)));
+		}
+		return sb;
+	}
+
+	private static void appendHex(StringBuilder sb, byte[] data) {
+		for (byte b : data) {
+			sb.append(HEX.toHighHexDigit(b)).append(HEX.toLowHexDigit(b));
+		}
+	}
+
+	/**
+	 * Headers kept in the order required by the canonical request, i.e. sorted by their
+	 * lowercase names.
+	 */
+	static final class Headers {
+
+		private String[] names = new String[8];
+
+		private String[] values = new String[8];
+
+		private int size;
+
+		void clear() {
+			Arrays.fill(this.names, 0, this.size, null);
+			Arrays.fill(this.values, 0, this.size, null);
+			this.size = 0;
+		}
+
+		Headers add(String name, String value) {
+			if (this.size == this.names.length) {
+				this.names = Arrays.copyOf(this.names, this.size * 2);
+				this.values = Arrays.copyOf(this.values, this.size * 2);
+			}
+			int i = this.size;
+			while (i > 0 && compareIgnoreCase(this.names[i - 1], name) > 0) {
+				this.names[i] = this.names[i - 1];
+				this.values[i] = this.values[i - 1];
+				i--;
+			}
+			this.names[i] = name;
+			this.values[i] = value;
+			this.size++;
+			return this;
+		}
+
+		int size() {
+			return this.size;
+		}
+
+		void forEach(BiConsumer<String, String> action) {
+			for (int i = 0; i < this.size; i++) {
+				action.accept(this.names[i], this.values[i]);
+			}
+		}
+
+		private static int compareIgnoreCase(String s1, String s2) {
+			int n = Math.min(s1.length(), s2.length());
+			for (int i = 0; i < n; i++) {
+				char c1 = Character.toLowerCase(s1.charAt(i));
+				char c2 = Character.toLowerCase(s2.charAt(i));
+				if (c1 != c2) {
+					return c1 - c2;
+				}
+			}
+			return s1.length() - s2.length();
+		}
+
+	}
+
+}
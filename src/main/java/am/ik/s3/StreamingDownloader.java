@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.web.client.RestClient;
+
+/**
+ * Streams the body of an object (GetObject) to a channel, an output stream or a file
+ * without materializing it in memory. Files are written with
+ * {@link FileChannel#transferFrom}, other channels through a direct buffer that is reused
+ * by each thread.
+ */
+public final class StreamingDownloader {
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private static final ThreadLocal<ByteBuffer> BUFFER = ThreadLocal
+		.withInitial(() -> ByteBuffer.allocateDirect(BUFFER_SIZE));
+
+	private final RestClient restClient;
+
+	private final S3Config config;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public StreamingDownloader(RestClient restClient, S3Config config) {
+		this.restClient = restClient;
+		this.config = config;
+	}
+
+	/**
+	 * Writes the object to the given channel. The channel is not closed.
+	 * @return the number of bytes written
+	 */
+	public long download(String bucket, String key, WritableByteChannel target) {
+		return this.exchange(bucket, key, in -> transfer(in, target));
+	}
+
+	/**
+	 * Writes the object to the given output stream. The stream is not closed.
+	 * @return the number of bytes written
+	 */
+	public long download(String bucket, String key, OutputStream target) {
+		return this.exchange(bucket, key, in -> in.transferTo(target));
+	}
+
+	/**
+	 * Writes the object to the given file. The file is deleted if the download fails.
+	 */
+	public DownloadResult download(String bucket, String key, Path target) {
+		S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket).key(key)).build();
+		try {
+			return this.restClient.get().uri(request.uri()).headers(request.headers()).exchange((req, res) -> {
+				S3Responses.checkStatus(res);
+				try (InputStream in = res.getBody();
+						FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE,
+								StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					long length = transfer(in, channel);
+					return new DownloadResult(target, length, res.getHeaders().getETag());
+				}
+			});
+		}
+		catch (RuntimeException e) {
+			try {
+				Files.deleteIfExists(target);
+			}
+			catch (IOException deleteFailure) {
+				e.addSuppressed(deleteFailure);
+			}
+			throw e;
+		}
+	}
+
+	private long exchange(String bucket, String key, BodyConsumer consumer) {
+		S3Request request = this.config.s3Request(HttpMethod.GET, b -> b.bucket(bucket).key(key)).build();
+		Long length = this.restClient.get().uri(request.uri()).headers(request.headers()).exchange((req, res) -> {
+			S3Responses.checkStatus(res);
+			try (InputStream in = res.getBody()) {
+				return consumer.accept(in);
+			}
+		});
+		return length == null ? 0 : length;
+	}
+
+	static long transfer(InputStream in, WritableByteChannel target) throws IOException {
+		ReadableByteChannel source = Channels.newChannel(in);
+		if (target instanceof FileChannel fileChannel) {
+			long position = fileChannel.position();
+			long transferred = 0;
+			long n;
+			while ((n = fileChannel.transferFrom(source, position + transferred, Long.MAX_VALUE)) > 0) {
+				transferred += n;
+			}
+			fileChannel.position(position + transferred);
+			return transferred;
+		}
+		ByteBuffer buffer = BUFFER.get().clear();
+		long transferred = 0;
+		while (source.read(buffer) != -1) {
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				transferred += target.write(buffer);
+			}
+			buffer.clear();
+		}
+		return transferred;
+	}
+
+	@FunctionalInterface
+	private interface BodyConsumer {
+
+		long accept(InputStream body) throws IOException;
+
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+final class TaskExecutors {
+
+	private static final class Shared {
+
+		static final ExecutorService INSTANCE = newCachedThreadPool("s3-io");
+
+	}
+
+	private TaskExecutors() {
+	}
+
+	/**
+	 * A shared cached thread pool of daemon threads for short blocking I/O tasks that are
+	 * not bound to a closable resource, e.g. prefetching the next page of a listing.
+	 */
+	static ExecutorService shared() {
+		return Shared.INSTANCE;
+	}
+
+	/**
+	 * Creates a fixed thread pool of daemon threads, used when no executor is specified.
+	 */
+	static ExecutorService newFixedThreadPool(int threads, String namePrefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return Executors.newFixedThreadPool(threads, r -> {
+			Thread thread = new Thread(r, namePrefix + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	static ScheduledExecutorService newSingleThreadScheduledExecutor(String name) {
+		return Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, name);
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	static ExecutorService newCachedThreadPool(String namePrefix) {
+		AtomicInteger counter = new AtomicInteger();
+		return Executors.newCachedThreadPool(r -> {
+			Thread thread = new Thread(r, namePrefix + "-" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+/**
+ * Snapshot of the connection pool of an endpoint in a {@link PooledTransportFactory}. The
+ * JDK {@code HttpClient} does not expose its pool, so {@code openConnections},
+ * {@code newConnections} and {@link #reuseRatio()} are estimates derived from the
+ * requests in flight: a request is counted as opening a new connection only if all
+ * connections counted so far are busy. Connections closed by the keep-alive timeout of
+ * the client ({@code jdk.httpclient.keepalive.timeout}) or by the server are not seen, so
+ * the estimates overstate reuse when requests are further apart than the keep-alive
+ * timeout. {@code evictions} counts the idle pools that were released, their connections
+ * are only closed right away on JDK 21 and later.
+ *
+ * @param maxConnections the maximum number of connections (requests in flight)
+ * @param inFlight the number of requests in flight
+ * @param openConnections the estimated number of connections kept alive
+ * @param requests the number of requests executed
+ * @param newConnections the estimated number of requests that opened a new connection
+ * @param evictions the number of times the idle pool was released
+ * @param totalWaitNanos the total time requests waited for a connection
+ * @param maxWaitNanos the longest time a request waited for a connection
+ */
+public record TransportStats(int maxConnections, int inFlight, int openConnections, long requests, long newConnections,
+		long evictions, long totalWaitNanos, long maxWaitNanos) {
+
+	/**
+	 * The ratio of the connections in use to the maximum number of connections.
+	 */
+	public double utilisation() {
+		return (double) this.inFlight / this.maxConnections;
+	}
+
+	/**
+	 * The estimated ratio of the requests that reused a kept-alive connection. It is an
+	 * upper bound, see the notes on the estimates above.
+	 */
+	public double reuseRatio() {
+		return this.requests == 0 ? 0 : 1 - (double) this.newConnections / this.requests;
+	}
+
+	public long averageWaitNanos() {
+		return this.requests == 0 ? 0 : this.totalWaitNanos / this.requests;
+	}
+
+}
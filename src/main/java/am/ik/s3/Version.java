@@ -19,7 +19,7 @@ import com.fasterxml.jackson.dataformat.xml.annotation.JacksonXmlProperty;
 
 public record Version(@JacksonXmlProperty(localName = "Key") String key,
 		@JacksonXmlProperty(localName = "LastModified") String lastModified,
-		@JacksonXmlProperty(localName = "ETag") String eTag, @JacksonXmlProperty(localName = "Size") int size,
+		@JacksonXmlProperty(localName = "ETag") String eTag, @JacksonXmlProperty(localName = "Size") long size,
 		@JacksonXmlProperty(localName = "Owner") Owner owner,
 		@JacksonXmlProperty(localName = "StorageClass") String storageClass,
 		@JacksonXmlProperty(localName = "IsLatest") boolean isLatest,
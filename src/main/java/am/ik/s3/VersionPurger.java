@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jilt.Builder;
+import org.jilt.BuilderStyle;
+import org.jilt.Opt;
+
+import org.springframework.web.client.RestClient;
+
+/**
+ * Deletes all versions and delete markers of the objects in a (versioned) bucket, e.g.
+ * before deleting the bucket. The versions are listed page by page and the entries of
+ * each page are deleted in {@code DeleteObjects} batches, several of which are in flight
+ * while the next page is being fetched.
+ */
+public final class VersionPurger {
+
+	public static final int DEFAULT_CONCURRENCY = 8;
+
+	private final Executor executor;
+
+	private final int concurrency;
+
+	private final int batchSize;
+
+	private final ObjectLister lister;
+
+	private final ObjectDeleter deleter;
+
+	@Builder(style = BuilderStyle.STAGED)
+	public VersionPurger(RestClient restClient, S3Config config, @Opt Executor executor, @Opt Integer concurrency,
+			@Opt Integer batchSize) {
+		this.executor = Objects.requireNonNullElseGet(executor, TaskExecutors::shared);
+		this.concurrency = Objects.requireNonNullElse(concurrency, DEFAULT_CONCURRENCY);
+		this.batchSize = Objects.requireNonNullElse(batchSize, ObjectDeleter.MAX_BATCH_SIZE);
+		this.lister = ObjectListerBuilder.objectLister().restClient(restClient).config(config).build();
+		this.deleter = ObjectDeleterBuilder.objectDeleter()
+			.restClient(restClient)
+			.config(config)
+			.executor(this.executor)
+			.batchSize(this.batchSize)
+			.build();
+		if (this.concurrency < 1) {
+			throw new IllegalArgumentException("'concurrency' must be positive");
+		}
+	}
+
+	/**
+	 * Deletes all versions and delete markers under the prefix. Entries that S3 refuses
+	 * to delete are reported in {@link PurgeResult#errors()}, while a failed request
+	 * stops the purge and is rethrown.
+	 * @param prefix the prefix of the keys, or {@code null} to purge the whole bucket
+	 */
+	public PurgeResult purge(String bucket, String prefix) {
+		BoundedFanOut<Void> fanOut = new BoundedFanOut<>(this.concurrency, this.executor);
+		AtomicLong deletedVersions = new AtomicLong();
+		AtomicLong deletedDeleteMarkers = new AtomicLong();
+		ConcurrentLinkedQueue<DeleteError> errors = new ConcurrentLinkedQueue<>();
+		ObjectLister.PageIterator<ListVersionsResult> pages = this.lister.versionPageIterator(bucket, prefix);
+		try {
+			while (!fanOut.failed() && pages.hasNext()) {
+				ListVersionsResult page = pages.next();
+				List<ObjectVersion> entries = new ArrayList<>();
+				if (page.versions() != null) {
+					page.versions().forEach(v -> entries.add(new ObjectVersion(v.key(), v.versionId(), false)));
+				}
+				if (page.deleteMarkers() != null) {
+					page.deleteMarkers().forEach(m -> entries.add(new ObjectVersion(m.key(), m.versionId(), true)));
+				}
+				for (int i = 0; i < entries.size() && !fanOut.failed(); i += this.batchSize) {
+					List<ObjectVersion> batch = entries.subList(i, Math.min(i + this.batchSize, entries.size()));
+					fanOut.acquire();
+					fanOut.execute(() -> {
+						DeleteResult result = this.deleter.deleteBatch(bucket,
+								batch.stream().map(ObjectVersion::identifier).toList());
+						for (ObjectVersion entry : batch) {
+							if (result.errors().stream().noneMatch(entry::matches)) {
+								(entry.deleteMarker() ? deletedDeleteMarkers : deletedVersions).incrementAndGet();
+							}
+						}
+						errors.addAll(result.errors());
+					});
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			fanOut.fail(new IllegalStateException("Interrupted", e));
+		}
+		catch (RuntimeException e) {
+			fanOut.fail(e);
+		}
+		finally {
+			pages.cancel();
+		}
+		fanOut.join();
+		return new PurgeResult(deletedVersions.get(), deletedDeleteMarkers.get(), List.copyOf(errors));
+	}
+
+	record ObjectVersion(String key, String versionId, boolean deleteMarker) {
+
+		ObjectIdentifier identifier() {
+			return new ObjectIdentifier(this.key, this.versionId);
+		}
+
+		boolean matches(DeleteError error) {
+			return this.key.equals(error.key()) && Objects.equals(this.versionId, error.versionId());
+		}
+
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.AdaptiveRetryBuilder.adaptiveRetry;
+import static am.ik.s3.AsyncS3ClientBuilder.asyncS3Client;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveRetryTest {
+
+	StubS3Server server;
+
+	RestClient restClient = RestClient.create();
+
+	AmzDateTest.MutableClock clock = new AmzDateTest.MutableClock(Instant.parse("2023-10-17T10:15:30Z"));
+
+	List<Long> sleeps = new CopyOnWriteArrayList<>();
+
+	// sleeping advances the clock instead
+	AdaptiveRetry.Sleeper sleeper = nanos -> {
+		this.sleeps.add(nanos);
+		this.clock.instant = this.clock.instant.plusNanos(nanos);
+	};
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		this.server.putObject("test", "hello.txt", "Hello World!".getBytes());
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	S3Config config() {
+		S3Config config = this.server.config();
+		return S3ConfigBuilder.s3Config()
+			.endpoint(config.endpoint())
+			.region(config.region())
+			.accessKeyId(config.accessKeyId())
+			.secretAccessKey(config.secretAccessKey())
+			.clock(this.clock)
+			.build();
+	}
+
+	void injectSlowDown(int times, List<String> amzDates) {
+		AtomicInteger count = new AtomicInteger();
+		this.server.interceptor(exchange -> {
+			amzDates.add(exchange.getRequestHeaders().getFirst("X-Amz-Date"));
+			if (count.incrementAndGet() <= times) {
+				StubS3Server.sendError(exchange, 503, "SlowDown");
+				return true;
+			}
+			return false;
+		});
+	}
+
+	@Test
+	void retrySlowDownWithFreshSignature() {
+		List<String> amzDates = new CopyOnWriteArrayList<>();
+		injectSlowDown(2, amzDates);
+		AdaptiveRetry retry = adaptiveRetry().baseDelay(Duration.ofSeconds(1)).sleeper(this.sleeper).build();
+		AsyncS3Client client = asyncS3Client().restClient(this.restClient).config(this.config()).retry(retry).build();
+		assertThat(client.getObject("test", "hello.txt").join()).isEqualTo("Hello World!".getBytes());
+		assertThat(amzDates).hasSize(3);
+		RetryStats stats = retry.stats();
+		assertThat(stats.attempts()).isEqualTo(3);
+		assertThat(stats.retries()).isEqualTo(2);
+		assertThat(stats.throttled()).isEqualTo(2);
+		assertThat(stats.exhausted()).isZero();
+		assertThat(stats.rateLimited()).isTrue();
+		// the rate limiter starts at 0.5 requests per second after the first throttling,
+		// so each retry is at least a second later and signed with a new date
+		assertThat(this.sleeps).isNotEmpty();
+		assertThat(amzDates).doesNotHaveDuplicates();
+	}
+
+	@Test
+	void giveUpAfterMaxAttempts() {
+		injectSlowDown(Integer.MAX_VALUE, new CopyOnWriteArrayList<>());
+		AdaptiveRetry retry = adaptiveRetry().maxAttempts(4).sleeper(this.sleeper).build();
+		AsyncS3Client client = asyncS3Client().restClient(this.restClient).config(this.config()).retry(retry).build();
+		assertThatThrownBy(() -> client.getObject("test", "hello.txt").join()).isInstanceOf(CompletionException.class)
+			.hasCauseInstanceOf(HttpServerErrorException.ServiceUnavailable.class);
+		assertThat(this.server.requests()).hasSize(4);
+		assertThat(retry.stats().exhausted()).isEqualTo(1);
+	}
+
+	@Test
+	void doNotRetryClientErrors() {
+		AdaptiveRetry retry = adaptiveRetry().sleeper(this.sleeper).build();
+		AsyncS3Client client = asyncS3Client().restClient(this.restClient).config(this.config()).retry(retry).build();
+		assertThatThrownBy(() -> client.getObject("test", "missing.txt").join())
+			.hasCauseInstanceOf(HttpClientErrorException.NotFound.class);
+		assertThat(this.server.requests()).hasSize(1);
+		assertThat(retry.stats().retries()).isZero();
+		assertThat(retry.stats().rateLimited()).isFalse();
+	}
+
+	@Test
+	void backoffIsCapped() {
+		AdaptiveRetry retry = adaptiveRetry().baseDelay(Duration.ofMillis(100))
+			.maxBackoff(Duration.ofSeconds(1))
+			.build();
+		for (int attempt = 1; attempt < 100; attempt++) {
+			assertThat(retry.backoffNanos(attempt)).isBetween(0L, 1_000_000_000L);
+		}
+	}
+
+	@Test
+	void rateLimiterSlowsDownAndRecovers() {
+		ClientRateLimiter limiter = new ClientRateLimiter(this.clock);
+		// 50 requests per second
+		for (int i = 0; i < 200; i++) {
+			assertThat(limiter.acquire()).isZero();
+			limiter.onResponse(false);
+			this.clock.instant = this.clock.instant.plusMillis(20);
+		}
+		assertThat(limiter.enabled()).isFalse();
+		assertThat(limiter.measuredTxRate()).isCloseTo(50, within(5.0));
+		limiter.onResponse(true);
+		assertThat(limiter.enabled()).isTrue();
+		double throttledRate = limiter.fillRate();
+		assertThat(throttledRate).isCloseTo(50 * ClientRateLimiter.BETA, within(5.0));
+		// sending faster than the allowed rate has to wait
+		long waited = 0;
+		for (int i = 0; i < 100; i++) {
+			waited += limiter.acquire();
+		}
+		assertThat(waited).isPositive();
+		// recovers while the requests succeed
+		for (int i = 0; i < 300; i++) {
+			this.clock.instant = this.clock.instant.plusMillis(30);
+			limiter.acquire();
+			limiter.onResponse(false);
+		}
+		assertThat(limiter.fillRate()).isGreaterThan(throttledRate);
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AmzDateTest {
+
+	@Test
+	void format() {
+		AmzDate amzDate = new AmzDate(Instant.parse("2013-05-24T01:02:03.456Z"));
+		assertThat(amzDate.date()).isEqualTo("20130524T010203Z");
+		assertThat(amzDate.yymmdd()).isEqualTo("20130524");
+		assertThat(amzDate.credentialScope("us-east-1")).isEqualTo("20130524/us-east-1/s3/aws4_request");
+		assertThat(amzDate.credentialScope("ap-northeast-1")).isEqualTo("20130524/ap-northeast-1/s3/aws4_request");
+	}
+
+	@Test
+	void nowIsCachedPerSecond() {
+		MutableClock clock = new MutableClock(Instant.parse("2013-05-24T23:59:58.100Z"));
+		AmzDate first = AmzDate.now(clock);
+		assertThat(first.date()).isEqualTo("20130524T235958Z");
+		clock.instant = Instant.parse("2013-05-24T23:59:58.999Z");
+		assertThat(AmzDate.now(clock)).isSameAs(first);
+		clock.instant = Instant.parse("2013-05-24T23:59:59Z");
+		AmzDate second = AmzDate.now(clock);
+		assertThat(second).isNotSameAs(first);
+		assertThat(second.date()).isEqualTo("20130524T235959Z");
+		clock.instant = Instant.parse("2013-05-25T00:00:00Z");
+		AmzDate nextDay = AmzDate.now(clock);
+		assertThat(nextDay.date()).isEqualTo("20130525T000000Z");
+		assertThat(nextDay.credentialScope("us-east-1")).isEqualTo("20130525/us-east-1/s3/aws4_request");
+	}
+
+	@Test
+	void nowFollowsTheGivenClock() {
+		Clock fixed = Clock.fixed(Instant.parse("2013-05-24T00:00:00Z"), ZoneOffset.UTC);
+		assertThat(AmzDate.now(fixed).date()).isEqualTo("20130524T000000Z");
+		assertThat(AmzDate.now(Clock.systemUTC()).date()).isNotEqualTo("20130524T000000Z");
+		assertThat(AmzDate.now(fixed).date()).isEqualTo("20130524T000000Z");
+	}
+
+	static class MutableClock extends Clock {
+
+		volatile Instant instant;
+
+		MutableClock(Instant instant) {
+			this.instant = instant;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Instant instant() {
+			return this.instant;
+		}
+
+	}
+
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.AsyncS3ClientBuilder.asyncS3Client;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AsyncS3ClientTest {
+
+	StubS3Server server;
+
+	RestClient restClient = RestClient.create();
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	@Test
+	void putGetAndDeleteObject() {
+		AsyncS3Client client = asyncS3Client().restClient(this.restClient).config(this.server.config()).build();
+		client.putObject("test", "hello.txt", S3Content.of("Hello World!", MediaType.TEXT_PLAIN)).join();
+		assertThat(client.getObject("test", "hello.txt").join()).isEqualTo("Hello World!".getBytes());
+		client.deleteObject("test", "hello.txt").join();
+		assertThatThrownBy(() -> client.getObject("test", "hello.txt").join()).isInstanceOf(CompletionException.class)
+			.hasCauseInstanceOf(HttpClientErrorException.NotFound.class);
+	}
+
+	@Test
+	void fanOutIsLimitedPerEndpoint() {
+		for (int i = 0; i < 500; i++) {
+			this.server.putObject("test", "obj-" + i, new byte[] { (byte) i });
+		}
+		AtomicInteger current = new AtomicInteger();
+		AtomicInteger max = new AtomicInteger();
+		this.server.interceptor(exchange -> {
+			max.accumulateAndGet(current.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(1);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			current.decrementAndGet();
+			return false;
+		});
+		AsyncS3Client client = asyncS3Client().restClient(this.restClient)
+			.config(this.server.config())
+			.permits(new EndpointPermits(8))
+			.build();
+		List<CompletableFuture<byte[]>> futures = IntStream.range(0, 500)
+			.mapToObj(i -> client.getObject("test", "obj-" + i))
+			.toList();
+		assertThat(client.permits().queued(this.server.endpoint())).isPositive();
+		for (int i = 0; i < 500; i++) {
+			assertThat(futures.get(i).join()).containsExactly((byte) i);
+		}
+		assertThat(max.get()).isBetween(1, 8);
+		assertThat(client.permits().inFlight(this.server.endpoint())).isZero();
+		assertThat(client.permits().queued(this.server.endpoint())).isZero();
+	}
+
+	@Test
+	void permitsAreGrantedInOrder() throws Exception {
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			EndpointPermits permits = new EndpointPermits(1);
+			URI endpoint = URI.create("http://127.0.0.1:4566");
+			CountDownLatch blocked = new CountDownLatch(1);
+			List<Integer> order = new CopyOnWriteArrayList<>();
+			CompletableFuture<Integer> first = permits.submit(endpoint, executor, () -> {
+				try {
+					blocked.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				order.add(0);
+				return 0;
+			});
+			List<CompletableFuture<Integer>> waiting = IntStream.range(1, 11)
+				.mapToObj(i -> permits.submit(endpoint, executor, () -> {
+					order.add(i);
+					return i;
+				}))
+				.toList();
+			waiting.get(4).cancel(false);
+			// another endpoint is not affected
+			assertThat(permits.submit(URI.create("http://localhost:9000"), executor, () -> -1).join()).isEqualTo(-1);
+			assertThat(permits.inFlight(endpoint)).isEqualTo(1);
+			assertThat(permits.queued(endpoint)).isEqualTo(10);
+			blocked.countDown();
+			first.join();
+			CompletableFuture.allOf(waiting.stream().filter(f -> !f.isCancelled()).toArray(CompletableFuture[]::new))
+				.join();
+			assertThat(order).containsExactly(0, 1, 2, 3, 4, 6, 7, 8, 9, 10);
+			assertThat(permits.inFlight(endpoint)).isZero();
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void rejectedTaskReleasesPermit() {
+		EndpointPermits permits = new EndpointPermits(1);
+		URI endpoint = URI.create("http://127.0.0.1:4566");
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		assertThatThrownBy(() -> permits.submit(endpoint, executor, () -> 1).join())
+			.isInstanceOf(CompletionException.class);
+		assertThat(permits.inFlight(endpoint)).isZero();
+	}
+
+}
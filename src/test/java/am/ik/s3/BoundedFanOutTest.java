@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BoundedFanOutTest {
+
+	@Test
+	void resultsAreCollected() throws Exception {
+		BoundedFanOut<Integer> fanOut = new BoundedFanOut<>(2, Runnable::run);
+		for (int i = 0; i < 5; i++) {
+			int n = i;
+			fanOut.acquire();
+			fanOut.submit(() -> n);
+		}
+		assertThat(fanOut.join()).containsExactlyInAnyOrder(0, 1, 2, 3, 4);
+	}
+
+	@Test
+	void rejectedTaskReleasesPermitAndFails() throws Exception {
+		BoundedFanOut<Void> fanOut = new BoundedFanOut<>(1, task -> {
+			throw new RejectedExecutionException("Rejected");
+		});
+		fanOut.acquire();
+		assertThatThrownBy(() -> fanOut.execute(() -> {
+		})).isInstanceOf(RejectedExecutionException.class);
+		assertThat(fanOut.failed()).isTrue();
+		// the permit has been given back, so the producer does not block
+		fanOut.acquire();
+		fanOut.release();
+		assertThatThrownBy(fanOut::join).isInstanceOf(RejectedExecutionException.class).hasMessage("Rejected");
+	}
+
+}
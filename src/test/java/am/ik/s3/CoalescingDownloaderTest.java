@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.CoalescingDownloaderBuilder.coalescingDownloader;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CoalescingDownloaderTest {
+
+	static final int CALLERS = 64;
+
+	StubS3Server server;
+
+	CoalescingDownloader downloader;
+
+	ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+
+	AtomicInteger upstream = new AtomicInteger();
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		this.server.putObject("test", "model.bin", "model-v2".getBytes());
+		this.downloader = coalescingDownloader().restClient(RestClient.create()).config(this.server.config()).build();
+		// holds the request until all the other callers wait for it
+		this.server.interceptor(exchange -> {
+			this.upstream.incrementAndGet();
+			long deadline = System.nanoTime() + 5_000_000_000L;
+			while (this.downloader.coalescedRequests() < CALLERS - 1 && System.nanoTime() < deadline) {
+				Thread.onSpinWait();
+			}
+			return false;
+		});
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+		this.executor.shutdownNow();
+	}
+
+	<T> List<CompletableFuture<T>> concurrently(Supplier<T> call) {
+		CountDownLatch start = new CountDownLatch(1);
+		List<CompletableFuture<T>> futures = IntStream.range(0, CALLERS)
+			.mapToObj(i -> CompletableFuture.supplyAsync(() -> {
+				try {
+					start.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				return call.get();
+			}, this.executor))
+			.toList();
+		start.countDown();
+		return futures;
+	}
+
+	@Test
+	void concurrentGetsShareOneRequest() {
+		List<byte[]> bodies = concurrently(() -> this.downloader.getObject("test", "model.bin")).stream()
+			.map(CompletableFuture::join)
+			.toList();
+		assertThat(this.upstream.get()).isEqualTo(1);
+		assertThat(this.downloader.upstreamRequests()).isEqualTo(1);
+		assertThat(this.downloader.coalescedRequests()).isEqualTo(CALLERS - 1);
+		assertThat(bodies).allSatisfy(body -> assertThat(body).isEqualTo("model-v2".getBytes()));
+		// each caller owns its array
+		Set<byte[]> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+		distinct.addAll(bodies);
+		assertThat(distinct).hasSize(CALLERS);
+	}
+
+	@Test
+	void concurrentBuffersShareOneArray() {
+		List<ByteBuffer> buffers = concurrently(() -> this.downloader.getObjectAsBuffer("test", "model.bin")).stream()
+			.map(CompletableFuture::join)
+			.toList();
+		assertThat(this.upstream.get()).isEqualTo(1);
+		assertThat(buffers).allSatisfy(buffer -> {
+			assertThat(buffer.isReadOnly()).isTrue();
+			assertThat(buffer).isEqualTo(ByteBuffer.wrap("model-v2".getBytes()));
+		});
+	}
+
+	@Test
+	void arraysAndBuffersDoNotShareMemory() {
+		AtomicInteger calls = new AtomicInteger();
+		List<Object> results = concurrently(
+				() -> calls.getAndIncrement() % 2 == 0 ? (Object) this.downloader.getObject("test", "model.bin")
+						: this.downloader.getObjectAsBuffer("test", "model.bin"))
+			.stream()
+			.map(CompletableFuture::join)
+			.toList();
+		assertThat(this.upstream.get()).isEqualTo(1);
+		// the callers may modify their arrays
+		results.stream().filter(byte[].class::isInstance).forEach(body -> Arrays.fill((byte[]) body, (byte) 0));
+		assertThat(results).filteredOn(ByteBuffer.class::isInstance)
+			.hasSize(CALLERS / 2)
+			.allSatisfy(buffer -> assertThat(buffer).isEqualTo(ByteBuffer.wrap("model-v2".getBytes())));
+	}
+
+	@Test
+	void concurrentHeadsShareOneRequest() {
+		List<HttpHeaders> headers = concurrently(() -> this.downloader.headObject("test", "model.bin")).stream()
+			.map(CompletableFuture::join)
+			.toList();
+		assertThat(this.upstream.get()).isEqualTo(1);
+		assertThat(headers).allSatisfy(h -> {
+			assertThat(h.getETag()).isEqualTo(StubS3Server.etag("model-v2".getBytes()));
+			assertThat(h.getContentLength()).isEqualTo(8);
+		});
+	}
+
+	@Test
+	void errorIsPropagatedToAllCallers() {
+		List<CompletableFuture<byte[]>> futures = concurrently(() -> this.downloader.getObject("test", "missing.bin"));
+		assertThat(futures).allSatisfy(
+				future -> assertThatThrownBy(future::join).hasCauseInstanceOf(HttpClientErrorException.NotFound.class));
+		assertThat(this.upstream.get()).isEqualTo(1);
+		// the failure is not cached
+		this.server.putObject("test", "missing.bin", "found".getBytes());
+		assertThat(this.downloader.getObject("test", "missing.bin")).isEqualTo("found".getBytes());
+		assertThat(this.upstream.get()).isEqualTo(2);
+	}
+
+	@Test
+	void versionsAreNotCoalesced() {
+		this.server.interceptor(exchange -> {
+			this.upstream.incrementAndGet();
+			return false;
+		});
+		this.server.putVersion("test", "model.bin", "v1", "model-v1".getBytes());
+		assertThat(this.downloader.getObject("test", "model.bin", "v1")).isEqualTo("model-v1".getBytes());
+		assertThat(this.downloader.getObject("test", "model.bin")).isEqualTo("model-v2".getBytes());
+		assertThat(this.downloader.getObject("test", "model.bin")).isEqualTo("model-v2".getBytes());
+		assertThat(this.upstream.get()).isEqualTo(3);
+		assertThat(this.downloader.coalescedRequests()).isZero();
+	}
+
+}
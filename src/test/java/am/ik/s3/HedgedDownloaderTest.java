@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.HedgedDownloaderBuilder.hedgedDownloader;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class HedgedDownloaderTest {
+
+	StubS3Server server;
+
+	RestClient restClient = RestClient.create();
+
+	ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newCachedThreadPool();
+
+	AtomicInteger gets = new AtomicInteger();
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		this.server.putObject("test", "hello.txt", "Hello World!".getBytes());
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+		this.executor.shutdownNow();
+	}
+
+	void slowRequests(int... requestNumbers) {
+		this.server.interceptor(exchange -> {
+			int n = this.gets.incrementAndGet();
+			for (int slow : requestNumbers) {
+				if (slow == 0 || slow == n) {
+					sleep(slow == 0 ? 100 : 3_000);
+				}
+			}
+			return false;
+		});
+	}
+
+	@Test
+	void slowRequestIsHedged() throws Exception {
+		slowRequests(1);
+		HedgedDownloader downloader = hedgedDownloader().restClient(this.restClient)
+			.config(this.server.config())
+			.executor(this.executor)
+			.hedgeDelay(Duration.ofMillis(50))
+			.maxHedgeRatio(1.0)
+			.build();
+		long start = System.nanoTime();
+		assertThat(downloader.getObject("test", "hello.txt")).isEqualTo("Hello World!".getBytes());
+		assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(2));
+		assertThat(this.gets.get()).isEqualTo(2);
+		HedgeStats stats = downloader.stats();
+		assertThat(stats.requests()).isEqualTo(1);
+		assertThat(stats.hedged()).isEqualTo(1);
+		assertThat(stats.hedgeWins()).isEqualTo(1);
+		assertThat(stats.hedgeRatio()).isEqualTo(1.0);
+		// the slow request has been cancelled and does not hold a thread
+		long deadline = System.nanoTime() + Duration.ofSeconds(1).toNanos();
+		while (this.executor.getActiveCount() > 0 && System.nanoTime() < deadline) {
+			Thread.sleep(10);
+		}
+		assertThat(this.executor.getActiveCount()).isZero();
+	}
+
+	@Test
+	void fastRequestIsNotHedged() {
+		slowRequests();
+		HedgedDownloader downloader = hedgedDownloader().restClient(this.restClient)
+			.config(this.server.config())
+			.hedgeDelay(Duration.ofSeconds(1))
+			.maxHedgeRatio(1.0)
+			.build();
+		assertThat(downloader.getObject("test", "hello.txt")).isEqualTo("Hello World!".getBytes());
+		assertThat(this.gets.get()).isEqualTo(1);
+		assertThat(downloader.stats().hedged()).isZero();
+	}
+
+	@Test
+	void slowBodyIsNotHedged() {
+		byte[] body = "Hello World!".getBytes();
+		this.server.interceptor(exchange -> {
+			this.gets.incrementAndGet();
+			exchange.sendResponseHeaders(200, body.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(body, 0, 5);
+				out.flush();
+				sleep(300);
+				out.write(body, 5, body.length - 5);
+			}
+			return true;
+		});
+		HedgedDownloader downloader = hedgedDownloader().restClient(this.restClient)
+			.config(this.server.config())
+			.executor(this.executor)
+			.hedgeDelay(Duration.ofMillis(50))
+			.maxHedgeRatio(1.0)
+			.build();
+		assertThat(downloader.getObject("test", "hello.txt")).isEqualTo(body);
+		assertThat(this.gets.get()).isEqualTo(1);
+		assertThat(downloader.stats().hedged()).isZero();
+	}
+
+	@Test
+	void hedgesAreLimitedByBudget() {
+		slowRequests(0);
+		HedgedDownloader downloader = hedgedDownloader().restClient(this.restClient)
+			.config(this.server.config())
+			.executor(this.executor)
+			.hedgeDelay(Duration.ofMillis(20))
+			.maxHedgeRatio(0.5)
+			.build();
+		for (int i = 0; i < 4; i++) {
+			assertThat(downloader.getObject("test", "hello.txt")).isEqualTo("Hello World!".getBytes());
+		}
+		HedgeStats stats = downloader.stats();
+		assertThat(stats.requests()).isEqualTo(4);
+		assertThat(stats.hedged()).isEqualTo(2);
+		assertThat(stats.budgetExhausted()).isEqualTo(2);
+		assertThat(this.gets.get()).isEqualTo(6);
+	}
+
+	@Test
+	void adaptiveDelayNeedsSamples() {
+		slowRequests();
+		HedgedDownloader downloader = hedgedDownloader().restClient(this.restClient)
+			.config(this.server.config())
+			.maxHedgeRatio(1.0)
+			.build();
+		for (int i = 0; i < HedgedDownloader.MIN_SAMPLES; i++) {
+			assertThat(downloader.stats().hedgeDelayNanos()).isEqualTo(-1);
+			downloader.getObject("test", "hello.txt");
+		}
+		assertThat(downloader.stats().hedgeDelayNanos()).isPositive();
+	}
+
+	@Test
+	void errorIsPropagated() {
+		HedgedDownloader downloader = hedgedDownloader().restClient(this.restClient)
+			.config(this.server.config())
+			.hedgeDelay(Duration.ZERO)
+			.maxHedgeRatio(1.0)
+			.build();
+		assertThatThrownBy(() -> downloader.getObject("test", "missing.txt"))
+			.isInstanceOf(HttpClientErrorException.NotFound.class);
+		assertThat(downloader.stats().hedged()).isEqualTo(1);
+		assertThat(downloader.stats().hedgeWins()).isZero();
+	}
+
+	static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
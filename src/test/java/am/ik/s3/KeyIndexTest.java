@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class KeyIndexTest {
+
+	static final Comparator<String> UTF8_ORDER = (a, b) -> Arrays.compareUnsigned(a.getBytes(StandardCharsets.UTF_8),
+			b.getBytes(StandardCharsets.UTF_8));
+
+	static final OffsetDateTime lastModified = OffsetDateTime.of(2023, 10, 17, 10, 15, 30, 123_000_000, ZoneOffset.UTC);
+
+	static List<Content> contents(List<String> keys) {
+		List<Content> contents = new ArrayList<>();
+		for (int i = 0; i < keys.size(); i++) {
+			String etag = i % 7 == 3 ? "\"%032x-%d\"".formatted(i, i % 5 + 1) : "\"%032x\"".formatted(i * 31L);
+			contents.add(new Content(keys.get(i), lastModified.plusSeconds(i), etag, i * 100L, null,
+					i % 3 == 0 ? "GLACIER" : "STANDARD"));
+		}
+		return contents;
+	}
+
+	static List<String> randomKeys(Random random, int count) {
+		return IntStream.range(0, count)
+			.mapToObj(i -> "logs/" + randomSegment(random, 0, 3) + "/" + randomSegment(random, 1, 24))
+			.distinct()
+			.sorted(UTF8_ORDER)
+			.toList();
+	}
+
+	@Test
+	void roundTrip() {
+		List<String> keys = randomKeys(new Random(20231017L), 5_000);
+		List<Content> contents = contents(keys);
+		KeyIndex index = KeyIndex.of(contents.stream());
+		assertThat(index.size()).isEqualTo(keys.size());
+		for (int i = 0; i < keys.size(); i++) {
+			assertThat(index.content(i)).isEqualTo(contents.get(i));
+			assertThat(index.key(i)).isEqualTo(keys.get(i));
+		}
+		assertThat(index.contents(null).toList()).isEqualTo(contents);
+	}
+
+	@Test
+	void irregularEtags() {
+		KeyIndex index = KeyIndex.builder()
+			.add("a", 1, null, null, null)
+			.add("b", 2, Instant.EPOCH, "unquoted", null)
+			.add("c", 3, Instant.EPOCH, "\"0123456789ABCDEF0123456789ABCDEF\"", null)
+			.add("d", 4, Instant.EPOCH, "\"0123456789abcdef0123456789abcdef-07\"", null)
+			.add("e", 5, Instant.EPOCH, "\"0123456789abcdef0123456789abcdef-10000\"", null)
+			.build();
+		assertThat(IntStream.range(0, index.size()).mapToObj(index::etag)).containsExactly(null, "unquoted",
+				"\"0123456789ABCDEF0123456789ABCDEF\"", "\"0123456789abcdef0123456789abcdef-07\"",
+				"\"0123456789abcdef0123456789abcdef-10000\"");
+		assertThat(index.lastModified(0)).isNull();
+	}
+
+	@Test
+	void indexOf() {
+		List<String> keys = randomKeys(new Random(42L), 3_000);
+		KeyIndex index = KeyIndex.of(contents(keys).stream());
+		for (int i = 0; i < keys.size(); i++) {
+			assertThat(index.indexOf(keys.get(i))).isEqualTo(i);
+			String missing = keys.get(i) + "\0";
+			assertThat(index.indexOf(missing)).isEqualTo(-(i + 1) - 1);
+		}
+		assertThat(index.indexOf("")).isEqualTo(-1);
+		assertThat(index.indexOf("zzz")).isEqualTo(-keys.size() - 1);
+	}
+
+	@Test
+	void prefixRange() {
+		List<String> keys = randomKeys(new Random(7L), 3_000);
+		KeyIndex index = KeyIndex.of(contents(keys).stream());
+		for (String prefix : List.of("", "logs/", "logs/a", "logs/~", "logs/あ", "x")) {
+			assertThat(index.keys(prefix).toList()).as(prefix)
+				.isEqualTo(keys.stream().filter(k -> k.startsWith(prefix)).toList());
+		}
+	}
+
+	@Test
+	void supplementaryCharactersInUtf8Order() {
+		// U+1F600 sorts after U+FF01 in UTF-8 but before it in UTF-16
+		KeyIndex index = KeyIndex.builder().add("a！", 0, null, null, null).add("a😀", 0, null, null, null).build();
+		assertThat(index.indexOf("a😀")).isEqualTo(1);
+		assertThatThrownBy(() -> KeyIndex.builder().add("b", 0, null, null, null).add("a", 0, null, null, null))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void diff() {
+		List<String> keys = randomKeys(new Random(1L), 2_000);
+		List<Content> before = contents(keys);
+		List<Content> after = new ArrayList<>(before);
+		Content removed = after.remove(100);
+		Content modified = after.get(500);
+		after.set(500, new Content(modified.key(), modified.lastModified(), "\"%032x\"".formatted(1), modified.size(),
+				null, modified.storageClass()));
+		Content touched = after.get(600);
+		after.set(600, new Content(touched.key(), touched.lastModified().plusDays(1), touched.etag(), touched.size(),
+				null, touched.storageClass()));
+		Content added = new Content(keys.get(1000) + "-new", lastModified, "\"%032x\"".formatted(2), 1, null, null);
+		after.add(1000, added);
+		KeyIndexDiff diff = KeyIndex.of(before.stream()).diff(KeyIndex.of(after.stream()));
+		assertThat(diff.added()).containsExactly(added.key());
+		assertThat(diff.removed()).containsExactly(removed.key());
+		assertThat(diff.modified()).containsExactly(modified.key());
+		assertThat(KeyIndex.of(before.stream()).diff(KeyIndex.of(before.stream())).isEmpty()).isTrue();
+		assertThat(KeyIndex.of(before.stream()).diff(KeyIndex.builder().build()).removed()).hasSize(keys.size());
+	}
+
+	@Test
+	void compact() {
+		List<String> keys = IntStream.range(0, 100_000).mapToObj("logs/2023/10/17/part-%08d.gz"::formatted).toList();
+		KeyIndex index = KeyIndex.of(contents(keys).stream());
+		// 16 (ETag) + 8 (size) + 8 (timestamp) + 1 (storage class) + front-coded key
+		assertThat(index.retainedBytes() / keys.size()).isLessThan(48);
+	}
+
+	// printable ASCII mixed with 2, 3 and 4 byte UTF-8 characters
+	static String randomSegment(Random random, int minLength, int maxLength) {
+		int length = minLength + random.nextInt(maxLength - minLength + 1);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			int type = random.nextInt(10);
+			if (type < 7) {
+				sb.append((char) ('!' + random.nextInt('~' - '!' + 1)));
+			}
+			else if (type < 8) {
+				sb.append((char) (0x80 + random.nextInt(0x780)));
+			}
+			else if (type < 9) {
+				sb.append((char) (0x3040 + random.nextInt(0x100)));
+			}
+			else {
+				sb.appendCodePoint(0x1F600 + random.nextInt(0x50));
+			}
+		}
+		return sb.toString();
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ListResultDecoderTest {
+
+	ObjectMapper xmlMapper = Jackson2ObjectMapperBuilder.xml().build();
+
+	static final String listBucketResult = """
+			<?xml version="1.0" encoding="UTF-8"?>
+			<ListBucketResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/">
+			  <Name>example-bucket</Name>
+			  <Prefix>photos/</Prefix>
+			  <KeyCount>3</KeyCount>
+			  <MaxKeys>3</MaxKeys>
+			  <Delimiter>/</Delimiter>
+			  <IsTruncated>true</IsTruncated>
+			  <ContinuationToken>1ueGcxLPRx1Tr/XYExHnhbYLgveDs2J/wm36Hy4vbOwM=</ContinuationToken>
+			  <NextContinuationToken>2ueGcxLPRx1Tr/XYExHnhbYLgveDs2J/wm36Hy4vbOwM=</NextContinuationToken>
+			  <Contents>
+			    <Key>photos/a &amp; b.jpg</Key>
+			    <LastModified>2023-10-17T10:15:30.000Z</LastModified>
+			    <ETag>&quot;70ee1738b6b21e2c8a43f3a5ab0eee71&quot;</ETag>
+			    <ChecksumAlgorithm>CRC32</ChecksumAlgorithm>
+			    <Size>11</Size>
+			    <Owner>
+			      <ID>75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a</ID>
+			      <DisplayName>webfile</DisplayName>
+			    </Owner>
+			    <StorageClass>STANDARD</StorageClass>
+			  </Contents>
+			  <Contents>
+			    <Key>photos/b.jpg</Key>
+			    <LastModified>2023-10-17T10:15:31.000Z</LastModified>
+			    <ETag>&quot;9c8af9a76df052144598c115ef33e511&quot;</ETag>
+			    <Size>434234</Size>
+			    <StorageClass>STANDARD</StorageClass>
+			  </Contents>
+			  <CommonPrefixes>
+			    <Prefix>photos/2006/</Prefix>
+			  </CommonPrefixes>
+			</ListBucketResult>
+			""";
+
+	static final String listVersionsResult = """
+			<?xml version="1.0" encoding="UTF-8"?>
+			<ListVersionsResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/">
+			  <Name>bucket</Name>
+			  <Prefix>my</Prefix>
+			  <KeyMarker/>
+			  <VersionIdMarker/>
+			  <NextVersionIdMarker>null</NextVersionIdMarker>
+			  <MaxKeys>5</MaxKeys>
+			  <IsTruncated>false</IsTruncated>
+			  <Version>
+			    <Key>my-image.jpg</Key>
+			    <VersionId>3/L4kqtJl40Nr8X8gdRQBpUMLUo</VersionId>
+			    <IsLatest>true</IsLatest>
+			    <LastModified>2009-10-12T17:50:30.000Z</LastModified>
+			    <ETag>&quot;fba9dede5f27731c9771645a39863328&quot;</ETag>
+			    <Size>434234</Size>
+			    <StorageClass>STANDARD</StorageClass>
+			    <Owner>
+			      <ID>75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a</ID>
+			      <DisplayName>mtd@amazon.com</DisplayName>
+			    </Owner>
+			  </Version>
+			  <DeleteMarker>
+			    <Key>my-second-image.jpg</Key>
+			    <VersionId>03jpff543dhffds434rfdsFDN943fdsFkdmqnh892</VersionId>
+			    <IsLatest>true</IsLatest>
+			    <LastModified>2009-11-12T17:50:30.000Z</LastModified>
+			    <Owner>
+			      <ID>75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a</ID>
+			      <DisplayName>mtd@amazon.com</DisplayName>
+			    </Owner>
+			  </DeleteMarker>
+			  <Version>
+			    <Key>my-second-image.jpg</Key>
+			    <VersionId>QUpfdndhfd8438MNFDN93jdnJFkdmqnh893</VersionId>
+			    <IsLatest>false</IsLatest>
+			    <LastModified>2009-10-10T17:50:30.000Z</LastModified>
+			    <ETag>&quot;9b2cf535f27731c974343645a3985328&quot;</ETag>
+			    <Size>166434</Size>
+			    <StorageClass>STANDARD</StorageClass>
+			  </Version>
+			</ListVersionsResult>
+			""";
+
+	@Test
+	void decodeListBucketResultSameAsJackson() throws Exception {
+		ListBucketResult expected = this.xmlMapper.readValue(listBucketResult, ListBucketResult.class);
+		ListBucketResult actual = ListResultDecoder.decodeListBucketResult(stream(listBucketResult));
+		assertThat(actual).isEqualTo(expected);
+		assertThat(actual.contents()).extracting(Content::key).containsExactly("photos/a & b.jpg", "photos/b.jpg");
+		assertThat(actual.commonPrefixes()).containsExactly(new CommonPrefix("photos/2006/"));
+		assertThat(actual.nextContinuationToken()).isEqualTo("2ueGcxLPRx1Tr/XYExHnhbYLgveDs2J/wm36Hy4vbOwM=");
+	}
+
+	@Test
+	void decodeListBucketResultIncrementally() {
+		List<String> keys = new ArrayList<>();
+		ListBucketResult result = ListResultDecoder.decodeListBucketResult(stream(listBucketResult),
+				content -> keys.add(content.key()));
+		assertThat(keys).containsExactly("photos/a & b.jpg", "photos/b.jpg");
+		assertThat(result.contents()).isNull();
+		assertThat(result.isTruncated()).isTrue();
+		assertThat(result.keyCount()).isEqualTo(3);
+	}
+
+	// Jackson cannot bind Version and DeleteMarker elements that are interleaved in key
+	// order as S3 returns them
+	@Test
+	void decodeListVersionsResult() {
+		ListVersionsResult actual = ListResultDecoder.decodeListVersionsResult(stream(listVersionsResult));
+		Owner owner = new Owner("75aa57f09aa0c8caeab4f8c24e99d10f8e7faeebf76c078efc7c6caea54ba06a", "mtd@amazon.com");
+		assertThat(actual.name()).isEqualTo("bucket");
+		assertThat(actual.prefix()).isEqualTo("my");
+		assertThat(actual.keyMarker()).isEmpty();
+		assertThat(actual.nextVersionIdMarker()).isEqualTo("null");
+		assertThat(actual.maxKeys()).isEqualTo(5);
+		assertThat(actual.isTruncated()).isFalse();
+		assertThat(actual.versions()).containsExactly(
+				new Version("my-image.jpg", "2009-10-12T17:50:30.000Z", "\"fba9dede5f27731c9771645a39863328\"", 434234,
+						owner, "STANDARD", true, "3/L4kqtJl40Nr8X8gdRQBpUMLUo"),
+				new Version("my-second-image.jpg", "2009-10-10T17:50:30.000Z", "\"9b2cf535f27731c974343645a3985328\"",
+						166434, null, "STANDARD", false, "QUpfdndhfd8438MNFDN93jdnJFkdmqnh893"));
+		assertThat(actual.deleteMarkers()).containsExactly(new DeleteMarker("my-second-image.jpg",
+				"2009-11-12T17:50:30.000Z", null, 0, owner, null, true, "03jpff543dhffds434rfdsFDN943fdsFkdmqnh892"));
+	}
+
+	@Test
+	void decodeListVersionsResultLargerThan2GiB() {
+		String xml = """
+				<?xml version="1.0" encoding="UTF-8"?>
+				<ListVersionsResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/">
+				  <Name>bucket</Name>
+				  <IsTruncated>false</IsTruncated>
+				  <Version>
+				    <Key>large.bin</Key>
+				    <VersionId>v1</VersionId>
+				    <IsLatest>true</IsLatest>
+				    <LastModified>2023-10-17T10:15:31.000Z</LastModified>
+				    <Size>5368709120</Size>
+				  </Version>
+				</ListVersionsResult>
+				""";
+		ListVersionsResult actual = ListResultDecoder.decodeListVersionsResult(stream(xml));
+		assertThat(actual.versions()).extracting(Version::size).containsExactly(5L * 1024 * 1024 * 1024);
+	}
+
+	@Test
+	void parseLastModified() {
+		ListResultDecoder.LastModifiedParser parser = new ListResultDecoder.LastModifiedParser();
+		for (String text : List.of("2023-10-17T10:15:30.000Z", "2023-10-17T10:15:30.123Z", "2024-02-29T23:59:59.999Z",
+				"2023-10-17T10:15:30Z", "2023-10-17T10:15:30.123456Z", "2023-10-17T19:15:30.000+09:00")) {
+			assertThat(parser.parse(text)).isEqualTo(OffsetDateTime.parse(text));
+		}
+		assertThat(parser.parse("2023-10-17T10:15:30.000Z")).isSameAs(parser.parse("2023-10-17T10:15:30.000Z"));
+	}
+
+	static ByteArrayInputStream stream(String xml) {
+		return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+	}
+
+}
@@ -0,0 +1,247 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.BufferingClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.AsyncS3ClientBuilder.asyncS3Client;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.tuple;
+
+class MeteredTransportFactoryTest {
+
+	StubS3Server server;
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	AsyncS3Client client(S3MetricsListener listener) {
+		S3Config config = S3ConfigBuilder.s3Config()
+			.endpoint(this.server.endpoint())
+			.region("us-east-1")
+			.accessKeyId("accessKeyId")
+			.secretAccessKey("secretAccessKey")
+			.metricsListener(listener)
+			.build();
+		RestClient restClient = RestClient.builder()
+			.messageConverters(converters -> converters.add(new MappingJackson2XmlHttpMessageConverter()))
+			.requestFactory(new MeteredTransportFactory(new JdkClientHttpRequestFactory(), listener))
+			.build();
+		return asyncS3Client().restClient(restClient).config(config).build();
+	}
+
+	@Test
+	void recordOperations() {
+		RecordingListener listener = new RecordingListener();
+		AsyncS3Client client = client(listener);
+		client.putObject("test", "hello.txt", S3Content.of("Hello World!", MediaType.TEXT_PLAIN)).join();
+		assertThat(client.getObject("test", "hello.txt").join()).hasSize(12);
+		client.listBucket("test").join();
+		client.deleteObject("test", "hello.txt").join();
+		assertThatThrownBy(() -> client.getObject("test", "hello.txt").join()).isInstanceOf(CompletionException.class);
+		assertThat(listener.signed).extracting(Signed::operation, Signed::bucket)
+			.containsExactly(tuple(S3Operation.PUT, "test"), tuple(S3Operation.GET, "test"),
+					tuple(S3Operation.LIST, "test"), tuple(S3Operation.DELETE, "test"), tuple(S3Operation.GET, "test"));
+		assertThat(listener.signed).allSatisfy(signed -> assertThat(signed.nanos()).isPositive());
+		assertThat(listener.exchanges).extracting(Exchange::operation, Exchange::bucket, Exchange::status)
+			.containsExactly(tuple(S3Operation.PUT, "test", 200), tuple(S3Operation.GET, "test", 200),
+					tuple(S3Operation.LIST, "test", 200), tuple(S3Operation.DELETE, "test", 204),
+					tuple(S3Operation.GET, "test", 404));
+		assertThat(listener.exchanges.get(0).bytesOut()).isEqualTo(12);
+		assertThat(listener.exchanges.get(1).bytesIn()).isEqualTo(12);
+		assertThat(listener.exchanges.get(2).bytesIn()).isPositive();
+		assertThat(listener.exchanges).allSatisfy(exchange -> {
+			assertThat(exchange.timeToFirstByteNanos()).isPositive();
+			assertThat(exchange.totalNanos()).isGreaterThanOrEqualTo(exchange.timeToFirstByteNanos());
+		});
+	}
+
+	@Test
+	void bufferedBodyIsIncludedInLatency() {
+		RecordingListener listener = new RecordingListener();
+		RestClient restClient = RestClient.builder()
+			.requestFactory(new MeteredTransportFactory(
+					new BufferingClientHttpRequestFactory(new JdkClientHttpRequestFactory()), listener))
+			.build();
+		S3Content content = S3Content.of("Hello World!", MediaType.TEXT_PLAIN);
+		S3Request request = this.server.config()
+			.s3Request(HttpMethod.PUT, b -> b.bucket("test").key("hello.txt"))
+			.content(content)
+			.build();
+		restClient.put().uri(request.uri()).headers(request.headers()).body(out -> {
+			try {
+				Thread.sleep(200);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			content.writeTo(out);
+		}).retrieve().toBodilessEntity();
+		assertThat(listener.exchanges).singleElement().satisfies(exchange -> {
+			assertThat(exchange.bytesOut()).isEqualTo(12);
+			assertThat(exchange.timeToFirstByteNanos()).isGreaterThanOrEqualTo(Duration.ofMillis(200).toNanos());
+		});
+	}
+
+	@Test
+	void recordFailure() {
+		RecordingListener listener = new RecordingListener();
+		AsyncS3Client client = client(listener);
+		this.server.close();
+		assertThatThrownBy(() -> client.getObject("test", "hello.txt").join()).isInstanceOf(CompletionException.class);
+		assertThat(listener.exchanges).isEmpty();
+		assertThat(listener.failures).containsExactly(S3Operation.GET);
+	}
+
+	@Test
+	void micrometer() {
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		AsyncS3Client client = client(new MicrometerS3MetricsListener(registry));
+		client.putObject("test", "hello.txt", S3Content.of("Hello World!", MediaType.TEXT_PLAIN)).join();
+		client.getObject("test", "hello.txt").join();
+		client.getObject("test", "hello.txt").join();
+		assertThat(registry.get("s3.client.signing").tags("operation", "GET", "bucket", "test").timer().count())
+			.isEqualTo(2);
+		assertThat(registry.get("s3.client.requests")
+			.tags("operation", "GET", "bucket", "test", "status", "200", "exception", "none")
+			.timer()
+			.count()).isEqualTo(2);
+		assertThat(registry.get("s3.client.requests.first.byte").tags("operation", "PUT").timer().count()).isEqualTo(1);
+		assertThat(registry.get("s3.client.bytes.received").tags("operation", "GET").summary().totalAmount())
+			.isEqualTo(24);
+		assertThat(registry.get("s3.client.bytes.sent").tags("operation", "PUT").summary().totalAmount()).isEqualTo(12);
+	}
+
+	@Test
+	void operation() {
+		assertThat(S3Operation.of(HttpMethod.GET, uri("/"))).isEqualTo(S3Operation.LIST);
+		assertThat(S3Operation.of(HttpMethod.GET, uri("/test?list-type=2"))).isEqualTo(S3Operation.LIST);
+		assertThat(S3Operation.of(HttpMethod.GET, uri("/test/"))).isEqualTo(S3Operation.LIST);
+		assertThat(S3Operation.of(HttpMethod.GET, uri("/test/a/b.txt"))).isEqualTo(S3Operation.GET);
+		assertThat(S3Operation.of(HttpMethod.HEAD, uri("/test/a"))).isEqualTo(S3Operation.HEAD);
+		assertThat(S3Operation.of(HttpMethod.PUT, uri("/test/a?partNumber=1&uploadId=x"))).isEqualTo(S3Operation.PUT);
+		assertThat(S3Operation.of(HttpMethod.DELETE, uri("/test/a"))).isEqualTo(S3Operation.DELETE);
+		assertThat(S3Operation.of(HttpMethod.POST, uri("/test?delete"))).isEqualTo(S3Operation.DELETE);
+		assertThat(S3Operation.of(HttpMethod.POST, uri("/test?delete="))).isEqualTo(S3Operation.DELETE);
+		assertThat(S3Operation.of(HttpMethod.POST, uri("/test/a?uploads"))).isEqualTo(S3Operation.OTHER);
+		assertThat(S3Operation.of(HttpMethod.POST, uri("/test/a?deleted=1"))).isEqualTo(S3Operation.OTHER);
+		assertThat(S3Operation.bucket(uri("/"))).isEmpty();
+		assertThat(S3Operation.bucket(uri("/test"))).isEqualTo("test");
+		assertThat(S3Operation.bucket(uri("/test/a/b"))).isEqualTo("test");
+	}
+
+	@Test
+	void operationOfVirtualHostedStyle() {
+		for (String host : List.of("test.s3.amazonaws.com", "test.s3.us-east-1.amazonaws.com",
+				"test.s3-us-west-2.amazonaws.com", "test.s3.dualstack.us-east-1.amazonaws.com")) {
+			assertThat(S3Operation.of(HttpMethod.GET, URI.create("https://" + host + "/key.txt")))
+				.isEqualTo(S3Operation.GET);
+			assertThat(S3Operation.of(HttpMethod.GET, URI.create("https://" + host + "/?list-type=2")))
+				.isEqualTo(S3Operation.LIST);
+			assertThat(S3Operation.bucket(URI.create("https://" + host + "/dir/key.txt"))).isEqualTo("test");
+		}
+		assertThat(S3Operation.bucket(URI.create("https://s3.us-east-1.amazonaws.com/test/key.txt"))).isEqualTo("test");
+	}
+
+	@Test
+	void signingOfVirtualHostedStyle() {
+		RecordingListener listener = new RecordingListener();
+		S3Config config = S3ConfigBuilder.s3Config()
+			.endpoint(URI.create("https://test.s3.us-east-1.amazonaws.com"))
+			.region("us-east-1")
+			.accessKeyId("accessKeyId")
+			.secretAccessKey("secretAccessKey")
+			.metricsListener(listener)
+			.build();
+		config.s3Request(HttpMethod.GET, b -> b.key("dir/key.txt")).build();
+		config.s3Request(HttpMethod.GET, b -> b).build();
+		S3RequestBuilder.s3Request()
+			.endpoint(URI.create("https://s3.us-east-1.amazonaws.com"))
+			.region("us-east-1")
+			.accessKeyId("accessKeyId")
+			.secretAccessKey("secretAccessKey")
+			.method(HttpMethod.GET)
+			.path(b -> b.bucket("other").key("key.txt"))
+			.metricsListener(listener)
+			.build();
+		assertThat(listener.signed).extracting(Signed::operation, Signed::bucket)
+			.containsExactly(tuple(S3Operation.GET, "test"), tuple(S3Operation.LIST, "test"),
+					tuple(S3Operation.GET, "other"));
+	}
+
+	static URI uri(String pathAndQuery) {
+		return URI.create("http://127.0.0.1:4566" + pathAndQuery);
+	}
+
+	record Signed(S3Operation operation, String bucket, long nanos) {
+	}
+
+	record Exchange(S3Operation operation, String bucket, int status, long timeToFirstByteNanos, long totalNanos,
+			long bytesOut, long bytesIn) {
+	}
+
+	static class RecordingListener implements S3MetricsListener {
+
+		final List<Signed> signed = new CopyOnWriteArrayList<>();
+
+		final List<Exchange> exchanges = new CopyOnWriteArrayList<>();
+
+		final List<S3Operation> failures = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void onSigned(S3Operation operation, String bucket, long signingNanos) {
+			this.signed.add(new Signed(operation, bucket, signingNanos));
+		}
+
+		@Override
+		public void onExchange(S3Operation operation, String bucket, int statusCode, long timeToFirstByteNanos,
+				long totalNanos, long bytesOut, long bytesIn) {
+			this.exchanges
+				.add(new Exchange(operation, bucket, statusCode, timeToFirstByteNanos, totalNanos, bytesOut, bytesIn));
+		}
+
+		@Override
+		public void onFailure(S3Operation operation, String bucket, long totalNanos, Throwable error) {
+			this.failures.add(operation);
+		}
+
+	}
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Tests of {@link MultipartUploader} that do not need S3, unlike
+ * {@link MultipartUploaderTest} that is skipped without Docker.
+ */
+class MultipartUploaderPartSizeTest {
+
+	@Test
+	void partSize() {
+		assertThat(MultipartUploader.partSize(-1, MultipartUploader.DEFAULT_PART_SIZE))
+			.isEqualTo(MultipartUploader.DEFAULT_PART_SIZE);
+		assertThat(MultipartUploader.partSize(1024, MultipartUploader.DEFAULT_PART_SIZE))
+			.isEqualTo(MultipartUploader.DEFAULT_PART_SIZE);
+		// 1 TiB needs parts larger than 8 MiB to fit in 10,000 parts
+		assertThat(MultipartUploader.partSize(1L << 40, MultipartUploader.DEFAULT_PART_SIZE))
+			.isEqualTo(105L * 1024 * 1024);
+	}
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.MultipartUploaderBuilder.multipartUploader;
+import static am.ik.s3.S3ConfigBuilder.s3Config;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.springframework.http.HttpMethod.GET;
+import static org.springframework.http.HttpMethod.PUT;
+
+@Testcontainers(disabledWithoutDocker = true)
+class MultipartUploaderTest {
+
+	DockerImageName localstackImage = DockerImageName.parse("localstack/localstack:0.11.3");
+
+	@Container
+	public LocalStackContainer localstack = new LocalStackContainer(localstackImage)
+		.withServices(LocalStackContainer.Service.S3);
+
+	@TempDir
+	Path tempDir;
+
+	RestClient restClient;
+
+	S3Config config;
+
+	@BeforeEach
+	void setup() {
+		this.restClient = RestClient.builder()
+			.messageConverters(converters -> converters.add(new MappingJackson2XmlHttpMessageConverter()))
+			.build();
+		this.config = s3Config().endpoint(localstack.getEndpoint())
+			.region(localstack.getRegion())
+			.accessKeyId(localstack.getAccessKey())
+			.secretAccessKey(localstack.getSecretKey())
+			.build();
+		S3Request request = this.config.s3Request(PUT, b -> b.bucket("multipart")).build();
+		this.restClient.put().uri(request.uri()).headers(request.headers()).retrieve().toBodilessEntity();
+	}
+
+	@Test
+	void uploadFile() throws Exception {
+		byte[] body = randomBytes(12 * 1024 * 1024 + 123);
+		Path file = Files.write(this.tempDir.resolve("upload.bin"), body);
+		MultipartUploader uploader = multipartUploader().restClient(this.restClient)
+			.config(this.config)
+			.partSize(MultipartUploader.MIN_PART_SIZE)
+			.build();
+		CompleteMultipartUploadResult result = uploader.upload("multipart", "upload.bin", file,
+				MediaType.APPLICATION_OCTET_STREAM);
+		assertThat(result.etag()).endsWith("-3\"");
+		assertThat(download("upload.bin")).isEqualTo(body);
+	}
+
+	@Test
+	void uploadInputStream() throws Exception {
+		byte[] body = randomBytes(11 * 1024 * 1024);
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			MultipartUploader uploader = multipartUploader().restClient(this.restClient)
+				.config(this.config)
+				.executor(executor)
+				.concurrency(2)
+				.partSize(MultipartUploader.MIN_PART_SIZE)
+				.build();
+			uploader.upload("multipart", "stream.bin", new ByteArrayInputStream(body), -1,
+					MediaType.APPLICATION_OCTET_STREAM);
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		assertThat(download("stream.bin")).isEqualTo(body);
+	}
+
+	byte[] download(String key) {
+		S3Request request = this.config.s3Request(GET, b -> b.bucket("multipart").key(key)).build();
+		return this.restClient.get().uri(request.uri()).headers(request.headers()).retrieve().body(byte[].class);
+	}
+
+	static byte[] randomBytes(int size) {
+		byte[] bytes = new byte[size];
+		new Random(size).nextBytes(bytes);
+		return bytes;
+	}
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.ObjectCacheBuilder.objectCache;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectCacheTest {
+
+	StubS3Server server;
+
+	RestClient restClient = RestClient.create();
+
+	@TempDir
+	Path directory;
+
+	// If-None-Match header of each GET, "" if absent
+	List<String> conditions = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		this.server.interceptor(exchange -> {
+			String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+			this.conditions.add(ifNoneMatch == null ? "" : ifNoneMatch);
+			return false;
+		});
+		this.server.putObject("test", "config.json", "{\"v\":1}".getBytes());
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	ObjectCache cache(Long maxBytes, Duration maxAge) {
+		return objectCache().restClient(this.restClient)
+			.config(this.server.config())
+			.directory(this.directory)
+			.maxBytes(maxBytes)
+			.maxAge(maxAge)
+			.build();
+	}
+
+	@Test
+	void revalidateWithEtag() {
+		try (ObjectCache cache = cache(null, null)) {
+			assertThat(cache.getObject("test", "config.json")).isEqualTo("{\"v\":1}".getBytes());
+			assertThat(cache.getObject("test", "config.json")).isEqualTo("{\"v\":1}".getBytes());
+			String etag = StubS3Server.etag("{\"v\":1}".getBytes());
+			assertThat(this.conditions).containsExactly("", etag);
+			this.server.putObject("test", "config.json", "{\"v\":2}".getBytes());
+			assertThat(cache.getObject("test", "config.json")).isEqualTo("{\"v\":2}".getBytes());
+			assertThat(this.conditions).containsExactly("", etag, etag);
+			assertThat(cache.stats()).isEqualTo(new CacheStats(0, 1, 2, 0, 1, 7));
+		}
+	}
+
+	@Test
+	void freshObjectIsServedWithoutRequest() {
+		try (ObjectCache cache = cache(null, Duration.ofMinutes(1))) {
+			cache.getObject("test", "config.json");
+			ByteBuffer buffer = cache.getObjectAsBuffer("test", "config.json");
+			assertThat(buffer.isReadOnly()).isTrue();
+			assertThat(buffer).isEqualTo(ByteBuffer.wrap("{\"v\":1}".getBytes()));
+			assertThat(this.conditions).hasSize(1);
+			assertThat(cache.stats().hits()).isEqualTo(1);
+			cache.invalidate("test", "config.json");
+			cache.getObject("test", "config.json");
+			assertThat(this.conditions).containsExactly("", "");
+		}
+	}
+
+	@Test
+	void readsAreJournaledInBatches() throws Exception {
+		Path journal = this.directory.resolve(ObjectCache.JOURNAL);
+		try (ObjectCache cache = cache(null, Duration.ofMinutes(1))) {
+			cache.getObject("test", "config.json");
+			List<String> lines = Files.readAllLines(journal);
+			cache.getObject("test", "config.json");
+			cache.getObject("test", "config.json");
+			assertThat(cache.stats().hits()).isEqualTo(2);
+			assertThat(Files.readAllLines(journal)).isEqualTo(lines);
+		}
+		assertThat(Files.readAllLines(journal)).filteredOn(line -> line.startsWith("READ ")).hasSize(2);
+	}
+
+	@Test
+	void indexSurvivesRestart() {
+		try (ObjectCache cache = cache(null, null)) {
+			cache.getObject("test", "config.json");
+		}
+		try (ObjectCache cache = cache(null, null)) {
+			assertThat(cache.stats().entries()).isEqualTo(1);
+			assertThat(cache.stats().bytes()).isEqualTo(7);
+			assertThat(cache.getObject("test", "config.json")).isEqualTo("{\"v\":1}".getBytes());
+			assertThat(cache.stats().revalidations()).isEqualTo(1);
+		}
+		assertThat(this.conditions).containsExactly("", StubS3Server.etag("{\"v\":1}".getBytes()));
+	}
+
+	@Test
+	void leastRecentlyUsedObjectsAreEvicted() throws Exception {
+		for (String key : List.of("a", "b", "c")) {
+			this.server.putObject("test", key, new byte[8]);
+		}
+		try (ObjectCache cache = cache(20L, Duration.ofMinutes(1))) {
+			cache.getObject("test", "a");
+			cache.getObject("test", "b");
+			cache.getObject("test", "a");
+			cache.getObject("test", "c");
+			assertThat(cache.stats().evictions()).isEqualTo(1);
+			assertThat(cache.stats().bytes()).isEqualTo(16);
+			assertThat(files()).containsExactlyInAnyOrder(ObjectCache.JOURNAL, ObjectCache.fileName("test", "a"),
+					ObjectCache.fileName("test", "c"));
+		}
+		// the access order is restored from the journal
+		try (ObjectCache cache = cache(20L, Duration.ofMinutes(1))) {
+			cache.getObject("test", "b");
+			assertThat(files()).containsExactlyInAnyOrder(ObjectCache.JOURNAL, ObjectCache.fileName("test", "c"),
+					ObjectCache.fileName("test", "b"));
+		}
+	}
+
+	@Test
+	void missingObjectIsNotCached() throws Exception {
+		try (ObjectCache cache = cache(null, null)) {
+			assertThatThrownBy(() -> cache.getObject("test", "missing.json"))
+				.isInstanceOf(HttpClientErrorException.NotFound.class);
+			assertThat(cache.stats().entries()).isZero();
+			assertThat(files()).containsExactly(ObjectCache.JOURNAL);
+		}
+	}
+
+	@Test
+	void concurrentReadersAndWriters() throws Exception {
+		for (int i = 0; i < 8; i++) {
+			this.server.putObject("test", "obj-" + i, ("object-" + i).repeat(100).getBytes());
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(16);
+		try (ObjectCache cache = cache(3_000L, null)) {
+			List<CompletableFuture<Void>> futures = IntStream.range(0, 400)
+				.mapToObj(i -> CompletableFuture.runAsync(() -> {
+					String key = "obj-" + (i % 8);
+					assertThat(cache.getObject("test", key)).isEqualTo(this.server.getObject("test", key));
+				}, executor))
+				.toList();
+			CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+			CacheStats stats = cache.stats();
+			assertThat(stats.hits() + stats.revalidations() + stats.misses()).isEqualTo(400);
+			assertThat(stats.bytes()).isLessThanOrEqualTo(3_000);
+			assertThat(files()).hasSize(stats.entries() + 1).allMatch(name -> !name.endsWith(".tmp"));
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		try (ObjectCache cache = cache(3_000L, null)) {
+			assertThat(cache.stats().entries()).isEqualTo(files().size() - 1);
+		}
+	}
+
+	List<String> files() throws Exception {
+		try (Stream<Path> files = Files.list(this.directory)) {
+			return files.map(file -> file.getFileName().toString()).toList();
+		}
+	}
+
+}
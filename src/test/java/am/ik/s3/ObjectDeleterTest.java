@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.ObjectDeleterBuilder.objectDeleter;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectDeleterTest {
+
+	StubS3Server server;
+
+	RestClient restClient = RestClient.create();
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		for (int i = 0; i < 250; i++) {
+			this.server.putObject("test", "data/%03d.bin".formatted(i), new byte[] { (byte) i });
+		}
+		this.server.putObject("test", "keep/a & b.txt", new byte[0]);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	@Test
+	void deleteBatch() {
+		ObjectDeleter deleter = objectDeleter().restClient(this.restClient).config(this.server.config()).build();
+		DeleteResult result = deleter.deleteBatch("test",
+				List.of(ObjectIdentifier.of("data/000.bin"), ObjectIdentifier.of("keep/a & b.txt")));
+		assertThat(result).isEqualTo(new DeleteResult(2, List.of()));
+		assertThat(this.server.getObject("test", "data/000.bin")).isNull();
+		assertThat(this.server.getObject("test", "keep/a & b.txt")).isNull();
+		assertThat(this.server.getObject("test", "data/001.bin")).isNotNull();
+	}
+
+	@Test
+	void deletePrefixInBatches() {
+		this.server.denyDelete("data/123.bin");
+		ObjectDeleter deleter = objectDeleter().restClient(this.restClient)
+			.config(this.server.config())
+			.concurrency(3)
+			.batchSize(100)
+			.build();
+		DeleteResult result = deleter.deletePrefix("test", "data/");
+		assertThat(result.deleted()).isEqualTo(249);
+		assertThat(result.errors())
+			.containsExactly(new DeleteError("data/123.bin", null, "AccessDenied", "Access Denied"));
+		assertThat(this.server.requests()).filteredOn(r -> r.startsWith("POST /test?delete")).hasSize(3);
+		assertThat(this.server.getObject("test", "data/123.bin")).isNotNull();
+		assertThat(this.server.getObject("test", "keep/a & b.txt")).isNotNull();
+	}
+
+	@Test
+	void deleteObjectsFailure() {
+		this.server.interceptor(exchange -> {
+			if (exchange.getRequestMethod().equals("POST")) {
+				StubS3Server.sendError(exchange, 403, "AccessDenied");
+				return true;
+			}
+			return false;
+		});
+		ObjectDeleter deleter = objectDeleter().restClient(this.restClient).config(this.server.config()).build();
+		Stream<ObjectIdentifier> objects = IntStream.range(0, 5000).mapToObj(i -> ObjectIdentifier.of("k" + i));
+		assertThatThrownBy(() -> deleter.deleteObjects("test", objects))
+			.isInstanceOf(HttpClientErrorException.Forbidden.class);
+	}
+
+	@Test
+	void deleteBucketRecursive() {
+		this.server.putVersion("test", "data/000.bin", "v1", new byte[0]);
+		this.server.putDeleteMarker("test", "data/000.bin", "v2");
+		ObjectDeleter deleter = objectDeleter().restClient(this.restClient).config(this.server.config()).build();
+		assertThatThrownBy(() -> deleter.deleteBucket("test", false))
+			.isInstanceOf(HttpClientErrorException.Conflict.class);
+		deleter.deleteBucket("test", true);
+		assertThat(this.server.versionCount("test")).isZero();
+		assertThat(this.server.getObject("test", "data/249.bin")).isNull();
+		assertThat(this.server.requests()).last().isEqualTo("DELETE /test");
+	}
+
+	@Test
+	void deleteRequestBody() {
+		byte[] body = ObjectDeleter.deleteRequestBody(
+				List.of(ObjectIdentifier.of("a<b>&c"), new ObjectIdentifier("d", "3/L4kqtJlcpXroDTDmJ+rmSpXd3dIbrHY")));
+		assertThat(new String(body, StandardCharsets.UTF_8))
+			.isEqualTo("<Delete xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\"><Quiet>true</Quiet>"
+					+ "<Object><Key>a&lt;b&gt;&amp;c</Key></Object>"
+					+ "<Object><Key>d</Key><VersionId>3/L4kqtJlcpXroDTDmJ+rmSpXd3dIbrHY</VersionId></Object></Delete>");
+		assertThat(ObjectDeleter.md5Base64("".getBytes())).isEqualTo("1B2M2Y8AsgTpgAmY7PhCfg==");
+	}
+
+	@Test
+	void decodeDeleteErrors() {
+		String xml = """
+				<?xml version="1.0" encoding="UTF-8"?>
+				<DeleteResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/">
+				  <Deleted><Key>sample1.txt</Key></Deleted>
+				  <Error>
+				    <Key>sample2.txt</Key>
+				    <VersionId>v1</VersionId>
+				    <Code>AccessDenied</Code>
+				    <Message>Access Denied</Message>
+				  </Error>
+				</DeleteResult>""";
+		assertThat(ObjectDeleter.decodeDeleteErrors(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8))))
+			.containsExactly(new DeleteError("sample2.txt", "v1", "AccessDenied", "Access Denied"));
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.ObjectListerBuilder.objectLister;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ObjectListerTest {
+
+	StubS3Server server;
+
+	RestClient restClient;
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		for (int i = 0; i < 25; i++) {
+			this.server.putObject("test", "logs/%02d.log".formatted(i), new byte[i]);
+		}
+		this.server.putObject("test", "other/a.txt", new byte[0]);
+		this.restClient = RestClient.builder()
+			.messageConverters(converters -> converters.add(new MappingJackson2XmlHttpMessageConverter()))
+			.build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	@Test
+	void followContinuationTokens() {
+		ObjectLister lister = objectLister().restClient(this.restClient)
+			.config(this.server.config())
+			.maxKeys(10)
+			.build();
+		List<String> keys = lister.listObjects("test", "logs/").map(Content::key).toList();
+		assertThat(keys)
+			.containsExactlyElementsOf(IntStream.range(0, 25).mapToObj("logs/%02d.log"::formatted).toList());
+		assertThat(this.server.requests()).hasSize(3);
+		assertThat(this.server.requests().get(1)).contains("continuation-token=");
+		assertThat(lister.listObjects("test", null).count()).isEqualTo(26);
+	}
+
+	@Test
+	void iterator() {
+		ObjectLister lister = objectLister().restClient(this.restClient)
+			.config(this.server.config())
+			.maxKeys(7)
+			.build();
+		Iterator<Content> iterator = lister.iterator("test", "other/");
+		assertThat(iterator.next().key()).isEqualTo("other/a.txt");
+		assertThat(iterator.hasNext()).isFalse();
+		assertThat(lister.listObjects("test", "none/")).isEmpty();
+	}
+
+	@Test
+	void prefetchNextPage() throws Exception {
+		ObjectLister lister = objectLister().restClient(this.restClient)
+			.config(this.server.config())
+			.maxKeys(10)
+			.build();
+		CountDownLatch secondPageRequested = new CountDownLatch(1);
+		this.server.interceptor(exchange -> {
+			if (exchange.getRequestURI().getRawQuery().contains("continuation-token=")) {
+				secondPageRequested.countDown();
+			}
+			return false;
+		});
+		try (Stream<ListBucketResult> pages = lister.listPages("test", "logs/")) {
+			Iterator<ListBucketResult> iterator = pages.iterator();
+			assertThat(iterator.next().keyCount()).isEqualTo(10);
+			// requested while the first page is being consumed
+			assertThat(secondPageRequested.await(5, TimeUnit.SECONDS)).isTrue();
+			assertThat(iterator.next().keyCount()).isEqualTo(10);
+			assertThat(iterator.next().keyCount()).isEqualTo(5);
+			assertThat(iterator.hasNext()).isFalse();
+		}
+	}
+
+	@Test
+	void propagateErrorOfPrefetchedPage() {
+		ObjectLister lister = objectLister().restClient(this.restClient)
+			.config(this.server.config())
+			.maxKeys(10)
+			.build();
+		this.server.interceptor(exchange -> {
+			if (exchange.getRequestURI().getRawQuery().contains("continuation-token=")) {
+				StubS3Server.sendError(exchange, 403, "AccessDenied");
+				return true;
+			}
+			return false;
+		});
+		assertThatThrownBy(() -> lister.listObjects("test", "logs/").count())
+			.isInstanceOf(HttpClientErrorException.Forbidden.class);
+	}
+
+}
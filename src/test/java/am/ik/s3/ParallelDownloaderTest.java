@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.ParallelDownloaderBuilder.parallelDownloader;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ParallelDownloaderTest {
+
+	@TempDir
+	Path tempDir;
+
+	StubS3Server server;
+
+	byte[] body;
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		this.body = new byte[1_000_000];
+		new Random(1).nextBytes(this.body);
+		this.server.putObject("test", "large.bin", this.body);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	@Test
+	void downloadRanges() throws Exception {
+		List<Long> progress = new CopyOnWriteArrayList<>();
+		ParallelDownloader downloader = parallelDownloader().restClient(RestClient.create())
+			.config(this.server.config())
+			.concurrency(3)
+			.rangeSize(100_000L)
+			.progressListener((transferred, total) -> progress.add(transferred))
+			.build();
+		Path target = this.tempDir.resolve("large.bin");
+		DownloadResult result = downloader.download("test", "large.bin", target);
+		assertThat(result.contentLength()).isEqualTo(this.body.length);
+		assertThat(result.etag()).isEqualTo(StubS3Server.etag(this.body));
+		assertThat(Files.readAllBytes(target)).isEqualTo(this.body);
+		assertThat(this.server.requests()).filteredOn(r -> r.startsWith("GET")).hasSize(10);
+		assertThat(progress).isSorted().last().isEqualTo((long) this.body.length);
+	}
+
+	@Test
+	void retryFailedRange() throws Exception {
+		AtomicInteger failures = new AtomicInteger();
+		this.server.interceptor(exchange -> {
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if ("bytes=300000-399999".equals(range) && failures.getAndIncrement() == 0) {
+				StubS3Server.sendError(exchange, 503, "SlowDown");
+				return true;
+			}
+			return false;
+		});
+		ParallelDownloader downloader = parallelDownloader().restClient(RestClient.create())
+			.config(this.server.config())
+			.rangeSize(100_000L)
+			.build();
+		Path target = this.tempDir.resolve("large.bin");
+		downloader.download("test", "large.bin", target);
+		assertThat(Files.readAllBytes(target)).isEqualTo(this.body);
+		assertThat(failures).hasValue(2);
+	}
+
+	@Test
+	void deleteFileOnFailure() {
+		ParallelDownloader downloader = parallelDownloader().restClient(RestClient.create())
+			.config(this.server.config())
+			.build();
+		Path target = this.tempDir.resolve("missing.bin");
+		assertThatThrownBy(() -> downloader.download("test", "missing.bin", target))
+			.isInstanceOf(HttpClientErrorException.NotFound.class);
+		assertThat(target).doesNotExist();
+	}
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.converter.xml.MappingJackson2XmlHttpMessageConverter;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.ObjectListerBuilder.objectLister;
+import static am.ik.s3.ParallelObjectListerBuilder.parallelObjectLister;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ParallelObjectListerTest {
+
+	StubS3Server server;
+
+	RestClient restClient;
+
+	List<String> keys = new ArrayList<>();
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		for (String dir : List.of("a/", "b/", "b/c/", "d/", "")) {
+			for (int i = 0; i < 12; i++) {
+				String key = dir + "%02d.log".formatted(i);
+				this.server.putObject("test", key, new byte[0]);
+			}
+		}
+		this.server.putObject("test", "a.txt", new byte[0]);
+		this.server.putObject("test", "c.txt", new byte[0]);
+		this.restClient = RestClient.builder()
+			.messageConverters(converters -> converters.add(new MappingJackson2XmlHttpMessageConverter()))
+			.build();
+		this.keys = objectLister().restClient(this.restClient)
+			.config(this.server.config())
+			.build()
+			.listObjects("test", null)
+			.map(Content::key)
+			.toList();
+		assertThat(this.keys).hasSize(62);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	ParallelObjectLister lister() {
+		return parallelObjectLister().restClient(this.restClient)
+			.config(this.server.config())
+			.concurrency(3)
+			.maxKeys(5)
+			.build();
+	}
+
+	@Test
+	void discoverPartitions() {
+		List<ParallelObjectLister.Partition> partitions = lister().discoverPartitions("test", null);
+		assertThat(partitions).extracting(ParallelObjectLister.Partition::prefix)
+			.containsExactly(null, "a/", "b/", null, "d/");
+		assertThat(partitions.get(0).contents()).extracting(Content::key)
+			.containsExactlyElementsOf(this.keys.subList(0, 13))
+			.endsWith("a.txt");
+		assertThat(partitions.get(3).contents()).extracting(Content::key).containsExactly("c.txt");
+	}
+
+	@Test
+	void listInKeyOrder() {
+		assertThat(lister().listObjects("test", null, ParallelObjectLister.Order.KEY).map(Content::key))
+			.containsExactlyElementsOf(this.keys);
+		assertThat(lister().listObjects("test", "b/", ParallelObjectLister.Order.KEY).map(Content::key))
+			.containsExactlyElementsOf(this.keys.stream().filter(k -> k.startsWith("b/")).toList());
+	}
+
+	@Test
+	void listUnordered() {
+		assertThat(lister().listObjects("test", null, ParallelObjectLister.Order.UNORDERED).map(Content::key))
+			.containsExactlyInAnyOrderElementsOf(this.keys);
+	}
+
+	@Test
+	void listWithBoundaries() {
+		List<String> boundaries = List.of("03.log", "a/05.log", "b/c/", "b/c/11.log");
+		assertThat(lister().listObjects("test", null, boundaries, ParallelObjectLister.Order.KEY).map(Content::key))
+			.containsExactlyElementsOf(this.keys);
+		assertThat(
+				lister().listObjects("test", "b/", boundaries, ParallelObjectLister.Order.UNORDERED).map(Content::key))
+			.containsExactlyInAnyOrderElementsOf(this.keys.stream().filter(k -> k.startsWith("b/")).toList());
+		assertThatThrownBy(() -> lister().listObjects("test", null, List.of("b", "a"), ParallelObjectLister.Order.KEY))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void listOnForkJoinPool() {
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			ParallelObjectLister lister = parallelObjectLister().restClient(this.restClient)
+				.config(this.server.config())
+				.executor(pool)
+				.build();
+			assertThat(lister.listObjects("test", null, ParallelObjectLister.Order.KEY).map(Content::key))
+				.containsExactlyElementsOf(this.keys);
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.ClientHttpRequest;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.PooledTransportFactoryBuilder.pooledTransportFactory;
+import static am.ik.s3.S3RequestBuilder.s3Request;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PooledTransportFactoryTest {
+
+	StubS3Server server;
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	AsyncS3Client client(PooledTransportFactory transportFactory) {
+		return AsyncS3ClientBuilder.asyncS3Client()
+			.restClient(RestClient.builder().requestFactory(transportFactory).build())
+			.config(this.server.config())
+			.build();
+	}
+
+	@Test
+	void connectionsAreLimitedAndReused() {
+		for (int i = 0; i < 50; i++) {
+			this.server.putObject("test", "obj-" + i, new byte[] { (byte) i });
+		}
+		AtomicInteger current = new AtomicInteger();
+		AtomicInteger max = new AtomicInteger();
+		Set<Integer> clientPorts = ConcurrentHashMap.newKeySet();
+		this.server.interceptor(exchange -> {
+			clientPorts.add(exchange.getRemoteAddress().getPort());
+			max.accumulateAndGet(current.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(5);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			current.decrementAndGet();
+			return false;
+		});
+		try (PooledTransportFactory transportFactory = pooledTransportFactory().maxConnectionsPerEndpoint(4).build()) {
+			AsyncS3Client client = client(transportFactory);
+			List<CompletableFuture<byte[]>> futures = IntStream.range(0, 50)
+				.mapToObj(i -> client.getObject("test", "obj-" + i))
+				.toList();
+			for (int i = 0; i < 50; i++) {
+				assertThat(futures.get(i).join()).containsExactly((byte) i);
+			}
+			assertThat(max.get()).isBetween(1, 4);
+			assertThat(clientPorts).hasSizeLessThanOrEqualTo(4);
+			TransportStats stats = transportFactory.stats(this.server.endpoint());
+			assertThat(stats.maxConnections()).isEqualTo(4);
+			assertThat(stats.requests()).isEqualTo(50);
+			assertThat(stats.inFlight()).isZero();
+			assertThat(stats.utilisation()).isZero();
+			assertThat(stats.newConnections()).isBetween(1L, 4L);
+			assertThat(stats.openConnections()).isBetween(1, 4);
+			assertThat(stats.reuseRatio()).isGreaterThanOrEqualTo(0.9);
+			assertThat(stats.maxWaitNanos()).isPositive();
+			assertThat(stats.averageWaitNanos()).isPositive();
+			assertThat(transportFactory.stats()).containsOnlyKeys("http://" + S3Request.host(this.server.endpoint()));
+		}
+	}
+
+	@Test
+	void chunkedUploadIsStreamed() {
+		byte[] data = new byte[200_000];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = (byte) i;
+		}
+		S3Config config = this.server.config();
+		try (PooledTransportFactory transportFactory = pooledTransportFactory().build()) {
+			RestClient restClient = RestClient.builder().requestFactory(transportFactory).build();
+			S3Request request = s3Request().endpoint(config.endpoint())
+				.region(config.region())
+				.accessKeyId(config.accessKeyId())
+				.secretAccessKey(config.secretAccessKey())
+				.method(HttpMethod.PUT)
+				.path(b -> b.bucket("test").key("large.bin"))
+				.chunkedContent(S3ChunkedContent.of(data.length, MediaType.APPLICATION_OCTET_STREAM))
+				.build();
+			restClient.put().uri(request.uri()).headers(request.headers()).body(out -> {
+				try (OutputStream chunked = request.chunkedOutputStream(out)) {
+					chunked.write(data);
+				}
+			}).retrieve().toBodilessEntity();
+			assertThat(this.server.getObject("test", "large.bin")).isEqualTo(data);
+			assertThat(transportFactory.stats(config.endpoint()).inFlight()).isZero();
+		}
+	}
+
+	@Test
+	void idlePoolIsEvicted() throws Exception {
+		this.server.putObject("test", "hello.txt", "Hello World!".getBytes());
+		try (PooledTransportFactory transportFactory = pooledTransportFactory().idleTimeout(Duration.ofMillis(50))
+			.build()) {
+			AsyncS3Client client = client(transportFactory);
+			assertThat(client.getObject("test", "hello.txt").join()).isEqualTo("Hello World!".getBytes());
+			long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+			while (transportFactory.stats(this.server.endpoint()).evictions() == 0 && System.nanoTime() < deadline) {
+				Thread.sleep(10);
+			}
+			TransportStats stats = transportFactory.stats(this.server.endpoint());
+			assertThat(stats.evictions()).isEqualTo(1);
+			assertThat(stats.openConnections()).isZero();
+			assertThat(client.getObject("test", "hello.txt").join()).isEqualTo("Hello World!".getBytes());
+			assertThat(transportFactory.stats(this.server.endpoint()).newConnections()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	void requestCreatedBeforeEvictionIsExecutedOnNewPool() throws Exception {
+		this.server.putObject("test", "hello.txt", "Hello World!".getBytes());
+		S3Config config = this.server.config();
+		try (PooledTransportFactory transportFactory = pooledTransportFactory().idleTimeout(Duration.ofMillis(10))
+			.build()) {
+			AsyncS3Client client = client(transportFactory);
+			assertThat(client.getObject("test", "hello.txt").join()).isEqualTo("Hello World!".getBytes());
+			S3Request request = s3Request().endpoint(config.endpoint())
+				.region(config.region())
+				.accessKeyId(config.accessKeyId())
+				.secretAccessKey(config.secretAccessKey())
+				.method(HttpMethod.GET)
+				.path(b -> b.bucket("test").key("hello.txt"))
+				.build();
+			ClientHttpRequest httpRequest = transportFactory.createRequest(request.uri(), HttpMethod.GET);
+			request.headers().accept(httpRequest.getHeaders());
+			// the idle pool is released between createRequest and execute
+			Thread.sleep(50);
+			transportFactory.evictIdlePools();
+			try (ClientHttpResponse response = httpRequest.execute()) {
+				assertThat(response.getStatusCode().is2xxSuccessful()).isTrue();
+				assertThat(response.getBody().readAllBytes()).isEqualTo("Hello World!".getBytes());
+			}
+			TransportStats stats = transportFactory.stats(config.endpoint());
+			assertThat(stats.evictions()).isEqualTo(1);
+			assertThat(stats.inFlight()).isZero();
+		}
+	}
+
+}
@@ -15,6 +15,8 @@
  */
 package am.ik.s3;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 import am.ik.spring.logbook.AccessLoggerSink;
@@ -194,4 +196,35 @@ class RestClientTest {
 		}
 	}
 
-}
\ No newline at end of file
+	@Test
+	void chunkedUpload() throws Exception {
+		String bucketName = "chunked";
+		{
+			S3Request request = partialS3Request().method(PUT).path(b -> b.bucket(bucketName)).build();
+			this.restClient.put().uri(request.uri()).headers(request.headers()).retrieve().toBodilessEntity();
+		}
+		byte[] body = new ClassPathResource("test.png").getContentAsByteArray();
+		{
+			S3Request request = partialS3Request().method(PUT)
+				.path(b -> b.bucket(bucketName).key("test.png"))
+				.chunkedContent(S3ChunkedContent.of(body.length, MediaType.IMAGE_PNG, S3ChunkedContent.MIN_CHUNK_SIZE))
+				.build();
+			this.restClient.put().uri(request.uri()).headers(request.headers()).body(out -> {
+				try (InputStream in = new ClassPathResource("test.png").getInputStream();
+						OutputStream chunked = request.chunkedOutputStream(out)) {
+					in.transferTo(chunked);
+				}
+			}).retrieve().toBodilessEntity();
+		}
+		{
+			S3Request request = partialS3Request().method(GET).path(b -> b.bucket(bucketName).key("test.png")).build();
+			byte[] downloaded = this.restClient.get()
+				.uri(request.uri())
+				.headers(request.headers())
+				.retrieve()
+				.body(byte[].class);
+			assertThat(downloaded).isEqualTo(body);
+		}
+	}
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.core.io.InputStreamResource;
+import org.springframework.http.MediaType;
+import org.springframework.web.client.RestTemplate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * {@link S3Client} against {@link StubS3Server}, see {@link S3ClientTest} for the
+ * LocalStack scenario.
+ */
+class S3ClientStubTest {
+
+	StubS3Server server;
+
+	S3Client s3Client;
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		S3Config config = this.server.config();
+		this.s3Client = new S3Client(new RestTemplate(), config.endpoint(), config.region(), config.accessKeyId(),
+				config.secretAccessKey());
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	@Test
+	void putInputStreamResource() {
+		byte[] data = "Hello World!".getBytes(StandardCharsets.UTF_8);
+		this.s3Client.putObject("test", "hello.txt", new InputStreamResource(new ByteArrayInputStream(data)),
+				MediaType.TEXT_PLAIN);
+		assertThat(this.server.getObject("test", "hello.txt")).isEqualTo(data);
+	}
+
+	@Test
+	void putByteArrayResource() {
+		byte[] data = "Hello World!".getBytes(StandardCharsets.UTF_8);
+		this.s3Client.putObject("test", "hello.txt", new ByteArrayResource(data), MediaType.TEXT_PLAIN);
+		assertThat(this.server.getObject("test", "hello.txt")).isEqualTo(data);
+		assertThat(this.s3Client.getObject("test", "hello.txt")).isEqualTo(data);
+	}
+
+}
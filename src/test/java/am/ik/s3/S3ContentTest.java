@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
+
+import static am.ik.s3.S3RequestBuilder.s3Request;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class S3ContentTest {
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void allVariantsAreSignedAndWrittenTheSame() throws Exception {
+		byte[] bytes = new byte[300_000];
+		new Random(1).nextBytes(bytes);
+		Path file = Files.write(this.tempDir.resolve("content.bin"), bytes);
+		ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 10);
+		direct.position(5);
+		direct.put(bytes);
+		direct.position(5).limit(5 + bytes.length);
+		List<S3Content> contents = List.of(S3Content.of(file, MediaType.APPLICATION_OCTET_STREAM),
+				S3Content.of(ByteBuffer.wrap(bytes), MediaType.APPLICATION_OCTET_STREAM),
+				S3Content.of(direct, MediaType.APPLICATION_OCTET_STREAM),
+				S3Content.of(() -> new ByteArrayInputStream(bytes), bytes.length, MediaType.APPLICATION_OCTET_STREAM));
+		HttpHeaders expected = headers(S3Content.of(bytes, MediaType.APPLICATION_OCTET_STREAM));
+		for (S3Content content : contents) {
+			assertThat(content.contentLength()).isEqualTo(bytes.length);
+			assertThat(headers(content)).isEqualTo(expected);
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			content.writeTo(out);
+			assertThat(out.toByteArray()).isEqualTo(bytes);
+			Resource resource = content.toResource();
+			assertThat(resource.contentLength()).isEqualTo(bytes.length);
+			assertThat(resource.getContentAsByteArray()).isEqualTo(bytes);
+		}
+		// the buffer is not consumed
+		assertThat(direct.position()).isEqualTo(5);
+	}
+
+	@Test
+	void bodyIsOnlyAvailableForByteArray() {
+		assertThat(S3Content.of("Hello", MediaType.TEXT_PLAIN).body()).isEqualTo("Hello".getBytes());
+		assertThatThrownBy(() -> S3Content.of(ByteBuffer.allocate(1), MediaType.TEXT_PLAIN).body())
+			.isInstanceOf(IllegalStateException.class);
+	}
+
+	@Test
+	void fileThatShrankIsRejected() throws Exception {
+		Path file = Files.write(this.tempDir.resolve("shrinking.bin"), new byte[100_000]);
+		S3Content content = S3Content.of(file, MediaType.APPLICATION_OCTET_STREAM);
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(50_000);
+		}
+		assertThatThrownBy(() -> content.writeTo(new ByteArrayOutputStream())).isInstanceOf(IOException.class)
+			.hasMessageContaining("shrank: expected 100000 bytes but was 50000");
+		assertThatThrownBy(() -> headers(content)).isInstanceOf(UncheckedIOException.class)
+			.hasMessageContaining("shrank: expected 100000 bytes but was 50000");
+	}
+
+	static HttpHeaders headers(S3Content content) {
+		S3Request request = s3Request().endpoint(URI.create("http://localhost:4566"))
+			.region("us-east-1")
+			.accessKeyId("key")
+			.secretAccessKey("secret")
+			.method(HttpMethod.PUT)
+			.path(b -> b.bucket("test").key("content.bin"))
+			.content(content)
+			.clock(Clock.fixed(Instant.parse("2023-10-17T10:15:30Z"), ZoneOffset.UTC))
+			.build();
+		HttpHeaders headers = new HttpHeaders();
+		request.headers().accept(headers);
+		return headers;
+	}
+
+}
@@ -15,8 +15,13 @@
  */
 package am.ik.s3;
 
+import java.util.List;
+import java.util.Random;
+
 import org.junit.jupiter.api.Test;
 
+import org.springframework.web.util.UriComponentsBuilder;
+
 import static am.ik.s3.S3PathBuilder.s3Path;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -37,4 +42,95 @@ class S3PathTest {
 		assertThat(s3Path.toCanonicalUri()).isEqualTo("/foo/%25a");
 	}
 
-}
\ No newline at end of file
+	@Test
+	void toCanonicalUriWithoutBucket() {
+		S3Path s3Path = s3Path().key("test.txt").build();
+		assertThat(s3Path.toCanonicalUri()).isEqualTo("/test.txt");
+	}
+
+	@Test
+	void encodeKeySameAsReferenceImplementation() {
+		List<String> keys = List.of("", "logs/2026/10/17/part-0001.gz", "a b", "%a", "~user/.hidden_file-1",
+				"photos/2023 summer/IMG (1) [edited] #3 & friends+family=love;@home!.jpeg", "!#$&'()*+,:;=@[]{}",
+				"\"<>\\^`|?", "日本語/ファイル.txt", "émoji 😀.png", "tab\tnew\nline", "\u007F\u0080\u07FF\u0800\uFFFF",
+				"lone \uD83D surrogate", "reversed \uDE00\uD83D");
+		for (String key : keys) {
+			assertThat(S3Path.encodeKey(key)).as(key).isEqualTo(referenceEncodeKey(key));
+		}
+		Random random = new Random(20231017L);
+		for (int i = 0; i < 10_000; i++) {
+			String key = randomKey(random, 1, 64);
+			if (key.matches("(?s).*\\{.*}.*") || key.contains("//")) {
+				// the reference implementation treats braces as URI template variables
+				// and collapses repeated slashes
+				continue;
+			}
+			assertThat(S3Path.encodeKey(key)).as(key).isEqualTo(referenceEncodeKey(key));
+		}
+	}
+
+	@Test
+	void encodeKeyWithBraces() {
+		assertThat(S3Path.encodeKey("{x<y}/ä")).isEqualTo("%7Bx%3Cy%7D/%C3%A4");
+	}
+
+	@Test
+	void encodeKeyKeepsRepeatedSlashes() {
+		assertThat(S3Path.encodeKey("a//b c")).isEqualTo("a//b%20c");
+	}
+
+	@Test
+	void encodeKeyReturnsUnescapedKeyAsIs() {
+		String key = "logs/2026/10/17/part-0001.gz";
+		assertThat(S3Path.encodeKey(key)).isSameAs(key);
+	}
+
+	// The encoding implementation used before the single-pass encoder was introduced
+	// printable ASCII mixed with 2, 3 and 4 byte UTF-8 characters
+	static String randomKey(Random random, int minLength, int maxLength) {
+		int length = minLength + random.nextInt(maxLength - minLength + 1);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			int type = random.nextInt(10);
+			if (type < 7) {
+				sb.append((char) ('!' + random.nextInt('~' - '!' + 1)));
+			}
+			else if (type < 8) {
+				sb.append((char) (0x80 + random.nextInt(0x780)));
+			}
+			else if (type < 9) {
+				sb.append((char) (0x3040 + random.nextInt(0x100)));
+			}
+			else {
+				sb.appendCodePoint(0x1F600 + random.nextInt(0x50));
+			}
+		}
+		return sb.toString();
+	}
+
+	static String referenceEncodeKey(String key) {
+		String encodedKey = UriComponentsBuilder.fromPath(key).encode().build().getPath();
+		if (encodedKey == null) {
+			return null;
+		}
+		return encodedKey.replace("!", "%21")
+			.replace("#", "%23")
+			.replace("$", "%24")
+			.replace("&", "%26")
+			.replace("'", "%27")
+			.replace("(", "%28")
+			.replace(")", "%29")
+			.replace("*", "%2A")
+			.replace("+", "%2B")
+			.replace(",", "%2C")
+			.replace(":", "%3A")
+			.replace(";", "%3B")
+			.replace("=", "%3D")
+			.replace("@", "%40")
+			.replace("[", "%5B")
+			.replace("]", "%5D")
+			.replace("{", "%7B")
+			.replace("}", "%7D");
+	}
+
+}
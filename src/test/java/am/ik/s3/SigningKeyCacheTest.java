@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.net.URI;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+
+import static am.ik.s3.S3RequestBuilder.s3Request;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SigningKeyCacheTest {
+
+	static final Clock clock = Clock.fixed(Instant.parse("2023-10-17T10:15:30Z"), ZoneOffset.UTC);
+
+	@Test
+	void cachedSignatureIsSameAsUncached() {
+		SigningKeyCache cache = new SigningKeyCache(16);
+		String uncached = authorization(SigningKeyCache.disabled(), "secret");
+		assertThat(authorization(cache, "secret")).isEqualTo(uncached);
+		assertThat(cache.size()).isEqualTo(1);
+		assertThat(authorization(cache, "secret")).isEqualTo(uncached);
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	void rotatedSecretIsNotServedFromCache() {
+		SigningKeyCache cache = new SigningKeyCache(16);
+		String before = authorization(cache, "secret");
+		String after = authorization(cache, "rotated");
+		assertThat(after).isNotEqualTo(before);
+		assertThat(after).isEqualTo(authorization(SigningKeyCache.disabled(), "rotated"));
+	}
+
+	@Test
+	void signingKeyIsDerivedOncePerDay() {
+		SigningKeyCache cache = new SigningKeyCache(16);
+		AtomicInteger derived = new AtomicInteger();
+		for (int i = 0; i < 10; i++) {
+			cache.signingKey("key", "secret", "20231017", "us-east-1", "s3", () -> {
+				derived.incrementAndGet();
+				return new byte[0];
+			});
+		}
+		assertThat(derived).hasValue(1);
+		cache.signingKey("key", "secret", "20231018", "us-east-1", "s3", () -> {
+			derived.incrementAndGet();
+			return new byte[0];
+		});
+		assertThat(derived).hasValue(2);
+		// the key of the previous day has expired
+		assertThat(cache.size()).isEqualTo(1);
+	}
+
+	@Test
+	void sizeIsBounded() {
+		SigningKeyCache cache = new SigningKeyCache(4);
+		for (int i = 0; i < 100; i++) {
+			cache.signingKey("key" + i, "secret", "20231017", "us-east-1", "s3", () -> new byte[0]);
+		}
+		assertThat(cache.size()).isLessThanOrEqualTo(4);
+	}
+
+	static String authorization(SigningKeyCache cache, String secretAccessKey) {
+		S3Request request = s3Request().endpoint(URI.create("http://localhost:4566"))
+			.region("us-east-1")
+			.accessKeyId("key")
+			.secretAccessKey(secretAccessKey)
+			.method(HttpMethod.GET)
+			.path(b -> b.bucket("test").key("hello.txt"))
+			.clock(clock)
+			.signingKeyCache(cache)
+			.build();
+		HttpHeaders headers = new HttpHeaders();
+		request.headers().accept(headers);
+		return headers.getFirst(HttpHeaders.AUTHORIZATION);
+	}
+
+}
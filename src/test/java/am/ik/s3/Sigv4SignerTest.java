@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.jupiter.api.Test;
+
+import org.springframework.http.HttpHeaders;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class Sigv4SignerTest {
+
+	static final List<String> methods = List.of("GET", "PUT", "POST", "DELETE", "HEAD");
+
+	static final List<String> headerNames = List.of(HttpHeaders.CONTENT_LENGTH, HttpHeaders.CONTENT_TYPE,
+			HttpHeaders.RANGE, HttpHeaders.IF_NONE_MATCH, "Content-MD5", "x-amz-meta-owner");
+
+	@Test
+	void sameAsReferenceImplementation() throws Exception {
+		Random random = new Random(20231017L);
+		for (int i = 0; i < 1_000; i++) {
+			String method = methods.get(random.nextInt(methods.size()));
+			String canonicalUri = "/" + randomString(random, 0, 64);
+			String canonicalQueryString = random.nextBoolean() ? ""
+					: "list-type=2&prefix=" + randomString(random, 0, 8);
+			String secretAccessKey = randomString(random, 20, 40);
+			String accessKeyId = randomString(random, 16, 20);
+			String region = random.nextBoolean() ? "us-east-1" : "ap-northeast-1";
+			AmzDate amzDate = new AmzDate(Instant.ofEpochSecond(random.nextInt(2_000_000_000)));
+			String payloadHash = HexFormat.of().formatHex(sha256(randomString(random, 0, 256).getBytes()));
+			TreeMap<String, String> expectedHeaders = new TreeMap<>();
+			Sigv4Signer signer = Sigv4Signer.current();
+			Sigv4Signer.Headers headers = signer.headers();
+			expectedHeaders.put(HttpHeaders.HOST, "localhost:4566");
+			headers.add(HttpHeaders.HOST, "localhost:4566");
+			for (String name : headerNames) {
+				if (random.nextBoolean()) {
+					String value = randomString(random, 1, 32);
+					expectedHeaders.put(name, value);
+					headers.add(name, value);
+				}
+			}
+			expectedHeaders.put(AmzHttpHeaders.X_AMZ_DATE, amzDate.date());
+			headers.add(AmzHttpHeaders.X_AMZ_DATE, amzDate.date());
+			expectedHeaders.put(AmzHttpHeaders.X_AMZ_CONTENT_SHA256, payloadHash);
+			headers.add(AmzHttpHeaders.X_AMZ_CONTENT_SHA256, payloadHash);
+
+			String expected = referenceAuthorization(method, canonicalUri, canonicalQueryString, expectedHeaders,
+					payloadHash, amzDate, region, accessKeyId, secretAccessKey);
+			String credentialScope = amzDate.yymmdd() + "/" + region + "/s3/aws4_request";
+			byte[] signingKey = S3Request.signingKey(secretAccessKey, amzDate.yymmdd(), region, "s3");
+			String actual = signer.authorization(method, canonicalUri, canonicalQueryString, headers, payloadHash,
+					amzDate, credentialScope, accessKeyId, signingKey);
+			assertThat(actual).isEqualTo(expected);
+			assertThat(signer.sha256Hex(canonicalUri.getBytes(StandardCharsets.UTF_8)))
+				.isEqualTo(HexFormat.of().formatHex(sha256(canonicalUri.getBytes(StandardCharsets.UTF_8))));
+		}
+	}
+
+	static String randomString(Random random, int minLength, int maxLength) {
+		int length = minLength + random.nextInt(maxLength - minLength + 1);
+		StringBuilder sb = new StringBuilder(length);
+		for (int i = 0; i < length; i++) {
+			int type = random.nextInt(10);
+			if (type < 7) {
+				sb.append((char) ('!' + random.nextInt('~' - '!' + 1)));
+			}
+			else if (type < 8) {
+				sb.append((char) (0x80 + random.nextInt(0x780)));
+			}
+			else if (type < 9) {
+				sb.append((char) (0x3040 + random.nextInt(0x100)));
+			}
+			else {
+				sb.appendCodePoint(0x1F600 + random.nextInt(0x50));
+			}
+		}
+		return sb.toString();
+	}
+
+	// The signing implementation used before Sigv4Signer was introduced
+	static String referenceAuthorization(String method, String canonicalUri, String canonicalQueryString,
+			TreeMap<String, String> headers, String payloadHash, AmzDate amzDate, String region, String accessKeyId,
+			String secretAccessKey) throws Exception {
+		String canonicalHeaders = headers.entrySet()
+			.stream()
+			.map(e -> "%s:%s".formatted(e.getKey().toLowerCase(), e.getValue()))
+			.collect(Collectors.joining("\n")) + "\n";
+		String signedHeaders = headers.keySet().stream().map(String::toLowerCase).collect(Collectors.joining(";"));
+		String canonicalRequest = String.join("\n", method, canonicalUri, canonicalQueryString, canonicalHeaders,
+				signedHeaders, payloadHash);
+		String hashedCanonicalRequest = encodeHex(sha256(canonicalRequest.getBytes(StandardCharsets.UTF_8)));
+		String credentialScope = "%s/%s/s3/aws4_request".formatted(amzDate.yymmdd(), region);
+		String stringToSign = String.join("\n", S3Request.AWS4_HMAC_SHA256, amzDate.date(), credentialScope,
+				hashedCanonicalRequest);
+		byte[] kSecret = ("AWS4" + secretAccessKey).getBytes(StandardCharsets.UTF_8);
+		byte[] kDate = hmacSHA256(amzDate.yymmdd(), kSecret);
+		byte[] kRegion = hmacSHA256(region, kDate);
+		byte[] kService = hmacSHA256("s3", kRegion);
+		byte[] kSigning = hmacSHA256("aws4_request", kService);
+		String signature = encodeHex(hmacSHA256(stringToSign, kSigning));
+		String credential = "%s/%s".formatted(accessKeyId, credentialScope);
+		return "%s Credential=%s,SignedHeaders=%s,Signature=%s".formatted(S3Request.AWS4_HMAC_SHA256, credential,
+				signedHeaders, signature);
+	}
+
+	static byte[] sha256(byte[] data) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(data);
+	}
+
+	static byte[] hmacSHA256(String data, byte[] key) throws Exception {
+		Mac mac = Mac.getInstance("HmacSHA256");
+		mac.init(new SecretKeySpec(key, "HmacSHA256"));
+		return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+	}
+
+	static String encodeHex(byte[] data) {
+		HexFormat hex = HexFormat.of();
+		StringBuilder sb = new StringBuilder();
+		for (byte datum : data) {
+			sb.append(hex.toHexDigits(datum));
+		}
+		return sb.toString();
+	}
+
+}
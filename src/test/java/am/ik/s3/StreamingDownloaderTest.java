@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+
+import com.sun.management.ThreadMXBean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.StreamingDownloaderBuilder.streamingDownloader;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StreamingDownloaderTest {
+
+	static final long HUGE_LENGTH = 256L * 1024 * 1024;
+
+	static final long MAX_ALLOCATION = 16L * 1024 * 1024;
+
+	@TempDir
+	Path tempDir;
+
+	StubS3Server server;
+
+	StreamingDownloader downloader;
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		this.server.putObject("test", "hello.txt", "Hello World!".getBytes());
+		// generated on the fly so that the server does not hold the object either
+		this.server.interceptor(exchange -> {
+			if (!exchange.getRequestURI().getPath().equals("/test/huge.bin")) {
+				return false;
+			}
+			exchange.sendResponseHeaders(200, HUGE_LENGTH);
+			try (OutputStream out = exchange.getResponseBody()) {
+				byte[] block = new byte[64 * 1024];
+				for (long written = 0; written < HUGE_LENGTH; written += block.length) {
+					fill(block, written);
+					out.write(block);
+				}
+			}
+			return true;
+		});
+		this.downloader = streamingDownloader().restClient(RestClient.create()).config(this.server.config()).build();
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	@Test
+	void downloadToOutputStream() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		long length = this.downloader.download("test", "hello.txt", out);
+		assertThat(length).isEqualTo(12);
+		assertThat(out.toString()).isEqualTo("Hello World!");
+	}
+
+	@Test
+	void downloadToFile() throws Exception {
+		Path target = this.tempDir.resolve("hello.txt");
+		DownloadResult result = this.downloader.download("test", "hello.txt", target);
+		assertThat(result.contentLength()).isEqualTo(12);
+		assertThat(result.etag()).isEqualTo(StubS3Server.etag("Hello World!".getBytes()));
+		assertThat(target).hasContent("Hello World!");
+	}
+
+	@Test
+	void deleteFileOnFailure() {
+		Path target = this.tempDir.resolve("missing.txt");
+		assertThatThrownBy(() -> this.downloader.download("test", "missing.txt", target))
+			.isInstanceOf(HttpClientErrorException.NotFound.class);
+		assertThat(target).doesNotExist();
+	}
+
+	@Test
+	void streamLargeObjectToFileWithBoundedAllocation() throws Exception {
+		Path target = this.tempDir.resolve("huge.bin");
+		long allocated = allocatedBytes();
+		DownloadResult result = this.downloader.download("test", "huge.bin", target);
+		assertThat(allocatedBytes() - allocated).isLessThan(MAX_ALLOCATION);
+		assertThat(result.contentLength()).isEqualTo(HUGE_LENGTH);
+		assertThat(Files.size(target)).isEqualTo(HUGE_LENGTH);
+		try (FileChannel channel = FileChannel.open(target, StandardOpenOption.READ)) {
+			ByteBuffer actual = ByteBuffer.allocate(64 * 1024);
+			byte[] expected = new byte[actual.capacity()];
+			long position = HUGE_LENGTH - expected.length;
+			channel.read(actual, position);
+			fill(expected, position);
+			assertThat(actual.array()).isEqualTo(expected);
+		}
+	}
+
+	@Test
+	void streamLargeObjectToChannelWithBoundedAllocation() throws Exception {
+		MessageDigest actual = MessageDigest.getInstance("SHA-256");
+		WritableByteChannel channel = new WritableByteChannel() {
+			@Override
+			public int write(ByteBuffer src) {
+				int n = src.remaining();
+				actual.update(src);
+				return n;
+			}
+
+			@Override
+			public boolean isOpen() {
+				return true;
+			}
+
+			@Override
+			public void close() {
+			}
+		};
+		long allocated = allocatedBytes();
+		long length = this.downloader.download("test", "huge.bin", channel);
+		assertThat(allocatedBytes() - allocated).isLessThan(MAX_ALLOCATION);
+		assertThat(length).isEqualTo(HUGE_LENGTH);
+		MessageDigest expected = MessageDigest.getInstance("SHA-256");
+		byte[] block = new byte[64 * 1024];
+		for (long written = 0; written < HUGE_LENGTH; written += block.length) {
+			fill(block, written);
+			expected.update(block);
+		}
+		assertThat(actual.digest()).isEqualTo(expected.digest());
+	}
+
+	static void fill(byte[] block, long offset) {
+		for (int i = 0; i < block.length; i++) {
+			long position = offset + i;
+			block[i] = (byte) (position ^ (position >>> 13));
+		}
+	}
+
+	static long allocatedBytes() {
+		return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+	}
+
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal in-memory S3 stand-in for tests that need to inspect or inject faults into the
+ * HTTP exchanges. Signatures are not verified.
+ */
+class StubS3Server implements AutoCloseable {
+
+	private final HttpServer server;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final ConcurrentSkipListMap<String, byte[]> objects = new ConcurrentSkipListMap<>();
+
+	// "/bucket/key\0versionId", delete markers are mapped to DELETE_MARKER
+	private final ConcurrentSkipListMap<String, byte[]> versions = new ConcurrentSkipListMap<>();
+
+	private static final byte[] DELETE_MARKER = new byte[0];
+
+	private static final Pattern DELETE_OBJECT = Pattern
+		.compile("<Object><Key>(.*?)</Key>(?:<VersionId>(.*?)</VersionId>)?</Object>");
+
+	private final List<String> requests = new CopyOnWriteArrayList<>();
+
+	private final Set<String> deniedKeys = ConcurrentHashMap.newKeySet();
+
+	private volatile Interceptor interceptor = exchange -> false;
+
+	StubS3Server() throws IOException {
+		this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.server.setExecutor(this.executor);
+		this.server.createContext("/", exchange -> {
+			try (exchange) {
+				this.requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI());
+				if (!this.interceptor.intercept(exchange)) {
+					this.handle(exchange);
+				}
+			}
+		});
+		this.server.start();
+	}
+
+	URI endpoint() {
+		return URI.create("http://127.0.0.1:" + this.server.getAddress().getPort());
+	}
+
+	S3Config config() {
+		return S3ConfigBuilder.s3Config()
+			.endpoint(this.endpoint())
+			.region("us-east-1")
+			.accessKeyId("accessKeyId")
+			.secretAccessKey("secretAccessKey")
+			.build();
+	}
+
+	void putObject(String bucket, String key, byte[] body) {
+		this.objects.put("/" + bucket + "/" + key, body);
+	}
+
+	void putVersion(String bucket, String key, String versionId, byte[] body) {
+		this.versions.put("/" + bucket + "/" + key + "\0" + versionId, body);
+	}
+
+	void putDeleteMarker(String bucket, String key, String versionId) {
+		this.versions.put("/" + bucket + "/" + key + "\0" + versionId, DELETE_MARKER);
+	}
+
+	/**
+	 * Returns the number of versions and delete markers in the bucket.
+	 */
+	int versionCount(String bucket) {
+		String bucketPath = "/" + bucket + "/";
+		return this.versions.subMap(bucketPath, bucketPath + Character.MAX_VALUE).size();
+	}
+
+	/**
+	 * Makes the key fail with {@code AccessDenied} in {@code DeleteObjects} responses.
+	 */
+	void denyDelete(String key) {
+		this.deniedKeys.add(key);
+	}
+
+	byte[] getObject(String bucket, String key) {
+		return this.objects.get("/" + bucket + "/" + key);
+	}
+
+	/**
+	 * Requests received so far in the form of {@code METHOD /path?query}.
+	 */
+	List<String> requests() {
+		return this.requests;
+	}
+
+	/**
+	 * Sets an interceptor that can respond to a request instead of the stub.
+	 */
+	void interceptor(Interceptor interceptor) {
+		this.interceptor = interceptor;
+	}
+
+	static String etag(byte[] body) {
+		return "\"" + HexFormat.of().formatHex(digest("MD5", body)) + "\"";
+	}
+
+	static byte[] digest(String algorithm, byte[] data) {
+		try {
+			return MessageDigest.getInstance(algorithm).digest(data);
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getRawPath();
+		String method = exchange.getRequestMethod();
+		byte[] requestBody = exchange.getRequestBody().readAllBytes();
+		if (method.equals("PUT")) {
+			if ("aws-chunked".equals(exchange.getRequestHeaders().getFirst("Content-Encoding"))) {
+				requestBody = decodeAwsChunked(requestBody);
+			}
+			this.objects.put(path, requestBody);
+			exchange.getResponseHeaders().add("ETag", etag(requestBody));
+			exchange.sendResponseHeaders(200, -1);
+			return;
+		}
+		if (method.equals("POST") && queryParams(exchange.getRequestURI().getRawQuery()).containsKey("delete")) {
+			this.deleteObjects(exchange, path.substring(1), requestBody);
+			return;
+		}
+		if (method.equals("DELETE") && path.indexOf('/', 1) < 0) {
+			String bucketPath = path + "/";
+			if (!this.objects.subMap(bucketPath, bucketPath + Character.MAX_VALUE).isEmpty()
+					|| !this.versions.subMap(bucketPath, bucketPath + Character.MAX_VALUE).isEmpty()) {
+				sendError(exchange, 409, "BucketNotEmpty");
+				return;
+			}
+			exchange.sendResponseHeaders(204, -1);
+			return;
+		}
+		if (method.equals("DELETE")) {
+			String versionId = queryParams(exchange.getRequestURI().getRawQuery()).get("versionId");
+			if (versionId != null) {
+				this.versions.remove(URLDecoder.decode(path, StandardCharsets.UTF_8) + "\0" + versionId);
+			}
+			this.objects.remove(path);
+			exchange.sendResponseHeaders(204, -1);
+			return;
+		}
+		if (method.equals("GET") && path.indexOf('/', 1) < 0
+				&& queryParams(exchange.getRequestURI().getRawQuery()).containsKey("versions")) {
+			this.listObjectVersions(exchange, path.substring(1));
+			return;
+		}
+		if (method.equals("GET") && path.indexOf('/', 1) < 0) {
+			this.listObjectsV2(exchange, path.substring(1));
+			return;
+		}
+		String versionId = queryParams(exchange.getRequestURI().getRawQuery()).get("versionId");
+		byte[] body = versionId == null ? this.objects.get(path)
+				: this.versions.get(URLDecoder.decode(path, StandardCharsets.UTF_8) + "\0" + versionId);
+		if (body == null || body == DELETE_MARKER) {
+			sendError(exchange, 404, "NoSuchKey");
+			return;
+		}
+		String etag = etag(body);
+		exchange.getResponseHeaders().add("ETag", etag);
+		exchange.getResponseHeaders().add("Accept-Ranges", "bytes");
+		String ifMatch = exchange.getRequestHeaders().getFirst("If-Match");
+		if (ifMatch != null && !ifMatch.equals(etag)) {
+			sendError(exchange, 412, "PreconditionFailed");
+			return;
+		}
+		String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+		if (ifNoneMatch != null && ifNoneMatch.equals(etag)) {
+			exchange.sendResponseHeaders(304, -1);
+			return;
+		}
+		int status = 200;
+		int start = 0;
+		int end = body.length - 1;
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		if (range != null && range.startsWith("bytes=")) {
+			String[] bounds = range.substring("bytes=".length()).split("-", 2);
+			start = Integer.parseInt(bounds[0]);
+			end = bounds[1].isEmpty() ? body.length - 1 : Math.min(Integer.parseInt(bounds[1]), body.length - 1);
+			status = 206;
+			exchange.getResponseHeaders().add("Content-Range", "bytes %d-%d/%d".formatted(start, end, body.length));
+		}
+		int length = end - start + 1;
+		if (method.equals("HEAD")) {
+			exchange.getResponseHeaders().add("Content-Length", String.valueOf(length));
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		exchange.sendResponseHeaders(status, length == 0 ? -1 : length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body, start, length);
+		}
+	}
+
+	private void listObjectsV2(HttpExchange exchange, String bucket) throws IOException {
+		Map<String, String> params = queryParams(exchange.getRequestURI().getRawQuery());
+		String prefix = params.getOrDefault("prefix", "");
+		String delimiter = params.getOrDefault("delimiter", "");
+		int maxKeys = Integer.parseInt(params.getOrDefault("max-keys", "1000"));
+		String token = params.get("continuation-token");
+		String startAfter = token != null ? new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8)
+				: params.getOrDefault("start-after", "");
+		String bucketPath = "/" + bucket + "/";
+		// S3 returns all Contents before CommonPrefixes
+		StringBuilder entries = new StringBuilder();
+		StringBuilder commonPrefixes = new StringBuilder();
+		int keyCount = 0;
+		String last = null;
+		boolean truncated = false;
+		for (Map.Entry<String, byte[]> entry : this.objects.tailMap(bucketPath + startAfter, false).entrySet()) {
+			if (!entry.getKey().startsWith(bucketPath)) {
+				break;
+			}
+			String key = entry.getKey().substring(bucketPath.length());
+			if (!key.startsWith(prefix)) {
+				if (key.compareTo(prefix) > 0) {
+					break;
+				}
+				continue;
+			}
+			int index = delimiter.isEmpty() ? -1 : key.indexOf(delimiter, prefix.length());
+			String commonPrefix = index < 0 ? null : key.substring(0, index + delimiter.length());
+			if (commonPrefix != null && last != null && last.startsWith(commonPrefix)) {
+				continue;
+			}
+			if (keyCount == maxKeys) {
+				truncated = true;
+				break;
+			}
+			keyCount++;
+			if (commonPrefix != null) {
+				commonPrefixes
+					.append("<CommonPrefixes><Prefix>%s</Prefix></CommonPrefixes>".formatted(escape(commonPrefix)));
+				// skip the rest of the common prefix
+				last = commonPrefix + Character.MAX_VALUE;
+			}
+			else {
+				entries.append("""
+						<Contents><Key>%s</Key><LastModified>2023-10-17T10:15:30.000Z</LastModified>\
+						<ETag>%s</ETag><Size>%d</Size><StorageClass>STANDARD</StorageClass></Contents>"""
+					.formatted(escape(key), escape(etag(entry.getValue())), entry.getValue().length));
+				last = key;
+			}
+		}
+		String nextToken = truncated ? Base64.getUrlEncoder().encodeToString(last.getBytes(StandardCharsets.UTF_8))
+				: null;
+		String xml = """
+				<?xml version="1.0" encoding="UTF-8"?>
+				<ListBucketResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/"><Name>%s</Name><Prefix>%s</Prefix>\
+				<MaxKeys>%d</MaxKeys><KeyCount>%d</KeyCount><IsTruncated>%s</IsTruncated>%s%s%s%s%s</ListBucketResult>"""
+			.formatted(bucket, escape(prefix), maxKeys, keyCount, truncated,
+					token == null ? "" : "<ContinuationToken>" + token + "</ContinuationToken>",
+					nextToken == null ? "" : "<NextContinuationToken>" + nextToken + "</NextContinuationToken>",
+					delimiter.isEmpty() ? "" : "<Delimiter>" + escape(delimiter) + "</Delimiter>", entries,
+					commonPrefixes);
+		byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/xml");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void listObjectVersions(HttpExchange exchange, String bucket) throws IOException {
+		Map<String, String> params = queryParams(exchange.getRequestURI().getRawQuery());
+		String prefix = params.getOrDefault("prefix", "");
+		int maxKeys = Integer.parseInt(params.getOrDefault("max-keys", "1000"));
+		String keyMarker = params.getOrDefault("key-marker", "");
+		String versionIdMarker = params.getOrDefault("version-id-marker", "");
+		String bucketPath = "/" + bucket + "/";
+		String from = keyMarker.isEmpty() ? bucketPath
+				: bucketPath + keyMarker + "\0" + (versionIdMarker.isEmpty() ? Character.MAX_VALUE : versionIdMarker);
+		StringBuilder entries = new StringBuilder();
+		int count = 0;
+		String lastKey = null;
+		String lastVersionId = null;
+		boolean truncated = false;
+		for (Map.Entry<String, byte[]> entry : this.versions.tailMap(from, false).entrySet()) {
+			if (!entry.getKey().startsWith(bucketPath + prefix)) {
+				break;
+			}
+			if (count == maxKeys) {
+				truncated = true;
+				break;
+			}
+			count++;
+			String[] keyVersion = entry.getKey().substring(bucketPath.length()).split("\0", 2);
+			lastKey = keyVersion[0];
+			lastVersionId = keyVersion[1];
+			if (entry.getValue() == DELETE_MARKER) {
+				entries.append("""
+						<DeleteMarker><Key>%s</Key><VersionId>%s</VersionId><IsLatest>false</IsLatest>\
+						<LastModified>2023-10-17T10:15:30.000Z</LastModified></DeleteMarker>"""
+					.formatted(escape(lastKey), escape(lastVersionId)));
+			}
+			else {
+				entries.append("""
+						<Version><Key>%s</Key><VersionId>%s</VersionId><IsLatest>false</IsLatest>\
+						<LastModified>2023-10-17T10:15:30.000Z</LastModified><ETag>%s</ETag><Size>%d</Size>\
+						<StorageClass>STANDARD</StorageClass></Version>""".formatted(escape(lastKey),
+						escape(lastVersionId), escape(etag(entry.getValue())), entry.getValue().length));
+			}
+		}
+		String xml = """
+				<?xml version="1.0" encoding="UTF-8"?>
+				<ListVersionsResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/"><Name>%s</Name><Prefix>%s</Prefix>\
+				<KeyMarker>%s</KeyMarker><VersionIdMarker>%s</VersionIdMarker>%s<MaxKeys>%d</MaxKeys>\
+				<IsTruncated>%s</IsTruncated>%s</ListVersionsResult>""".formatted(bucket, escape(prefix),
+				escape(keyMarker), escape(versionIdMarker),
+				truncated ? "<NextKeyMarker>%s</NextKeyMarker><NextVersionIdMarker>%s</NextVersionIdMarker>"
+					.formatted(escape(lastKey), escape(lastVersionId)) : "",
+				maxKeys, truncated, entries);
+		byte[] body = xml.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/xml");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void deleteObjects(HttpExchange exchange, String bucket, byte[] requestBody) throws IOException {
+		String contentMd5 = exchange.getRequestHeaders().getFirst("Content-MD5");
+		if (contentMd5 == null || !contentMd5.equals(Base64.getEncoder().encodeToString(digest("MD5", requestBody)))) {
+			sendError(exchange, 400, "InvalidDigest");
+			return;
+		}
+		String xml = new String(requestBody, StandardCharsets.UTF_8);
+		boolean quiet = xml.contains("<Quiet>true</Quiet>");
+		StringBuilder results = new StringBuilder();
+		Matcher matcher = DELETE_OBJECT.matcher(xml);
+		while (matcher.find()) {
+			String key = unescape(matcher.group(1));
+			String versionId = matcher.group(2) == null ? null : unescape(matcher.group(2));
+			String versionIdElement = versionId == null ? "" : "<VersionId>" + escape(versionId) + "</VersionId>";
+			if (this.deniedKeys.contains(key)) {
+				results.append("<Error><Key>%s</Key>%s<Code>AccessDenied</Code><Message>Access Denied</Message></Error>"
+					.formatted(escape(key), versionIdElement));
+				continue;
+			}
+			if (versionId != null) {
+				this.versions.remove("/" + bucket + "/" + key + "\0" + versionId);
+			}
+			else {
+				this.objects.remove("/" + bucket + "/" + key);
+			}
+			if (!quiet) {
+				results.append("<Deleted><Key>%s</Key>%s</Deleted>".formatted(escape(key), versionIdElement));
+			}
+		}
+		byte[] body = """
+				<?xml version="1.0" encoding="UTF-8"?>
+				<DeleteResult xmlns="http://s3.amazonaws.com/doc/2006-03-01/">%s</DeleteResult>""".formatted(results)
+			.getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().add("Content-Type", "application/xml");
+		exchange.sendResponseHeaders(200, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	/**
+	 * Decodes an {@code aws-chunked} body without verifying the chunk signatures.
+	 */
+	static byte[] decodeAwsChunked(byte[] body) {
+		ByteArrayOutputStream decoded = new ByteArrayOutputStream(body.length);
+		int position = 0;
+		while (true) {
+			int lineEnd = position;
+			while (body[lineEnd] != '\r' || body[lineEnd + 1] != '\n') {
+				lineEnd++;
+			}
+			String header = new String(body, position, lineEnd - position, StandardCharsets.US_ASCII);
+			int size = Integer.parseInt(header.substring(0, header.indexOf(';')), 16);
+			decoded.write(body, lineEnd + 2, size);
+			position = lineEnd + 2 + size + 2;
+			if (size == 0) {
+				return decoded.toByteArray();
+			}
+		}
+	}
+
+	static Map<String, String> queryParams(String rawQuery) {
+		Map<String, String> params = new HashMap<>();
+		if (rawQuery != null && !rawQuery.isEmpty()) {
+			for (String param : rawQuery.split("&")) {
+				String[] nameValue = param.split("=", 2);
+				params.put(URLDecoder.decode(nameValue[0], StandardCharsets.UTF_8),
+						nameValue.length < 2 ? "" : URLDecoder.decode(nameValue[1], StandardCharsets.UTF_8));
+			}
+		}
+		return params;
+	}
+
+	static String escape(String s) {
+		return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;").replace("\"", "&quot;");
+	}
+
+	static String unescape(String s) {
+		return s.replace("&quot;", "\"").replace("&lt;", "<").replace("&gt;", ">").replace("&amp;", "&");
+	}
+
+	static void sendError(HttpExchange exchange, int status, String code) throws IOException {
+		byte[] error = "<Error><Code>%s</Code></Error>".formatted(code).getBytes();
+		exchange.getResponseHeaders().add("Content-Type", "application/xml");
+		exchange.sendResponseHeaders(status, error.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(error);
+		}
+	}
+
+	@Override
+	public void close() {
+		this.server.stop(0);
+		this.executor.shutdownNow();
+	}
+
+	@FunctionalInterface
+	interface Interceptor {
+
+		/**
+		 * @return {@code true} if the exchange has been handled
+		 */
+		boolean intercept(HttpExchange exchange) throws IOException;
+
+	}
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2023 Toshiaki Maki <makingx@gmail.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package am.ik.s3;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestClient;
+
+import static am.ik.s3.ObjectListerBuilder.objectLister;
+import static am.ik.s3.VersionPurgerBuilder.versionPurger;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class VersionPurgerTest {
+
+	StubS3Server server;
+
+	RestClient restClient = RestClient.create();
+
+	@BeforeEach
+	void setup() throws Exception {
+		this.server = new StubS3Server();
+		for (int i = 0; i < 20; i++) {
+			String key = "logs/%02d.log".formatted(i);
+			this.server.putVersion("test", key, "v1", new byte[i]);
+			this.server.putVersion("test", key, "v2", new byte[i]);
+			if (i % 4 == 0) {
+				this.server.putDeleteMarker("test", key, "v3");
+			}
+		}
+		this.server.putVersion("test", "other/a.txt", "v1", new byte[0]);
+	}
+
+	@AfterEach
+	void tearDown() {
+		this.server.close();
+	}
+
+	@Test
+	void listVersionPages() {
+		ObjectLister lister = objectLister().restClient(this.restClient)
+			.config(this.server.config())
+			.maxKeys(7)
+			.build();
+		List<ListVersionsResult> pages = lister.listVersionPages("test", "logs/").toList();
+		assertThat(pages).hasSize(7);
+		assertThat(pages.get(0).nextKeyMarker()).isEqualTo("logs/02.log");
+		assertThat(pages.get(0).nextVersionIdMarker()).isEqualTo("v2");
+		assertThat(pages.stream()
+			.flatMap(p -> p.versions().stream())
+			.map(v -> v.key() + "@" + v.versionId())
+			.distinct()
+			.count()).isEqualTo(40);
+		assertThat(pages.stream().mapToInt(p -> p.deleteMarkers().size()).sum()).isEqualTo(5);
+	}
+
+	@Test
+	void purge() {
+		VersionPurger purger = versionPurger().restClient(this.restClient)
+			.config(this.server.config())
+			.concurrency(3)
+			.batchSize(10)
+			.build();
+		PurgeResult result = purger.purge("test", "logs/");
+		assertThat(result).isEqualTo(new PurgeResult(40, 5));
+		assertThat(this.server.versionCount("test")).isEqualTo(1);
+		assertThat(this.server.requests()).filteredOn(r -> r.startsWith("POST /test?delete")).hasSize(5);
+		assertThat(purger.purge("test", null)).isEqualTo(new PurgeResult(1, 0));
+		assertThat(this.server.versionCount("test")).isZero();
+	}
+
+	@Test
+	void purgeWithErrors() {
+		this.server.denyDelete("logs/04.log");
+		VersionPurger purger = versionPurger().restClient(this.restClient).config(this.server.config()).build();
+		PurgeResult result = purger.purge("test", "logs/");
+		assertThat(result.deletedVersions()).isEqualTo(38);
+		assertThat(result.deletedDeleteMarkers()).isEqualTo(4);
+		assertThat(result.errors()).extracting(DeleteError::versionId).containsExactlyInAnyOrder("v1", "v2", "v3");
+		assertThat(result.errors()).allSatisfy(error -> {
+			assertThat(error.key()).isEqualTo("logs/04.log");
+			assertThat(error.code()).isEqualTo("AccessDenied");
+		});
+		assertThat(this.server.versionCount("test")).isEqualTo(4);
+	}
+
+	@Test
+	void purgeFailure() {
+		this.server.interceptor(exchange -> {
+			if (exchange.getRequestMethod().equals("POST")
+					&& Objects.equals(exchange.getRequestURI().getQuery(), "delete=")) {
+				StubS3Server.sendError(exchange, 403, "AccessDenied");
+				return true;
+			}
+			return false;
+		});
+		VersionPurger purger = versionPurger().restClient(this.restClient).config(this.server.config()).build();
+		assertThatThrownBy(() -> purger.purge("test", null)).isInstanceOf(HttpClientErrorException.Forbidden.class);
+	}
+
+}